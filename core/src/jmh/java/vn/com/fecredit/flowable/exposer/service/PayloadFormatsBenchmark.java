@@ -0,0 +1,69 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse and encode cost of text JSON against Smile for a typical order
+ * snapshot; run with {@code ./gradlew :core:jmh}.  Sizes and round-trip
+ * equivalence are asserted by {@code PayloadFormatsTest}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PayloadFormatsBenchmark {
+
+    @Param({"10", "500"})
+    public int items;
+
+    private final ObjectMapper om = new ObjectMapper();
+    private String json;
+    private byte[] smile;
+
+    @Setup
+    public void setUp() {
+        json = sampleOrder(items);
+        smile = PayloadFormats.jsonToSmile(json);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> parseJson() throws Exception {
+        return om.readValue(json, Map.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseSmile() {
+        return PayloadFormats.readSmileMap(smile);
+    }
+
+    @Benchmark
+    public byte[] encodeSmileDeflate() {
+        return PayloadCodecs.DEFLATE.encode(PayloadFormats.jsonToSmile(json));
+    }
+
+    static String sampleOrder(int items) {
+        StringBuilder sb = new StringBuilder("{\"@class\":\"Order\",\"orderId\":\"ORD-1\",\"total\":1234.5,\"customer\":{\"@class\":\"Customer\",\"id\":\"C1\",\"name\":\"Nguyen Van A\"},\"items\":[");
+        for (int i = 0; i < items; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"@class\":\"Item\",\"sku\":\"SKU-").append(i)
+                    .append("\",\"qty\":").append(i % 5 + 1).append(",\"price\":").append(10.25 * i).append(",\"active\":true}");
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -5,6 +5,7 @@ import org.flowable.spring.SpringProcessEngineConfiguration;
 import org.flowable.spring.boot.EngineConfigurationConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import vn.com.fecredit.flowable.exposer.flowable.EventSubscriptions;
 import vn.com.fecredit.flowable.exposer.flowable.GlobalFlowableEventListener;
 
 import java.util.ArrayList;
@@ -15,6 +16,9 @@ import java.util.List;
  *
  * The @Component annotation alone is not sufficient - we must explicitly register
  * the listener with Flowable's ProcessEngineConfiguration and CmmnEngineConfiguration.
+ * The engines register it for the event types it reports from
+ * {@code getTypes()}, resolved per engine (see {@code EventSubscriptions});
+ * an engine raising none of the subscribed types does not get the listener.
  */
 @Configuration
 public class FlowableEventListenerConfiguration {
@@ -33,7 +37,7 @@ public class FlowableEventListenerConfiguration {
             }
             
             // Add our global listener if not already present
-            if (!eventListeners.contains(globalFlowableEventListener)) {
+            if (globalFlowableEventListener.listensTo(EventSubscriptions.Engine.BPMN) && !eventListeners.contains(globalFlowableEventListener)) {
                 eventListeners.add(globalFlowableEventListener);
             }
         };
@@ -59,8 +63,9 @@ public class FlowableEventListenerConfiguration {
                     setMethod.invoke(engineConfiguration, eventListeners);
                 }
 
-                if (!eventListeners.contains(globalFlowableEventListener)) {
-                    eventListeners.add(globalFlowableEventListener);
+                FlowableEventListener cmmnListener = globalFlowableEventListener.cmmnListener();
+                if (globalFlowableEventListener.listensTo(EventSubscriptions.Engine.CMMN) && !eventListeners.contains(cmmnListener)) {
+                    eventListeners.add(cmmnListener);
                 }
             } catch (NoSuchMethodException ignored) {
                 // Engine configuration doesn't expose event listener hooks; nothing to do
@@ -9,8 +9,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseSnapshotBuffer;
+import vn.com.fecredit.flowable.exposer.service.ExposedVariableSet;
 import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
-import vn.com.fecredit.flowable.exposer.service.RequestPersistService;
 
 import java.util.Map;
 
@@ -36,12 +37,16 @@ public class CasePersistDelegate implements JavaDelegate {
     @Autowired
     private CaseDataPersistService persistService;
 
-    @Autowired
-    private RequestPersistService requestPersistService;
+    @Autowired(required = false)
+    private CaseSnapshotBuffer snapshotBuffer;
+
+    @Autowired(required = false)
+    private ExposedVariableSet exposedVariables;
 
     @Override
     public void execute(DelegateExecution execution) {
-        Map<String, Object> vars = CasePersistHelpers.copyVariables(execution);
+        Map<String, Object> vars = CasePersistHelpers.copyVariables(execution,
+                exposedVariables == null ? null : exposedVariables.namesFor("Order"));
         String caseInstanceId = CasePersistHelpers.resolveCaseInstanceId(execution, vars);
 
         // enrich and ensure class annotations
@@ -53,20 +58,16 @@ public class CasePersistDelegate implements JavaDelegate {
 
         String payload = CasePersistHelpers.stringify(om, vars);
         try {
-            persistService.persistSysCaseData(caseInstanceId, "Order", payload);
-            safeCreateRequest(caseInstanceId);
+            boolean written = snapshotBuffer != null
+                    ? snapshotBuffer.submit(caseInstanceId, "Order", payload, true, null)
+                    : persistService.persistSnapshotAndRequest(caseInstanceId, "Order", payload, null);
+            if (written) {
+                logger.info("CasePersistDelegate persisted snapshot and sys_expose_request for {}", caseInstanceId);
+            } else {
+                logger.debug("CasePersistDelegate: snapshot unchanged for {}, no expose request needed", caseInstanceId);
+            }
         } catch (Exception ex) {
             logger.warn("Failed to persist case blob for {}:", caseInstanceId, ex);
         }
     }
-
-    private void safeCreateRequest(String caseInstanceId) {
-        try {
-            logger.info("CasePersistDelegate calling RequestPersistService.createRequest(caseInstanceId={}, entityType={})", caseInstanceId, "Order");
-            requestPersistService.createRequest(caseInstanceId, "Order", null);
-            logger.info("CasePersistDelegate created sys_expose_request (REQUIRES_NEW) for {}", caseInstanceId);
-        } catch (Throwable t) {
-            logger.warn("CasePersistDelegate: failed to create sys_expose_request for {}: {}", caseInstanceId, t.getMessage());
-        }
-    }
 }
@@ -2,6 +2,7 @@ package vn.com.fecredit.flowable.exposer.delegate;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.flowable.engine.delegate.DelegateExecution;
+import vn.com.fecredit.flowable.exposer.flowable.FlowableEntityAccessors;
 import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
 
 import java.util.ArrayList;
@@ -13,10 +14,18 @@ public final class CasePersistHelpers {
     private CasePersistHelpers() {}
 
     public static Map<String, Object> copyVariables(DelegateExecution execution) {
+        return copyVariables(execution, null);
+    }
+
+    /**
+     * Copy of the named variables ({@code null} for all), fetched with
+     * {@code getVariables(names)} so unreferenced variables are never loaded.
+     */
+    public static Map<String, Object> copyVariables(DelegateExecution execution, java.util.Collection<String> names) {
         Map<String, Object> dst = new HashMap<>();
         try {
             @SuppressWarnings("unchecked")
-            Map<String, Object> src = execution.getVariables();
+            Map<String, Object> src = names == null ? execution.getVariables() : execution.getVariables(names);
             if (src == null) return dst;
             for (Map.Entry<String, Object> e : src.entrySet()) {
                 Object v = e.getValue();
@@ -90,39 +99,15 @@ public final class CasePersistHelpers {
     }
 
     public static void populateFlowableMetadata(DelegateExecution execution, Map<String, Object> vars) {
-        try {
-            try {
-                var m = execution.getClass().getMethod("getStartTime");
-                Object st = m.invoke(execution);
-                if (st != null) vars.putIfAbsent("createTime", String.valueOf(st));
-            } catch (NoSuchMethodException ignored) {}
-
-            try {
-                var m2 = execution.getClass().getMethod("getStartUserId");
-                Object su = m2.invoke(execution);
-                if (su != null) vars.putIfAbsent("startUserId", String.valueOf(su));
-            } catch (NoSuchMethodException ignored) {}
-
-            try {
-                var m3 = execution.getClass().getMethod("getBusinessKey");
-                Object bk = m3.invoke(execution);
-                if (bk != null) vars.putIfAbsent("businessKey", String.valueOf(bk));
-            } catch (NoSuchMethodException ignored) {}
-
-            try {
-                var m4 = execution.getClass().getMethod("getTenantId");
-                Object tid = m4.invoke(execution);
-                if (tid != null) vars.putIfAbsent("tenantId", String.valueOf(tid));
-            } catch (NoSuchMethodException ignored) {}
+        putIfPresent(vars, "createTime", FlowableEntityAccessors.get(execution, "getStartTime"));
+        putIfPresent(vars, "startUserId", FlowableEntityAccessors.get(execution, "getStartUserId"));
+        putIfPresent(vars, "businessKey", FlowableEntityAccessors.get(execution, "getBusinessKey"));
+        putIfPresent(vars, "tenantId", FlowableEntityAccessors.get(execution, "getTenantId"));
+        putIfPresent(vars, "processDefinitionId", FlowableEntityAccessors.get(execution, "getProcessDefinitionId"));
+    }
 
-            try {
-                var m5 = execution.getClass().getMethod("getProcessDefinitionId");
-                Object pd = m5.invoke(execution);
-                if (pd != null) vars.putIfAbsent("processDefinitionId", String.valueOf(pd));
-            } catch (NoSuchMethodException ignored) {}
-        } catch (Throwable ignored) {
-            // best-effort only
-        }
+    private static void putIfPresent(Map<String, Object> vars, String key, Object value) {
+        if (value != null) vars.putIfAbsent(key, String.valueOf(value));
     }
 
     public static void putClassIfMap(Map<String, Object> vars, String key, String className) {
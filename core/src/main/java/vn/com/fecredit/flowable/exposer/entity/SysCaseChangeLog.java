@@ -0,0 +1,107 @@
+package vn.com.fecredit.flowable.exposer.entity;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+
+/**
+ * One variable change of a case, recorded from a Flowable variable event.
+ * {@code operation} is {@code SET} (with the JSON value) or {@code DELETE};
+ * {@code appliedAt} is set once the change has been folded into a snapshot.
+ */
+@Entity
+@Table(name = "sys_case_change_log")
+public class SysCaseChangeLog {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "case_instance_id", nullable = false)
+    private String caseInstanceId;
+
+    @Column(name = "entity_type")
+    private String entityType;
+
+    @Column(name = "variable_name", nullable = false)
+    private String variableName;
+
+    @Column(name = "operation", nullable = false, length = 10)
+    private String operation;
+
+    @Lob
+    @Column(name = "value_json")
+    private String valueJson;
+
+    @Column(name = "created_at")
+    private Timestamp createdAt;
+
+    @Column(name = "applied_at")
+    private Timestamp appliedAt;
+
+    // Getters and Setters
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getCaseInstanceId() {
+        return caseInstanceId;
+    }
+
+    public void setCaseInstanceId(String caseInstanceId) {
+        this.caseInstanceId = caseInstanceId;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getVariableName() {
+        return variableName;
+    }
+
+    public void setVariableName(String variableName) {
+        this.variableName = variableName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getValueJson() {
+        return valueJson;
+    }
+
+    public void setValueJson(String valueJson) {
+        this.valueJson = valueJson;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Timestamp getAppliedAt() {
+        return appliedAt;
+    }
+
+    public void setAppliedAt(Timestamp appliedAt) {
+        this.appliedAt = appliedAt;
+    }
+}
@@ -0,0 +1,63 @@
+package vn.com.fecredit.flowable.exposer.entity;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Pointer from a case instance to its most recent {@link SysCaseDataStore}
+ * row.  Maintained in the same transaction as the snapshot insert so readers
+ * can fetch the latest snapshot with a primary-key lookup instead of sorting
+ * the append-only store.
+ */
+@Entity
+@Table(name = "sys_case_data_latest")
+public class SysCaseDataLatest {
+
+    @Id
+    @Column(name = "case_instance_id", nullable = false)
+    private String caseInstanceId;
+
+    @Column(name = "store_id", nullable = false)
+    private Long storeId;
+
+    @Column(name = "version")
+    private Integer version;
+
+    @Column(name = "updated_at")
+    private Timestamp updatedAt;
+
+    // Getters and Setters
+
+    public String getCaseInstanceId() {
+        return caseInstanceId;
+    }
+
+    public void setCaseInstanceId(String caseInstanceId) {
+        this.caseInstanceId = caseInstanceId;
+    }
+
+    public Long getStoreId() {
+        return storeId;
+    }
+
+    public void setStoreId(Long storeId) {
+        this.storeId = storeId;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Timestamp updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,84 @@
+package vn.com.fecredit.flowable.exposer.entity;
+
+import jakarta.persistence.*;
+
+import java.sql.Timestamp;
+
+/**
+ * Resume point of a blob reindex run for one entity type.  Advanced in the
+ * same transaction as each chunk of rewritten {@link SysCaseDataStore} rows,
+ * so a restarted run continues after {@code lastId}.
+ */
+@Entity
+@Table(name = "sys_case_data_reindex_checkpoint")
+public class SysCaseDataReindexCheckpoint {
+
+    @Id
+    @Column(name = "entity_type", nullable = false)
+    private String entityType;
+
+    @Column(name = "last_id", nullable = false)
+    private Long lastId = 0L;
+
+    @Column(name = "rows_done", nullable = false)
+    private Long rowsDone = 0L;
+
+    @Column(name = "status", nullable = false)
+    private String status = "RUNNING";
+
+    @Column(name = "started_at")
+    private Timestamp startedAt;
+
+    @Column(name = "updated_at")
+    private Timestamp updatedAt;
+
+    // Getters and Setters
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public void setEntityType(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public Long getLastId() {
+        return lastId;
+    }
+
+    public void setLastId(Long lastId) {
+        this.lastId = lastId;
+    }
+
+    public Long getRowsDone() {
+        return rowsDone;
+    }
+
+    public void setRowsDone(Long rowsDone) {
+        this.rowsDone = rowsDone;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Timestamp getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Timestamp startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Timestamp getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Timestamp updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -10,7 +10,9 @@ import java.sql.Timestamp;
  * and by Flyway/Liquibase in production.
  */
 @Entity
-@Table(name = "sys_case_data_store")
+@Table(name = "sys_case_data_store",
+        uniqueConstraints = @UniqueConstraint(name = "ux_case_data_store_case_version", columnNames = {"case_instance_id", "version"}),
+        indexes = @Index(name = "ix_case_data_store_base_id", columnList = "base_id"))
 public class SysCaseDataStore {
 
     @Id
@@ -39,6 +41,25 @@ public class SysCaseDataStore {
     @Column(name = "error_message")
     private String errorMessage;
 
+    /** SHA-256 of the canonical JSON payload, used to skip identical snapshots. */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    /** Codec of {@link #payloadBytes}; NULL for plain JSON kept in {@link #payload}. */
+    @Column(name = "payload_codec", length = 32)
+    private String payloadCodec;
+
+    @Lob
+    @Column(name = "payload_bytes")
+    private byte[] payloadBytes;
+
+    /** FULL (or NULL) for a complete payload, DELTA for a JSON Patch against {@link #baseId}. */
+    @Column(name = "snapshot_kind", length = 8)
+    private String snapshotKind;
+
+    @Column(name = "base_id")
+    private Long baseId;
+
     // Getters and Setters
 
     public Long getId() {
@@ -104,4 +125,44 @@ public class SysCaseDataStore {
     public void setErrorMessage(String errorMessage) {
         this.errorMessage = errorMessage;
     }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getPayloadCodec() {
+        return payloadCodec;
+    }
+
+    public void setPayloadCodec(String payloadCodec) {
+        this.payloadCodec = payloadCodec;
+    }
+
+    public byte[] getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public void setPayloadBytes(byte[] payloadBytes) {
+        this.payloadBytes = payloadBytes;
+    }
+
+    public String getSnapshotKind() {
+        return snapshotKind;
+    }
+
+    public void setSnapshotKind(String snapshotKind) {
+        this.snapshotKind = snapshotKind;
+    }
+
+    public Long getBaseId() {
+        return baseId;
+    }
+
+    public void setBaseId(Long baseId) {
+        this.baseId = baseId;
+    }
 }
@@ -0,0 +1,389 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseDataWriter;
+import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
+import vn.com.fecredit.flowable.exposer.service.NewTransaction;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional off-engine-thread capture for {@link FlowableEventDelegator}.
+ *
+ * <p>When {@code exposer.capture.async.enabled=true} the event handlers only
+ * copy the case variables into one of {@code capacity} preallocated slots;
+ * a pool of {@code consumers} threads then annotates, serializes and
+ * persists them through {@link CaseDataPersistService}.  Inside an engine
+ * transaction the slot is published after commit, so rolled back work never
+ * reaches the consumers.  Variables are deep-copied on capture, so consumers
+ * never touch engine-owned maps or lists.
+ *
+ * <p>Each case is routed to one consumer by hashing its id, so the captures
+ * of a case are persisted in the order they were published and the latest
+ * snapshot never goes backwards.
+ *
+ * <p>When every slot is taken for longer than {@code offer-timeout-ms}, the
+ * {@code overflow} policy decides:
+ * <ul>
+ *   <li>{@code block} (default) waits for a free slot;</li>
+ *   <li>{@code request} drops the snapshot and only enqueues an expose
+ *       request (in its own transaction), so the worker reindexes the case
+ *       from its latest stored snapshot;</li>
+ *   <li>{@code spill} appends the capture to the owning consumer's
+ *       {@code <spill-file>.<n>}; once a case has spilled, its later captures
+ *       are spilled behind it until the consumer has drained the file, which
+ *       it does when its queue is empty, and on the next start.</li>
+ * </ul>
+ */
+@Component
+public class CaseCaptureRing {
+    private static final Logger log = LoggerFactory.getLogger(CaseCaptureRing.class);
+
+    @Value("${exposer.capture.async.enabled:false}")
+    private boolean enabled;
+    @Value("${exposer.capture.async.capacity:1024}")
+    private int capacity = 1024;
+    @Value("${exposer.capture.async.consumers:2}")
+    private int consumers = 2;
+    @Value("${exposer.capture.async.offer-timeout-ms:20}")
+    private long offerTimeoutMs = 20;
+    @Value("${exposer.capture.async.overflow:block}")
+    private String overflow = "block";
+    @Value("${exposer.capture.async.spill-file:${java.io.tmpdir}/exposer/capture-spill.log}")
+    private String spillFile;
+
+    private final CaseDataPersistService persistService;
+    private final ObjectMapper om;
+
+    @Autowired(required = false)
+    private MetadataAnnotator annotator;
+
+    @Autowired(required = false)
+    private CaseDataWriter writer;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager txManager;
+
+    /** One preallocated capture; its variable map is reused across publications. */
+    static final class Slot {
+        String caseInstanceId;
+        String entityType;
+        final Map<String, Object> vars = new HashMap<>();
+        boolean enrich;
+        boolean exposeRequest;
+        String requestedBy;
+
+        void clear() {
+            caseInstanceId = null;
+            entityType = null;
+            vars.clear();
+            requestedBy = null;
+        }
+    }
+
+    private BlockingQueue<Slot> free;
+    /** One ready queue per consumer; a case always lands in the same one. */
+    private final List<BlockingQueue<Slot>> ready = new ArrayList<>();
+    private final List<Thread> pool = new ArrayList<>();
+    private final Object spillLock = new Object();
+    /** Cases with captures waiting in a spill file; guarded by {@code spillLock}. */
+    private final Set<String> spilledCases = new HashSet<>();
+    private volatile boolean running;
+
+    public CaseCaptureRing(CaseDataPersistService persistService, ObjectMapper om) {
+        this.persistService = persistService;
+        this.om = om;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        int slots = Math.max(1, capacity);
+        free = new ArrayBlockingQueue<>(slots);
+        for (int i = 0; i < slots; i++) free.add(new Slot());
+        int n = Math.max(1, consumers);
+        ready.clear();
+        for (int i = 0; i < n; i++) ready.add(new ArrayBlockingQueue<>(slots));
+        drainLeftoverSpills();
+        running = true;
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            Thread t = new Thread(() -> runLoop(index), "exposer-capture-" + i);
+            t.setDaemon(true);
+            t.start();
+            pool.add(t);
+        }
+        log.info("CaseCaptureRing started (capacity={}, consumers={}, overflow={})", slots, pool.size(), overflow);
+    }
+
+    public boolean isEnabled() {
+        return enabled && running;
+    }
+
+    /**
+     * Capture a snapshot for the consumer pool.  Only the variable map (with
+     * its nested maps and lists) is copied on the calling thread; {@code enrich} asks the consumer to add the
+     * default class annotations and run the {@link MetadataAnnotator} first.
+     *
+     * @return {@code false} when capture is disabled and the caller must persist itself
+     */
+    public boolean publish(String caseInstanceId, String entityType, Map<String, Object> vars,
+                           boolean enrich, boolean exposeRequest, String requestedBy) {
+        if (!isEnabled()) return false;
+        Map<String, Object> copy = deepCopy(vars);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(caseInstanceId, entityType, copy, enrich, exposeRequest, requestedBy);
+                }
+            });
+        } else {
+            enqueue(caseInstanceId, entityType, copy, enrich, exposeRequest, requestedBy);
+        }
+        return true;
+    }
+
+    /** Copy of a variable map down through nested maps and lists; leaf values are shared. */
+    static Map<String, Object> deepCopy(Map<String, Object> vars) {
+        Map<String, Object> copy = new LinkedHashMap<>();
+        if (vars != null) vars.forEach((k, v) -> copy.put(k, deepCopyValue(v)));
+        return copy;
+    }
+
+    private static Object deepCopyValue(Object v) {
+        if (v instanceof Map<?, ?> m) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            m.forEach((k, x) -> copy.put(k, deepCopyValue(x)));
+            return copy;
+        }
+        if (v instanceof Collection<?> c) {
+            List<Object> copy = new ArrayList<>(c.size());
+            for (Object x : c) copy.add(deepCopyValue(x));
+            return copy;
+        }
+        return v;
+    }
+
+    private int route(String caseInstanceId) {
+        return caseInstanceId == null ? 0 : Math.floorMod(caseInstanceId.hashCode(), ready.size());
+    }
+
+    private Path spillPath(int consumer) {
+        return Path.of(spillFile + "." + consumer);
+    }
+
+    private void enqueue(String caseInstanceId, String entityType, Map<String, Object> vars,
+                         boolean enrich, boolean exposeRequest, String requestedBy) {
+        // a case with spilled captures keeps spilling until its consumer has drained them
+        synchronized (spillLock) {
+            if (caseInstanceId != null && spilledCases.contains(caseInstanceId)) {
+                try {
+                    spill(caseInstanceId, entityType, vars, enrich, exposeRequest, requestedBy);
+                } catch (IOException ex) {
+                    log.error("CaseCaptureRing: failed to spill capture for case {} behind earlier ones", caseInstanceId, ex);
+                }
+                return;
+            }
+        }
+        try {
+            Slot slot = free.poll(offerTimeoutMs, TimeUnit.MILLISECONDS);
+            if (slot == null && "block".equalsIgnoreCase(overflow)) slot = free.take();
+            if (slot == null) {
+                overflow(caseInstanceId, entityType, vars, enrich, exposeRequest, requestedBy);
+                return;
+            }
+            slot.caseInstanceId = caseInstanceId;
+            slot.entityType = entityType;
+            slot.vars.putAll(vars);
+            slot.enrich = enrich;
+            slot.exposeRequest = exposeRequest;
+            slot.requestedBy = requestedBy;
+            ready.get(route(caseInstanceId)).put(slot);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            overflow(caseInstanceId, entityType, vars, enrich, exposeRequest, requestedBy);
+        }
+    }
+
+    private void overflow(String caseInstanceId, String entityType, Map<String, Object> vars,
+                          boolean enrich, boolean exposeRequest, String requestedBy) {
+        try {
+            if ("spill".equalsIgnoreCase(overflow)) {
+                spill(caseInstanceId, entityType, vars, enrich, exposeRequest, requestedBy);
+                log.warn("CaseCaptureRing: ring full, spilled capture for case {} to {}", caseInstanceId, spillPath(route(caseInstanceId)));
+            } else if (writer != null) {
+                // usually runs in afterCommit, where the engine connection no longer commits
+                NewTransaction.run(txManager, () -> writer.insertExposeRequest(caseInstanceId, entityType,
+                        requestedBy != null ? requestedBy : "system", new java.sql.Timestamp(System.currentTimeMillis())));
+                log.warn("CaseCaptureRing: ring full, dropped snapshot for case {} and enqueued an expose request", caseInstanceId);
+            } else {
+                log.error("CaseCaptureRing: ring full and no writer available, dropping capture for case {}", caseInstanceId);
+            }
+        } catch (Exception ex) {
+            log.error("CaseCaptureRing: overflow handling failed for case {}", caseInstanceId, ex);
+        }
+    }
+
+    private void spill(String caseInstanceId, String entityType, Map<String, Object> vars,
+                       boolean enrich, boolean exposeRequest, String requestedBy) throws IOException {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("caseInstanceId", caseInstanceId);
+        m.put("entityType", entityType);
+        m.put("vars", vars);
+        m.put("enrich", enrich);
+        m.put("exposeRequest", exposeRequest);
+        m.put("requestedBy", requestedBy);
+        byte[] line = (om.writeValueAsString(m) + "\n").getBytes(StandardCharsets.UTF_8);
+        Path file = spillPath(route(caseInstanceId));
+        synchronized (spillLock) {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            Files.write(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (caseInstanceId != null) spilledCases.add(caseInstanceId);
+        }
+    }
+
+    /** On start, before any consumer runs: drain the legacy spill file and every consumer file of a previous run. */
+    private void drainLeftoverSpills() {
+        if (spillFile == null) return;
+        Path base = Path.of(spillFile);
+        drainSpill(base);
+        Path dir = base.toAbsolutePath().getParent();
+        if (dir != null && Files.isDirectory(dir)) {
+            String prefix = base.getFileName() + ".";
+            try (var files = Files.list(dir)) {
+                files.filter(f -> f.getFileName().toString().startsWith(prefix)).sorted().forEach(this::drainSpill);
+            } catch (IOException ex) {
+                log.error("CaseCaptureRing: failed to list spill files in {}: {}", dir, ex.getMessage());
+            }
+        }
+        synchronized (spillLock) {
+            spilledCases.clear();
+        }
+    }
+
+    /** Drain one consumer's spill file; its cases go back to the ring once nothing new was spilled meanwhile. */
+    void drainSpill(int consumer) {
+        if (spillFile == null) return;
+        Path file = spillPath(consumer);
+        drainSpill(file);
+        synchronized (spillLock) {
+            try {
+                if (Files.exists(file) && Files.size(file) > 0) return;
+            } catch (IOException ex) {
+                return;
+            }
+            spilledCases.removeIf(c -> route(c) == consumer);
+        }
+    }
+
+    /** Process and truncate a spill file in line order. */
+    @SuppressWarnings("unchecked")
+    private void drainSpill(Path file) {
+        List<String> lines;
+        synchronized (spillLock) {
+            try {
+                if (!Files.exists(file) || Files.size(file) == 0) return;
+                lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                Files.write(file, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException ex) {
+                log.error("CaseCaptureRing: failed to read spill file {}: {}", file, ex.getMessage());
+                return;
+            }
+        }
+        log.info("CaseCaptureRing: draining {} spilled captures from {}", lines.size(), file);
+        Slot slot = new Slot();
+        for (String line : lines) {
+            if (line.isBlank()) continue;
+            try {
+                Map<String, Object> m = om.readValue(line, Map.class);
+                slot.caseInstanceId = (String) m.get("caseInstanceId");
+                slot.entityType = (String) m.get("entityType");
+                if (m.get("vars") instanceof Map<?, ?> vars) slot.vars.putAll((Map<String, Object>) vars);
+                slot.enrich = Boolean.TRUE.equals(m.get("enrich"));
+                slot.exposeRequest = Boolean.TRUE.equals(m.get("exposeRequest"));
+                slot.requestedBy = (String) m.get("requestedBy");
+                process(slot);
+            } catch (Exception ex) {
+                log.warn("CaseCaptureRing: skipping unreadable spill line: {}", ex.getMessage());
+            } finally {
+                slot.clear();
+            }
+        }
+    }
+
+    private void runLoop(int index) {
+        BlockingQueue<Slot> queue = ready.get(index);
+        while (running || !queue.isEmpty()) {
+            Slot slot = null;
+            try {
+                slot = queue.poll(250, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    if (running) drainSpill(index);
+                    continue;
+                }
+                process(slot);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.error("CaseCaptureRing: failed to persist capture for case {}", slot.caseInstanceId, ex);
+            } finally {
+                if (slot != null) {
+                    slot.clear();
+                    free.offer(slot);
+                }
+            }
+        }
+    }
+
+    private void process(Slot slot) throws Exception {
+        if (slot.enrich) {
+            FlowableEventDelegator.enrichMinimalAnnotations(slot.vars);
+            try { if (annotator != null) annotator.annotate(slot.vars, slot.entityType); } catch (Exception ignored) {}
+        }
+        String payload = om.writeValueAsString(slot.vars);
+        if (slot.exposeRequest) persistService.persistSnapshotAndRequest(slot.caseInstanceId, slot.entityType, payload, slot.requestedBy);
+        else persistService.persistSysCaseData(slot.caseInstanceId, slot.entityType, payload);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) return;
+        running = false;
+        for (Thread t : pool) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool.clear();
+    }
+}
@@ -0,0 +1,266 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEventType;
+import org.flowable.common.engine.api.delegate.event.FlowableEvent;
+import org.flowable.common.engine.api.delegate.event.FlowableEventType;
+import org.flowable.task.api.TaskInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The engine events {@link GlobalFlowableEventListener} subscribes to.
+ *
+ * <p>Each subscription combines event types, process/case definition keys and
+ * task types; an empty key or task type list matches anything:
+ * <pre>
+ * exposer.events.subscriptions[0].name=orders
+ * exposer.events.subscriptions[0].event-types=PROCESS_STARTED,PROCESS_COMPLETED
+ * exposer.events.subscriptions[0].definition-keys=orderProcess
+ * exposer.events.subscriptions[1].name=approvals
+ * exposer.events.subscriptions[1].event-types=TASK_COMPLETED
+ * exposer.events.subscriptions[1].task-types=approve,payment
+ * </pre>
+ * Task types are matched, case-insensitively, as substrings of the task's
+ * category or definition key.  Without configuration a single {@code default}
+ * subscription covers the events the exposer has always handled
+ * ({@code CASE_STARTED} only when the CMMN engine is on the classpath), plus
+ * the variable events when {@link VariableChangeCapture} is enabled.
+ *
+ * <p>The union of event types is handed to each engine through the
+ * listener's {@code getTypes()}, resolved per engine by
+ * {@link #engineEventTypes(Engine)}: {@link FlowableEngineEventType} names
+ * for both engines, and the CMMN event types (such as {@code CASE_STARTED})
+ * for the CMMN engine only.  Other events are never dispatched to the
+ * listener; per-subscription counters record what was handled and what was
+ * filtered out by keys or task types.
+ */
+@Component
+public class EventSubscriptions {
+
+    private static final Logger log = LoggerFactory.getLogger(EventSubscriptions.class);
+
+    static final List<String> DEFAULT_EVENT_TYPES = List.of("PROCESS_STARTED", "PROCESS_COMPLETED", "CASE_STARTED", "TASK_COMPLETED");
+
+    /** Added to the default subscription when {@code exposer.capture.variable-changes.enabled=true}. */
+    static final List<String> VARIABLE_EVENT_TYPES = List.of("VARIABLE_CREATED", "VARIABLE_UPDATED", "VARIABLE_DELETED");
+
+    /** CASE_STARTED is only raised by the CMMN engine and is not a {@link FlowableEngineEventType}. */
+    private static final boolean CMMN_PRESENT = org.springframework.util.ClassUtils.isPresent(
+            "org.flowable.cmmn.engine.CmmnEngineConfiguration", EventSubscriptions.class.getClassLoader());
+
+    /** Event types of the CMMN engine, looked up reflectively so the class loads without CMMN; {@code null} when absent. */
+    private static final Class<?> CMMN_EVENT_TYPE = cmmnEventTypeClass();
+
+    /** The engines the listener is registered with. */
+    public enum Engine { BPMN, CMMN }
+
+    /** Bound form of one {@code exposer.events.subscriptions[n]} entry. */
+    public static class Properties {
+        private String name;
+        private List<String> eventTypes = new ArrayList<>();
+        private List<String> definitionKeys = new ArrayList<>();
+        private List<String> taskTypes = new ArrayList<>();
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public List<String> getEventTypes() { return eventTypes; }
+        public void setEventTypes(List<String> eventTypes) { this.eventTypes = eventTypes; }
+        public List<String> getDefinitionKeys() { return definitionKeys; }
+        public void setDefinitionKeys(List<String> definitionKeys) { this.definitionKeys = definitionKeys; }
+        public List<String> getTaskTypes() { return taskTypes; }
+        public void setTaskTypes(List<String> taskTypes) { this.taskTypes = taskTypes; }
+    }
+
+    /** A compiled subscription with its counters. */
+    public static final class Subscription {
+        private final String name;
+        private final Set<String> eventTypes;
+        private final Set<String> definitionKeys;
+        private final List<String> taskTypes;
+        private final LongAdder handled = new LongAdder();
+        private final LongAdder filtered = new LongAdder();
+
+        Subscription(String name, Collection<String> eventTypes, Collection<String> definitionKeys, Collection<String> taskTypes) {
+            this.name = name;
+            this.eventTypes = normalize(eventTypes, true);
+            this.definitionKeys = normalize(definitionKeys, false);
+            this.taskTypes = new ArrayList<>(normalize(taskTypes, false).stream().map(t -> t.toLowerCase(Locale.ROOT)).toList());
+        }
+
+        public String name() { return name; }
+        public Set<String> eventTypes() { return eventTypes; }
+        public long handled() { return handled.sum(); }
+        public long filtered() { return filtered.sum(); }
+
+        boolean accepts(Object entity) {
+            if (!definitionKeys.isEmpty() && !definitionKeys.contains(definitionKey(entity))) return false;
+            if (taskTypes.isEmpty()) return true;
+            if (!(entity instanceof TaskInfo task)) return false;
+            String category = task.getCategory() == null ? "" : task.getCategory().toLowerCase(Locale.ROOT);
+            String key = task.getTaskDefinitionKey() == null ? "" : task.getTaskDefinitionKey().toLowerCase(Locale.ROOT);
+            for (String t : taskTypes) {
+                if (category.contains(t) || key.contains(t)) return true;
+            }
+            return false;
+        }
+    }
+
+    private final List<Subscription> subscriptions;
+    private final Set<String> eventTypeNames;
+
+    public EventSubscriptions(Environment env) {
+        List<Properties> configured = env == null ? List.of()
+                : Binder.get(env).bind("exposer.events.subscriptions", Bindable.listOf(Properties.class)).orElse(List.of());
+        List<Subscription> subs = new ArrayList<>();
+        for (int i = 0; i < configured.size(); i++) {
+            Properties p = configured.get(i);
+            if (p.getEventTypes() == null || p.getEventTypes().isEmpty()) {
+                log.warn("EventSubscriptions: subscription #{} ({}) has no event-types and is ignored", i, p.getName());
+                continue;
+            }
+            subs.add(new Subscription(p.getName() != null ? p.getName() : "subscription-" + i, p.getEventTypes(), p.getDefinitionKeys(), p.getTaskTypes()));
+        }
+        if (subs.isEmpty()) {
+            List<String> defaults = new ArrayList<>(CMMN_PRESENT ? DEFAULT_EVENT_TYPES
+                    : DEFAULT_EVENT_TYPES.stream().filter(t -> !"CASE_STARTED".equals(t)).toList());
+            if (env != null && env.getProperty("exposer.capture.variable-changes.enabled", Boolean.class, false)) {
+                defaults.addAll(VARIABLE_EVENT_TYPES);
+            }
+            subs.add(new Subscription("default", defaults, List.of(), List.of()));
+        }
+        this.subscriptions = List.copyOf(subs);
+        Set<String> names = new LinkedHashSet<>();
+        for (Subscription s : subscriptions) names.addAll(s.eventTypes);
+        this.eventTypeNames = Set.copyOf(names);
+        for (String name : names) {
+            if (resolveType(name, Engine.BPMN) == null && resolveType(name, Engine.CMMN) == null) {
+                log.warn("EventSubscriptions: event type {} is not raised by any engine and is ignored", name);
+            }
+        }
+        log.info("EventSubscriptions: {} subscriptions over event types {}", subscriptions.size(), names);
+    }
+
+    public List<Subscription> subscriptions() {
+        return subscriptions;
+    }
+
+    /** Event types to register the listener for with the BPMN engine, see {@link #engineEventTypes(Engine)}. */
+    public Collection<FlowableEventType> engineEventTypes() {
+        return engineEventTypes(Engine.BPMN);
+    }
+
+    /**
+     * Subscribed event types the given engine can raise.  Names the engine
+     * does not know are left out rather than widening the registration; an
+     * empty result means the engine raises nothing subscribed, and the
+     * listener should not be registered with it at all (the engines read an
+     * empty type list as "every event").
+     */
+    public Collection<FlowableEventType> engineEventTypes(Engine engine) {
+        List<FlowableEventType> types = new ArrayList<>();
+        for (String name : eventTypeNames) {
+            FlowableEventType t = resolveType(name, engine);
+            if (t != null) types.add(t);
+        }
+        return types;
+    }
+
+    /**
+     * The first subscription accepting the event, counting it as handled, or
+     * {@code null}.  Subscriptions whose event type matched but whose keys or
+     * task types did not count the event as filtered.
+     */
+    public Subscription match(FlowableEvent event, Object entity) {
+        if (event == null || event.getType() == null) return null;
+        String type = event.getType().name();
+        if (!eventTypeNames.contains(type)) return null;
+        for (Subscription s : subscriptions) {
+            if (!s.eventTypes.contains(type)) continue;
+            if (s.accepts(entity)) {
+                s.handled.increment();
+                return s;
+            }
+            s.filtered.increment();
+        }
+        return null;
+    }
+
+    /** Counters per subscription, for the monitoring endpoint. */
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (Subscription s : subscriptions) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("name", s.name);
+            m.put("eventTypes", s.eventTypes);
+            m.put("definitionKeys", s.definitionKeys);
+            m.put("taskTypes", s.taskTypes);
+            m.put("handled", s.handled());
+            m.put("filtered", s.filtered());
+            out.add(m);
+        }
+        return out;
+    }
+
+    /** Definition key of a process/case instance, execution or task, read from the key or the {@code key:version:id} definition id. */
+    static String definitionKey(Object entity) {
+        for (String getter : new String[]{"getProcessDefinitionKey", "getCaseDefinitionKey"}) {
+            String key = FlowableEntityAccessors.string(entity, getter);
+            if (key != null) return key;
+        }
+        for (String getter : new String[]{"getProcessDefinitionId", "getCaseDefinitionId", "getScopeDefinitionId"}) {
+            String id = FlowableEntityAccessors.string(entity, getter);
+            if (id != null) return id.contains(":") ? id.substring(0, id.indexOf(':')) : id;
+        }
+        return null;
+    }
+
+    /** Engine event types (tasks, variables, entities) are raised by both engines; CMMN types only by CMMN. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static FlowableEventType resolveType(String name, Engine engine) {
+        try {
+            return FlowableEngineEventType.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            // not an engine-wide event type
+        }
+        if (engine != Engine.CMMN || CMMN_EVENT_TYPE == null) return null;
+        try {
+            Object t = Enum.valueOf((Class<? extends Enum>) CMMN_EVENT_TYPE, name);
+            return t instanceof FlowableEventType type ? type : null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static Class<?> cmmnEventTypeClass() {
+        try {
+            Class<?> c = Class.forName("org.flowable.cmmn.api.event.FlowableCmmnEventType", false, EventSubscriptions.class.getClassLoader());
+            return c.isEnum() ? c : null;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static Set<String> normalize(Collection<String> values, boolean upper) {
+        Set<String> out = new LinkedHashSet<>();
+        if (values == null) return out;
+        for (String v : values) {
+            if (v == null || v.isBlank()) continue;
+            out.add(upper ? v.trim().toUpperCase(Locale.ROOT) : v.trim());
+        }
+        return out;
+    }
+}
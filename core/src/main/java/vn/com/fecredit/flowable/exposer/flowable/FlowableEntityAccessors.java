@@ -0,0 +1,205 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import org.flowable.engine.delegate.DelegateExecution;
+import org.flowable.engine.runtime.Execution;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.task.api.TaskInfo;
+import org.flowable.variable.api.delegate.VariableScope;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Getter access on the entities carried by Flowable events without per-event
+ * reflection.
+ *
+ * <p>Getters declared by the Flowable API types ({@link ProcessInstance},
+ * {@link Execution}, {@link DelegateExecution}, {@link TaskInfo},
+ * {@link VariableScope}) are called directly.  Anything else (e.g.
+ * {@code getCaseVariables} on CMMN entities, or {@code getStartTime} on an
+ * execution entity) is resolved once per entity class into a
+ * {@link MethodHandle} cached in a {@link ClassValue}; classes without the
+ * getter are cached as such, so a miss costs a map lookup, not an exception.
+ *
+ * <p>Every accessor is best-effort and returns {@code null} when the getter is
+ * missing or throws, matching the reflective helpers it replaces.
+ */
+public final class FlowableEntityAccessors {
+
+    private FlowableEntityAccessors() { /* utility */ }
+
+    private static final Object MISSING = new Object();
+
+    private static final MethodHandle ABSENT = MethodHandles.constant(Object.class, MISSING);
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType VARIABLE_GETTER = MethodType.methodType(Object.class, Object.class, String.class);
+
+    private static final ClassValue<Map<String, MethodHandle>> HANDLES = new ClassValue<>() {
+        @Override
+        protected Map<String, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static final ClassValue<String> LOWER_SIMPLE_NAMES = new ClassValue<>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return type.getSimpleName().toLowerCase(Locale.ROOT);
+        }
+    };
+
+    /** Lower-cased simple class name of the entity, computed once per class. */
+    public static String lowerSimpleName(Object entity) {
+        return entity == null ? "" : LOWER_SIMPLE_NAMES.get(entity.getClass());
+    }
+
+    /** Result of the no-arg {@code getter} on {@code target}, or {@code null}. */
+    public static Object get(Object target, String getter) {
+        if (target == null || getter == null) return null;
+        try {
+            Object v = direct(target, getter);
+            if (v != MISSING) return v;
+            MethodHandle h = HANDLES.get(target.getClass()).computeIfAbsent(getter, g -> resolve(target.getClass(), g));
+            v = h == ABSENT ? MISSING : h.invokeExact(target);
+            return v == MISSING ? null : v;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /** {@code String.valueOf} of {@link #get}, or {@code null}. */
+    public static String string(Object target, String getter) {
+        Object v = get(target, getter);
+        return v == null ? null : String.valueOf(v);
+    }
+
+    /** The first of {@code getters} that returns a {@link Map}, or {@code null}. */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> map(Object target, String... getters) {
+        for (String g : getters) {
+            Object v = get(target, g);
+            if (v instanceof Map) return (Map<String, Object>) v;
+        }
+        return null;
+    }
+
+    /**
+     * Only the named variables: {@code getVariables(names)} on a variable
+     * scope, so the engine never loads the others; otherwise the first map of
+     * {@code getters}, filtered.  {@code names == null} means all variables.
+     */
+    public static Map<String, Object> variables(Object target, java.util.Collection<String> names, String... getters) {
+        if (names == null) return map(target, getters);
+        if (target instanceof VariableScope vs) {
+            try {
+                return new java.util.HashMap<>(vs.getVariables(names));
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+        Map<String, Object> all = map(target, getters);
+        if (all == null) return null;
+        Map<String, Object> out = new java.util.HashMap<>();
+        for (String n : names) {
+            if (all.containsKey(n)) out.put(n, all.get(n));
+        }
+        return out;
+    }
+
+    /** {@code getVariable(name)} on a variable scope (e.g. a task entity), or {@code null}. */
+    public static Object variable(Object target, String name) {
+        if (target == null) return null;
+        try {
+            if (target instanceof VariableScope vs) return vs.getVariable(name);
+            MethodHandle h = HANDLES.get(target.getClass()).computeIfAbsent("getVariable(String)", g -> resolveVariableGetter(target.getClass()));
+            Object v = h == ABSENT ? MISSING : h.invokeExact(target, name);
+            return v == MISSING ? null : v;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /** Interface calls for getters of the Flowable API types; {@link #MISSING} when none applies. */
+    private static Object direct(Object t, String getter) {
+        switch (getter) {
+            case "getId":
+                if (t instanceof Execution e) return e.getId();
+                if (t instanceof DelegateExecution de) return de.getId();
+                if (t instanceof TaskInfo ti) return ti.getId();
+                break;
+            case "getProcessInstanceId":
+                if (t instanceof Execution e) return e.getProcessInstanceId();
+                if (t instanceof DelegateExecution de) return de.getProcessInstanceId();
+                if (t instanceof TaskInfo ti) return ti.getProcessInstanceId();
+                break;
+            case "getVariables":
+                if (t instanceof VariableScope vs) return vs.getVariables();
+                break;
+            case "getProcessVariables":
+                if (t instanceof ProcessInstance p) return p.getProcessVariables();
+                if (t instanceof TaskInfo ti) return ti.getProcessVariables();
+                break;
+            case "getTaskLocalVariables":
+                if (t instanceof TaskInfo ti) return ti.getTaskLocalVariables();
+                break;
+            case "getProcessDefinitionKey":
+                if (t instanceof ProcessInstance p) return p.getProcessDefinitionKey();
+                break;
+            case "getBusinessKey":
+                if (t instanceof ProcessInstance p) return p.getBusinessKey();
+                break;
+            case "getStartTime":
+                if (t instanceof ProcessInstance p) return p.getStartTime();
+                break;
+            case "getStartUserId":
+                if (t instanceof ProcessInstance p) return p.getStartUserId();
+                break;
+            case "getTenantId":
+                if (t instanceof Execution e) return e.getTenantId();
+                if (t instanceof DelegateExecution de) return de.getTenantId();
+                if (t instanceof TaskInfo ti) return ti.getTenantId();
+                break;
+            case "getProcessDefinitionId":
+                if (t instanceof ProcessInstance p) return p.getProcessDefinitionId();
+                if (t instanceof DelegateExecution de) return de.getProcessDefinitionId();
+                if (t instanceof TaskInfo ti) return ti.getProcessDefinitionId();
+                break;
+            case "getCategory":
+                if (t instanceof TaskInfo ti) return ti.getCategory();
+                break;
+            case "getTaskDefinitionKey":
+                if (t instanceof TaskInfo ti) return ti.getTaskDefinitionKey();
+                break;
+            default:
+                break;
+        }
+        return MISSING;
+    }
+
+    private static MethodHandle resolve(Class<?> type, String getter) {
+        try {
+            Method m = type.getMethod(getter);
+            if (m.getReturnType() == void.class) return ABSENT;
+            m.trySetAccessible();
+            return MethodHandles.lookup().unreflect(m).asType(GETTER);
+        } catch (Throwable t) {
+            return ABSENT;
+        }
+    }
+
+    private static MethodHandle resolveVariableGetter(Class<?> type) {
+        try {
+            Method m = type.getMethod("getVariable", String.class);
+            m.trySetAccessible();
+            return MethodHandles.lookup().unreflect(m).asType(VARIABLE_GETTER);
+        } catch (Throwable t) {
+            return ABSENT;
+        }
+    }
+}
@@ -8,8 +8,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseSnapshotBuffer;
+import vn.com.fecredit.flowable.exposer.service.ExposedVariableSet;
 import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
-import vn.com.fecredit.flowable.exposer.service.RequestPersistService;
 
 @Component
 public class FlowableEventDelegator {
@@ -20,11 +21,17 @@ public class FlowableEventDelegator {
     private CaseDataPersistService caseDataPersistService;
 
     @Autowired(required = false)
-    private RequestPersistService requestPersistService;
+    private CaseSnapshotBuffer snapshotBuffer;
 
     @Autowired(required = false)
     private MetadataAnnotator annotator;
 
+    @Autowired(required = false)
+    private CaseCaptureRing captureRing;
+
+    @Autowired(required = false)
+    private ExposedVariableSet exposedVariables;
+
     @Autowired(required = false)
     private TaskExposeHandler taskExposeHandler;
 
@@ -53,17 +60,19 @@ public class FlowableEventDelegator {
     private void handleProcessStarted(Object entity) {
         if (caseDataPersistService == null) return;
         try {
-            java.util.Map<String, Object> vars = extractMap(entity, "getVariables", "getProcessVariables");
+            java.util.Map<String, Object> vars = FlowableEntityAccessors.variables(entity, captureNames("Order"), "getVariables", "getProcessVariables");
             if (vars == null || vars.isEmpty()) return;
 
             String caseInstanceId = vars.containsKey("caseInstanceId") ? String.valueOf(vars.get("caseInstanceId")) : null;
             if (caseInstanceId == null) {
                 // Try getProcessInstanceId first (for execution entities), fall back to getId
-                Object piId = reflect(entity, "getProcessInstanceId");
-                caseInstanceId = piId != null ? String.valueOf(piId) : String.valueOf(reflect(entity, "getId"));
+                Object piId = FlowableEntityAccessors.get(entity, "getProcessInstanceId");
+                caseInstanceId = piId != null ? String.valueOf(piId) : String.valueOf(FlowableEntityAccessors.get(entity, "getId"));
             }
 
             String entityType = "Order";
+            String requestedBy = vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system";
+            if (captureRing != null && captureRing.publish(caseInstanceId, entityType, vars, true, true, requestedBy)) return;
 
             enrichMinimalAnnotations(vars);
 
@@ -71,8 +80,7 @@ public class FlowableEventDelegator {
 
             String payload = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(vars);
             log.info("PROCESS_STARTED: Persisting case data for caseInstanceId={} entityType={}", caseInstanceId, entityType);
-            caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, payload);
-            if (requestPersistService != null) requestPersistService.createRequest(caseInstanceId, entityType, vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system");
+            persist(caseInstanceId, entityType, payload, true, requestedBy);
         } catch (Throwable t) {
             log.error("Failed to persist case data on PROCESS_STARTED", t);
         }
@@ -81,30 +89,43 @@ public class FlowableEventDelegator {
     private void handleCaseStarted(Object entity) {
         if (caseDataPersistService == null) return;
         try {
-            Object varsObj = reflect(entity, "getCaseVariables");
-            if (!(varsObj instanceof java.util.Map)) return;
-            @SuppressWarnings("unchecked") java.util.Map<String, Object> vars = (java.util.Map<String, Object>) varsObj;
-            String caseInstanceId = String.valueOf(reflect(entity, "getId"));
+            java.util.Map<String, Object> vars = FlowableEntityAccessors.variables(entity, captureNames("Order"), "getCaseVariables");
+            if (vars == null) return;
+            String caseInstanceId = String.valueOf(FlowableEntityAccessors.get(entity, "getId"));
             String entityType = "Order";
+            String requestedBy = vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system";
+            if (captureRing != null && captureRing.publish(caseInstanceId, entityType, vars, false, true, requestedBy)) return;
             String payload = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(vars);
             log.info("CASE_STARTED: Persisting case data for caseInstanceId={} entityType={}", caseInstanceId, entityType);
-            caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, payload);
-            if (requestPersistService != null) requestPersistService.createRequest(caseInstanceId, entityType, vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system");
+            persist(caseInstanceId, entityType, payload, true, requestedBy);
         } catch (Throwable t) {
             log.error("Failed to persist case data on CASE_STARTED", t);
         }
     }
 
+    /** Variables the exposure of {@code entityType} reads, or {@code null} to capture all of them. */
+    private java.util.Set<String> captureNames(String entityType) {
+        return exposedVariables == null ? null : exposedVariables.namesFor(entityType);
+    }
+
+    /** Buffers the snapshot until the engine transaction commits when a {@link CaseSnapshotBuffer} is available. */
+    private void persist(String caseInstanceId, String entityType, String payload, boolean exposeRequest, String requestedBy) {
+        if (snapshotBuffer != null) snapshotBuffer.submit(caseInstanceId, entityType, payload, exposeRequest, requestedBy);
+        else if (exposeRequest) caseDataPersistService.persistSnapshotAndRequest(caseInstanceId, entityType, payload, requestedBy);
+        else caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, payload);
+    }
+
     private void handleProcessCompleted(Object entity) {
         if (caseDataPersistService == null) return;
         try {
-            java.util.Map<String, Object> vars = extractMap(entity, "getProcessVariables");
+            java.util.Map<String, Object> vars = FlowableEntityAccessors.variables(entity, captureNames("Order"), "getProcessVariables");
             if (vars == null || vars.isEmpty()) return;
-            String caseInstanceId = vars.containsKey("caseInstanceId") ? String.valueOf(vars.get("caseInstanceId")) : String.valueOf(reflect(entity, "getId"));
+            String caseInstanceId = vars.containsKey("caseInstanceId") ? String.valueOf(vars.get("caseInstanceId")) : String.valueOf(FlowableEntityAccessors.get(entity, "getId"));
             String entityType = "Order";
+            if (captureRing != null && captureRing.publish(caseInstanceId, entityType, vars, false, false, null)) return;
             String payload = new com.fasterxml.jackson.databind.ObjectMapper().writeValueAsString(vars);
             log.info("PROCESS_COMPLETED: Persisting final case data for caseInstanceId={} entityType={}", caseInstanceId, entityType);
-            caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, payload);
+            persist(caseInstanceId, entityType, payload, false, null);
         } catch (Throwable t) {
             log.error("Failed to persist case data on PROCESS_COMPLETED", t);
         }
@@ -116,23 +137,8 @@ public class FlowableEventDelegator {
         }
     }
 
-    // small helpers
-    private Object reflect(Object target, String method) {
-        try { java.lang.reflect.Method m = target.getClass().getMethod(method); return m.invoke(target); } catch (Throwable t) { return null; }
-    }
-
-    private java.util.Map<String,Object> extractMap(Object target, String... methods) {
-        for (String mname : methods) {
-            try {
-                java.lang.reflect.Method m = target.getClass().getMethod(mname);
-                Object ro = m.invoke(target);
-                if (ro instanceof java.util.Map) return (java.util.Map<String,Object>) ro;
-            } catch (Throwable ignored) {}
-        }
-        return null;
-    }
-
-    private void enrichMinimalAnnotations(java.util.Map<String,Object> vars) {
+    /** Default class annotations for the order payload; also applied by {@link CaseCaptureRing} consumers. */
+    static void enrichMinimalAnnotations(java.util.Map<String,Object> vars) {
         try {
             Object custObj = vars.get("customer");
             if (custObj instanceof java.util.Map) {
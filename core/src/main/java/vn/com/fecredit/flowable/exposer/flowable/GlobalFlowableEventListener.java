@@ -3,14 +3,23 @@ package vn.com.fecredit.flowable.exposer.flowable;
 import org.flowable.common.engine.api.delegate.event.FlowableEntityEvent;
 import org.flowable.common.engine.api.delegate.event.FlowableEvent;
 import org.flowable.common.engine.api.delegate.event.FlowableEventListener;
+import org.flowable.common.engine.api.delegate.event.FlowableEventType;
 import org.flowable.task.api.Task;
+import org.flowable.variable.api.event.FlowableVariableEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.Collections;
+
 /**
  * Thin global listener that delegates heavy work to smaller collaborators.
+ * Only events accepted by {@link EventSubscriptions} are handled.  This
+ * instance is registered with the BPMN engine; {@link #cmmnListener()} is the
+ * same listener as registered with the CMMN engine, reporting that engine's
+ * event types.
  */
 @Component
 public class GlobalFlowableEventListener implements FlowableEventListener {
@@ -23,10 +32,25 @@ public class GlobalFlowableEventListener implements FlowableEventListener {
     @Autowired(required = false)
     private TaskExposeHandler taskExposeHandler;
 
+    @Autowired(required = false)
+    private EventSubscriptions subscriptions;
+
+    @Autowired(required = false)
+    private VariableChangeCapture variableChangeCapture;
+
+    private final FlowableEventListener cmmnListener = new EngineListener(EventSubscriptions.Engine.CMMN);
+
     @Override
     public void onEvent(FlowableEvent event) {
         if (event == null) return;
 
+        if (event instanceof FlowableVariableEvent variableEvent) {
+            if (variableChangeCapture == null) return;
+            if (subscriptions != null && subscriptions.match(event, variableEvent) == null) return;
+            try { variableChangeCapture.record(variableEvent); } catch (Throwable t) { log.error("VariableChangeCapture failed", t); }
+            return;
+        }
+
         if (!(event instanceof FlowableEntityEvent)) {
             log.trace("Non-entity event received: {}", event == null ? "<null>" : event.getType());
             return;
@@ -34,8 +58,9 @@ public class GlobalFlowableEventListener implements FlowableEventListener {
 
         Object entity = ((FlowableEntityEvent) event).getEntity();
         if (entity == null) return;
+        if (subscriptions != null && subscriptions.match(event, entity) == null) return;
 
-        String cls = entity.getClass().getSimpleName().toLowerCase();
+        String cls = FlowableEntityAccessors.lowerSimpleName(entity);
 
         try {
             if (flowableEventDelegator != null) {
@@ -56,6 +81,50 @@ public class GlobalFlowableEventListener implements FlowableEventListener {
         }
     }
 
+    /** Lets the BPMN engine dispatch only subscribed event types to this listener; empty means all. */
+    @Override
+    public Collection<? extends FlowableEventType> getTypes() {
+        return typesFor(EventSubscriptions.Engine.BPMN);
+    }
+
+    /** This listener as registered with the CMMN engine. */
+    public FlowableEventListener cmmnListener() {
+        return cmmnListener;
+    }
+
+    /** Whether the engine raises any subscribed event; without subscriptions every event is handled. */
+    public boolean listensTo(EventSubscriptions.Engine engine) {
+        return subscriptions == null || !subscriptions.engineEventTypes(engine).isEmpty();
+    }
+
+    private Collection<? extends FlowableEventType> typesFor(EventSubscriptions.Engine engine) {
+        return subscriptions == null ? Collections.emptySet() : subscriptions.engineEventTypes(engine);
+    }
+
+    /** Delegates to the enclosing listener, reporting the event types of one engine. */
+    private final class EngineListener implements FlowableEventListener {
+        private final EventSubscriptions.Engine engine;
+
+        EngineListener(EventSubscriptions.Engine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public void onEvent(FlowableEvent event) { GlobalFlowableEventListener.this.onEvent(event); }
+
+        @Override
+        public Collection<? extends FlowableEventType> getTypes() { return typesFor(engine); }
+
+        @Override
+        public boolean isFailOnException() { return GlobalFlowableEventListener.this.isFailOnException(); }
+
+        @Override
+        public boolean isFireOnTransactionLifecycleEvent() { return GlobalFlowableEventListener.this.isFireOnTransactionLifecycleEvent(); }
+
+        @Override
+        public String getOnTransaction() { return GlobalFlowableEventListener.this.getOnTransaction(); }
+    }
+
     @Override
     public boolean isFailOnException() { return false; }
 
@@ -7,6 +7,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import vn.com.fecredit.flowable.exposer.repository.SysExposeRequestRepository;
 import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseSnapshotBuffer;
+import vn.com.fecredit.flowable.exposer.service.ExposedVariableSet;
 import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
 import vn.com.fecredit.flowable.exposer.service.RequestPersistService;
 
@@ -19,6 +21,9 @@ public class ProcessCaseHandler {
     @Autowired(required = false)
     private CaseDataPersistService caseDataPersistService;
 
+    @Autowired(required = false)
+    private CaseSnapshotBuffer snapshotBuffer;
+
     @Autowired(required = false)
     private RequestPersistService requestPersistService;
 
@@ -28,6 +33,9 @@ public class ProcessCaseHandler {
     @Autowired(required = false)
     private MetadataAnnotator annotator;
 
+    @Autowired(required = false)
+    private ExposedVariableSet exposedVariables;
+
     private final ObjectMapper om = new ObjectMapper();
 
     public void handleProcessStarted(Object entity) {
@@ -56,35 +64,19 @@ public class ProcessCaseHandler {
     }
 
     private Map<String, Object> extractVariables(Object entity) {
-        try {
-            var m = entity.getClass().getMethod("getVariables");
-            Object o = m.invoke(entity);
-            if (o instanceof Map) return (Map<String, Object>) o;
-        } catch (Throwable t) { log.debug("getVariables failed", t); }
-        try {
-            var m = entity.getClass().getMethod("getProcessVariables");
-            Object o = m.invoke(entity);
-            if (o instanceof Map) return (Map<String, Object>) o;
-        } catch (Throwable ignore) {}
-        return null;
+        return FlowableEntityAccessors.variables(entity, captureNames(), "getVariables", "getProcessVariables");
     }
 
     private Map<String, Object> extractProcessVariables(Object entity) {
-        try {
-            var m = entity.getClass().getMethod("getProcessVariables");
-            Object o = m.invoke(entity);
-            if (o instanceof Map) return (Map<String, Object>) o;
-        } catch (Throwable ignore) {}
-        return null;
+        return FlowableEntityAccessors.variables(entity, captureNames(), "getProcessVariables");
     }
 
     private Map<String, Object> extractCaseVariables(Object entity) {
-        try {
-            var m = entity.getClass().getMethod("getCaseVariables");
-            Object o = m.invoke(entity);
-            if (o instanceof Map) return (Map<String, Object>) o;
-        } catch (Throwable ignore) {}
-        return null;
+        return FlowableEntityAccessors.variables(entity, captureNames(), "getCaseVariables");
+    }
+
+    private java.util.Set<String> captureNames() {
+        return exposedVariables == null ? null : exposedVariables.namesFor("Order");
     }
 
     private String resolveCaseInstanceId(Object entity, Map<String,Object> vars) {
@@ -95,11 +87,7 @@ public class ProcessCaseHandler {
     }
 
     private String resolveIdReflectively(Object entity) {
-        try {
-            var m = entity.getClass().getMethod("getId");
-            Object id = m.invoke(entity);
-            return id == null ? null : String.valueOf(id);
-        } catch (Throwable ignore) { return null; }
+        return FlowableEntityAccessors.string(entity, "getId");
     }
 
     private void annotateConservative(Map<String,Object> vars) {
@@ -120,8 +108,10 @@ public class ProcessCaseHandler {
         try {
             String payload = om.writeValueAsString(vars);
             log.info("Persisting case data for caseInstanceId={} entityType={}", caseInstanceId, entityType);
-            if (caseDataPersistService != null) caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, payload);
-            if (requestPersistService != null) requestPersistService.createRequest(caseInstanceId, entityType, vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system");
+            String requestedBy = vars.get("initiator") != null ? String.valueOf(vars.get("initiator")) : "system";
+            if (snapshotBuffer != null) snapshotBuffer.submit(caseInstanceId, entityType, payload, true, requestedBy);
+            else if (caseDataPersistService != null) caseDataPersistService.persistSnapshotAndRequest(caseInstanceId, entityType, payload, requestedBy);
+            else if (requestPersistService != null) requestPersistService.createRequest(caseInstanceId, entityType, requestedBy);
         } catch (Throwable t) { log.error("Persist/request failed for {}", caseInstanceId, t); }
     }
 }
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Component;
 import vn.com.fecredit.flowable.exposer.entity.SysExposeRequest;
 import vn.com.fecredit.flowable.exposer.repository.SysExposeRequestRepository;
 import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseSnapshotBuffer;
 import vn.com.fecredit.flowable.exposer.service.RequestPersistService;
 
 @Component
@@ -22,6 +23,9 @@ public class TaskExposeHandler {
     @Autowired(required = false)
     private CaseDataPersistService caseDataPersistService;
 
+    @Autowired(required = false)
+    private CaseSnapshotBuffer snapshotBuffer;
+
     @Autowired(required = false)
     private RequestPersistService requestPersistService;
 
@@ -67,10 +71,18 @@ public class TaskExposeHandler {
         try {
             if (caseDataPersistService != null) {
                 try {
-                    caseDataPersistService.persistSysCaseData(caseInstanceId, entityType, "{}");
-                    log.info("persistSysCaseData called for case {}", caseInstanceId);
+                    // snapshot and expose request commit together, once per engine transaction
+                    boolean written = snapshotBuffer != null
+                            ? snapshotBuffer.submit(caseInstanceId, entityType, "{}", true, assignee)
+                            : caseDataPersistService.persistSnapshotAndRequest(caseInstanceId, entityType, "{}", assignee);
+                    if (written) {
+                        log.info("Created snapshot and expose request for case {}", caseInstanceId);
+                    } else {
+                        log.debug("Snapshot unchanged for case {}, skipping expose request", caseInstanceId);
+                    }
+                    return;
                 } catch (Throwable t) {
-                    log.error("CaseDataPersistService.persistSysCaseData failed for case {}", caseInstanceId, t);
+                    log.error("CaseDataPersistService.persistSnapshotAndRequest failed for case {}", caseInstanceId, t);
                 }
             }
 
@@ -93,20 +105,9 @@ public class TaskExposeHandler {
     private String extractCaseInstanceId(Task task) {
         try {
             Object vid = null;
-            try {
-                java.lang.reflect.Method mLocal = task.getClass().getMethod("getTaskLocalVariables");
-                Object localVars = mLocal.invoke(task);
-                if (localVars instanceof java.util.Map) vid = ((java.util.Map<?, ?>) localVars).get("caseInstanceId");
-            } catch (Throwable ignore) {
-            }
-            if (vid == null) {
-                try {
-                    java.lang.reflect.Method mVar = task.getClass().getMethod("getVariable", String.class);
-                    Object v = mVar.invoke(task, "caseInstanceId");
-                    if (v != null) vid = v;
-                } catch (Throwable ignore) {
-                }
-            }
+            java.util.Map<String, Object> localVars = FlowableEntityAccessors.map(task, "getTaskLocalVariables");
+            if (localVars != null) vid = localVars.get("caseInstanceId");
+            if (vid == null) vid = FlowableEntityAccessors.variable(task, "caseInstanceId");
             String caseInstanceId = vid != null ? String.valueOf(vid) : null;
             if (caseInstanceId == null) {
                 try {
@@ -15,25 +15,19 @@ public final class TaskTypeUtils {
         try {
             if (task.getAssignee() != null) return true;
 
-            try {
-                java.lang.reflect.Method mc = task.getClass().getMethod("getCategory");
-                Object cat = mc.invoke(task);
-                if (cat instanceof String) {
-                    String s = ((String) cat).toLowerCase();
-                    if (s.contains("user") || s.contains("wait")) return true;
-                }
-            } catch (NoSuchMethodException ignored) {}
+            String cat = task.getCategory();
+            if (cat != null) {
+                String s = cat.toLowerCase();
+                if (s.contains("user") || s.contains("wait")) return true;
+            }
 
-            try {
-                java.lang.reflect.Method mk = task.getClass().getMethod("getTaskDefinitionKey");
-                Object key = mk.invoke(task);
-                if (key instanceof String) {
-                    String k = ((String) key).toLowerCase();
-                    if (k.contains("user") || k.contains("wait") || k.contains("payment") || k.contains("approve")) return true;
-                }
-            } catch (NoSuchMethodException ignored) {}
+            String key = task.getTaskDefinitionKey();
+            if (key != null) {
+                String k = key.toLowerCase();
+                if (k.contains("user") || k.contains("wait") || k.contains("payment") || k.contains("approve")) return true;
+            }
 
-            String cls = task.getClass().getSimpleName().toLowerCase();
+            String cls = FlowableEntityAccessors.lowerSimpleName(task);
             if (cls.contains("usertask") || cls.contains("taskentity") || cls.contains("wait")) return true;
         } catch (Throwable t) {
             try { System.err.println("Error while determining task type for task " + task.getId()); } catch (Throwable ignored) {}
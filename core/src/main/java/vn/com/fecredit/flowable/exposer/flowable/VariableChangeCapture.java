@@ -0,0 +1,85 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEventType;
+import org.flowable.variable.api.event.FlowableVariableEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import vn.com.fecredit.flowable.exposer.service.ExposedVariableSet;
+
+import java.sql.Timestamp;
+import java.util.Set;
+
+/**
+ * Change-capture mode: records each process/case variable change as one row
+ * of {@code sys_case_change_log} instead of snapshotting the whole case.
+ *
+ * <p>Enabled with {@code exposer.capture.variable-changes.enabled=true}, which
+ * also subscribes the global listener to {@code VARIABLE_CREATED},
+ * {@code VARIABLE_UPDATED} and {@code VARIABLE_DELETED}.  Rows are inserted
+ * through the engine's data source, so they commit or roll back with the
+ * engine transaction.  Task-local variables are ignored, and when
+ * {@link ExposedVariableSet} narrows the entity type only variables the
+ * exposure reads are recorded.  {@code CaseDataWorker} later folds the
+ * pending changes of a case into its latest snapshot.
+ */
+@Component
+public class VariableChangeCapture {
+    private static final Logger log = LoggerFactory.getLogger(VariableChangeCapture.class);
+
+    public static final String SET = "SET";
+    public static final String DELETE = "DELETE";
+
+    static final String INSERT = "INSERT INTO sys_case_change_log (case_instance_id, entity_type, variable_name, operation, value_json, created_at) VALUES (?,?,?,?,?,?)";
+
+    @Value("${exposer.capture.variable-changes.enabled:false}")
+    private boolean enabled;
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper om;
+
+    @Autowired(required = false)
+    private ExposedVariableSet exposedVariables;
+
+    public VariableChangeCapture(JdbcTemplate jdbc, ObjectMapper om) {
+        this.jdbc = jdbc;
+        this.om = om;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Record the change carried by a variable event; returns whether a row was written. */
+    public boolean record(FlowableVariableEvent event) {
+        if (!enabled || event == null || event.getVariableName() == null) return false;
+        if (event.getTaskId() != null) return false;
+        String caseInstanceId = event.getProcessInstanceId() != null ? event.getProcessInstanceId() : event.getScopeId();
+        if (caseInstanceId == null) return false;
+        String entityType = "Order";
+        Set<String> names = exposedVariables == null ? null : exposedVariables.namesFor(entityType);
+        if (names != null && !names.contains(event.getVariableName())) return false;
+
+        boolean delete = event.getType() == FlowableEngineEventType.VARIABLE_DELETED;
+        String value = null;
+        if (!delete) {
+            try {
+                value = om.writeValueAsString(event.getVariableValue());
+            } catch (Exception ex) {
+                value = om.valueToTree(String.valueOf(event.getVariableValue())).toString();
+            }
+        }
+        try {
+            jdbc.update(INSERT, caseInstanceId, entityType, event.getVariableName(), delete ? DELETE : SET, value,
+                    new Timestamp(System.currentTimeMillis()));
+            return true;
+        } catch (Exception ex) {
+            log.error("VariableChangeCapture: failed to record {} of {} for case {}", delete ? DELETE : SET, event.getVariableName(), caseInstanceId, ex);
+            return false;
+        }
+    }
+}
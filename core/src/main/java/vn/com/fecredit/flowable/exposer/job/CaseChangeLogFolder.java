@@ -0,0 +1,101 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import vn.com.fecredit.flowable.exposer.flowable.VariableChangeCapture;
+import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
+import vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds pending {@code sys_case_change_log} rows into case snapshots.
+ *
+ * <p>Changes are read in id order and grouped by case.  For each case the
+ * latest snapshot is reconstructed, every change is applied to its top-level
+ * variable ({@code SET} replaces it, {@code DELETE} removes it), its
+ * {@link MetadataAnnotator#VERSION_MARKER} is dropped, and the result
+ * is written through {@link CaseDataPersistService#persistSnapshotAndRequest},
+ * which stores it as a delta of the previous version and enqueues an expose
+ * request.  The reindex triggered by that request diffs against the
+ * materialized payload, so only the plain columns and indexes that read a
+ * changed variable are rewritten.  The folded rows get {@code applied_at} set
+ * in the same transaction as the snapshot and request, bypassing write-behind,
+ * so a case that fails keeps its rows for the next poll and a folded change
+ * is never applied twice.
+ */
+final class CaseChangeLogFolder {
+    private static final Logger log = LoggerFactory.getLogger(CaseChangeLogFolder.class);
+
+    static final String REQUESTED_BY = "change-log";
+
+    record Change(long id, String caseInstanceId, String entityType, String variableName, String operation, String valueJson) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper om;
+    private final CaseDataPersistService persistService;
+    private final SnapshotReconstructor reconstructor;
+
+    CaseChangeLogFolder(JdbcTemplate jdbc, ObjectMapper om, CaseDataPersistService persistService) {
+        this.jdbc = jdbc;
+        this.om = om;
+        this.persistService = persistService;
+        this.reconstructor = persistService.reconstructor();
+    }
+
+    /** Fold up to {@code batchSize} pending changes; returns the number of cases written. */
+    int foldPending(int batchSize) {
+        List<Change> pending = jdbc.query(
+                "SELECT id, case_instance_id, entity_type, variable_name, operation, value_json FROM sys_case_change_log "
+                        + "WHERE applied_at IS NULL ORDER BY id LIMIT ?",
+                (rs, i) -> new Change(rs.getLong("id"), rs.getString("case_instance_id"), rs.getString("entity_type"),
+                        rs.getString("variable_name"), rs.getString("operation"), rs.getString("value_json")),
+                Math.max(1, batchSize));
+        if (pending.isEmpty()) return 0;
+
+        Map<String, List<Change>> byCase = new LinkedHashMap<>();
+        for (Change c : pending) byCase.computeIfAbsent(c.caseInstanceId(), k -> new ArrayList<>()).add(c);
+
+        int folded = 0;
+        for (Map.Entry<String, List<Change>> e : byCase.entrySet()) {
+            try {
+                fold(e.getKey(), e.getValue());
+                folded++;
+            } catch (Exception ex) {
+                log.error("CaseChangeLogFolder: failed to fold {} changes for case {}", e.getValue().size(), e.getKey(), ex);
+            }
+        }
+        log.info("CaseChangeLogFolder: folded {} changes into {} of {} cases", pending.size(), folded, byCase.size());
+        return folded;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fold(String caseInstanceId, List<Change> changes) throws Exception {
+        SnapshotReconstructor.Snapshot latest = reconstructor.reconstructLatest(caseInstanceId);
+        Map<String, Object> vars = latest == null || latest.json() == null
+                ? new LinkedHashMap<>() : om.readValue(latest.json(), LinkedHashMap.class);
+        // the stored annotation no longer describes the edited variables: let persist annotate again
+        vars.remove(MetadataAnnotator.VERSION_MARKER);
+        String entityType = null;
+        for (Change c : changes) {
+            if (c.entityType() != null) entityType = c.entityType();
+            if (VariableChangeCapture.DELETE.equals(c.operation())) vars.remove(c.variableName());
+            else vars.put(c.variableName(), c.valueJson() == null ? null : om.readValue(c.valueJson(), Object.class));
+        }
+        List<Object> params = new ArrayList<>();
+        params.add(new Timestamp(System.currentTimeMillis()));
+        for (Change c : changes) params.add(c.id());
+        String marks = String.join(",", java.util.Collections.nCopies(changes.size(), "?"));
+        persistService.persistSnapshotAndRequest(caseInstanceId, entityType != null ? entityType : "Order",
+                om.writeValueAsString(vars), REQUESTED_BY,
+                () -> jdbc.update("UPDATE sys_case_change_log SET applied_at = ? WHERE id IN (" + marks + ")", params.toArray()));
+    }
+}
@@ -29,6 +29,21 @@ public class CaseDataWorker {
     private final ObjectMapper om;              // retained for legacy tests
     private final CaseDataWorkerService service;
 
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private vn.com.fecredit.flowable.exposer.service.EntityTypeSettings settings;
+
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    private vn.com.fecredit.flowable.exposer.service.CaseDataPersistService persistService;
+
+    @org.springframework.beans.factory.annotation.Value("${exposer.capture.variable-changes.enabled:false}")
+    private boolean foldChanges;
+
+    @org.springframework.beans.factory.annotation.Value("${exposer.capture.variable-changes.fold-batch-size:500}")
+    private int foldBatchSize = 500;
+
+    private final JdbcTemplate jdbc;
+    private CaseChangeLogFolder changeFolder;
+
     @org.springframework.beans.factory.annotation.Autowired
     public CaseDataWorker(JdbcTemplate jdbc,
                           ObjectMapper om,
@@ -38,10 +53,21 @@ public class CaseDataWorker {
                           vn.com.fecredit.flowable.exposer.service.IndexLoader indexLoader) {
         this.reqRepo = reqRepo;
         this.om = om;
+        this.jdbc = jdbc;
         // service encapsulates all reindex and database logic
         this.service = new CaseDataWorkerService(jdbc, resolver, om, annotator, indexLoader);
     }
 
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    void setTransactionManager(org.springframework.transaction.PlatformTransactionManager txManager) {
+        service.setTransactionManager(txManager);
+    }
+
+    @org.springframework.beans.factory.annotation.Autowired(required = false)
+    void setReconstructor(vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor reconstructor) {
+        service.setReconstructor(reconstructor);
+    }
+
     /**
      * No-arg constructor used by legacy unit tests. Services and dependencies are
      * initialized to null; callers should avoid using the worker beyond reflective
@@ -53,41 +79,61 @@ public class CaseDataWorker {
 
     @Scheduled(fixedDelay = 1000)
     public void pollAndProcess() {
+        foldChangeLog();
         try {
             List<SysExposeRequest> pending = reqRepo.findByStatus("PENDING");
             if (pending == null || pending.isEmpty()) {
                 log.debug("CaseDataWorker.pollAndProcess - no pending requests");
                 return;
             }
-            log.info("CaseDataWorker.pollAndProcess - found {} pending requests", pending.size());
-            for (SysExposeRequest r : pending) {
-                log.info("CaseDataWorker.pollAndProcess - processing request id={} caseInstanceId={}", r.getId(), r.getCaseInstanceId());
+            List<List<SysExposeRequest>> due = new CaseDataWorkerDebouncer(settings).claim(pending, java.time.OffsetDateTime.now());
+            log.info("CaseDataWorker.pollAndProcess - found {} pending requests, {} cases due", pending.size(), due.size());
+            for (List<SysExposeRequest> requests : due) {
+                String caseInstanceId = requests.get(0).getCaseInstanceId();
+                log.info("CaseDataWorker.pollAndProcess - processing {} requests for caseInstanceId={}", requests.size(), caseInstanceId);
+                String status;
                 try {
-                    service.reindexByCaseInstanceId(r.getCaseInstanceId());
-                    r.setStatus("DONE");
-                    r.setProcessedAt(java.time.OffsetDateTime.now());
-                    reqRepo.save(r);
-                    log.info("CaseDataWorker.pollAndProcess - processed request id={} caseInstanceId={} -> DONE", r.getId(), r.getCaseInstanceId());
+                    // one reindex of the latest snapshot completes every request of the case
+                    service.reindexByCaseInstanceId(caseInstanceId);
+                    status = "DONE";
                 } catch (Exception ex) {
-                    r.setStatus("FAILED");
-                    reqRepo.save(r);
-                    log.error("Failed to process expose request {} for case {}", r.getId(), r.getCaseInstanceId(), ex);
+                    status = "FAILED";
+                    log.error("Failed to process {} expose requests for case {}", requests.size(), caseInstanceId, ex);
+                }
+                java.time.OffsetDateTime processedAt = java.time.OffsetDateTime.now();
+                for (SysExposeRequest r : requests) {
+                    r.setStatus(status);
+                    if ("DONE".equals(status)) r.setProcessedAt(processedAt);
                 }
+                reqRepo.saveAll(requests);
+                log.info("CaseDataWorker.pollAndProcess - processed caseInstanceId={} -> {}", caseInstanceId, status);
             }
         } catch (Exception ex) {
             log.error("CaseDataWorker.poll error", ex);
         }
     }
 
+    /** Turn pending variable changes into snapshots and expose requests picked up by this poll. */
+    private void foldChangeLog() {
+        if (!foldChanges || persistService == null || jdbc == null) return;
+        try {
+            if (changeFolder == null) changeFolder = new CaseChangeLogFolder(jdbc, om, persistService);
+            changeFolder.foldPending(foldBatchSize);
+        } catch (Exception ex) {
+            log.error("CaseDataWorker.foldChangeLog error", ex);
+        }
+    }
+
     // all remaining logic has been moved to CaseDataWorkerService
 
     /**
      * Legacy entrypoint kept for consumers that previously invoked this method
-     * directly on the worker.
+     * directly on the worker.  Always rebuilds the case, ignoring the exposed
+     * snapshot version, since manual reindexes usually follow metadata changes.
      */
     public void reindexByCaseInstanceId(String caseInstanceId) {
         if (service != null) {
-            service.reindexByCaseInstanceId(caseInstanceId);
+            service.reindexByCaseInstanceId(caseInstanceId, true);
         }
     }
 
@@ -0,0 +1,269 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import vn.com.fecredit.flowable.exposer.service.JsonPatch;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The JSON locations that differ between the payload a case was last
+ * materialized from and its new snapshot, used to re-evaluate only the
+ * mappings and index definitions that can see a change.
+ *
+ * <p>Every check is conservative: a JsonPath is reduced to its leading
+ * literal segments (up to the first wildcard, filter or deep scan) and
+ * counts as affected when that prefix and a changed location are on the same
+ * branch, so an unclear case is always re-evaluated.
+ */
+public class CaseDataWorkerChangeSet {
+
+    private final JsonNode before;
+    private final JsonNode after;
+    private final List<List<String>> changed = new ArrayList<>();
+
+    private CaseDataWorkerChangeSet(JsonNode before, JsonNode after) {
+        this.before = before;
+        this.after = after;
+        for (JsonNode op : JsonPatch.diff(before, after)) {
+            changed.add(pointerSegments(op.path("path").asText()));
+        }
+    }
+
+    /** Change set between two JSON documents, or {@code null} when either cannot be parsed. */
+    public static CaseDataWorkerChangeSet between(ObjectMapper om, String beforeJson, String afterJson) {
+        if (beforeJson == null || afterJson == null) return null;
+        try {
+            return new CaseDataWorkerChangeSet(om.readTree(beforeJson), om.readTree(afterJson));
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    public boolean isEmpty() {
+        return changed.isEmpty();
+    }
+
+    public int size() {
+        return changed.size();
+    }
+
+    /** Whether a value read with {@code jsonPath} may differ between the two documents. */
+    public boolean affectsPath(String jsonPath) {
+        if (isEmpty()) return false;
+        Prefix p = Prefix.of(jsonPath);
+        if (p == null) return true;
+        for (List<String> c : changed) {
+            if (startsWith(c, p.segments) || startsWith(p.segments, c)) return true;
+        }
+        return false;
+    }
+
+    /** Mappings whose JsonPath may read a changed value. */
+    public Map<String, MetadataDefinition.FieldMapping> filterMappings(Map<String, MetadataDefinition.FieldMapping> mappings) {
+        Map<String, MetadataDefinition.FieldMapping> out = new java.util.LinkedHashMap<>();
+        if (mappings == null) return out;
+        mappings.forEach((k, fm) -> {
+            if (fm != null && fm.jsonPath != null && affectsPath(fm.jsonPath)) out.put(k, fm);
+        });
+        return out;
+    }
+
+    /** Legacy column to JsonPath mappings whose path may read a changed value. */
+    public Map<String, String> filterLegacy(Map<String, String> legacy) {
+        return filterLegacy(legacy, null);
+    }
+
+    /**
+     * As {@link #filterLegacy(Map)}, but skipping columns an effective mapping
+     * writes, affected or not: a full build lets the effective mapping win
+     * there, so the legacy value must not overwrite it.
+     */
+    public Map<String, String> filterLegacy(Map<String, String> legacy, Map<String, MetadataDefinition.FieldMapping> effective) {
+        Map<String, String> out = new java.util.LinkedHashMap<>();
+        if (legacy == null) return out;
+        Set<String> owned = mappedColumns(effective);
+        legacy.forEach((col, path) -> {
+            if (path != null && !owned.contains(columnKey(col)) && affectsPath(path)) out.put(col, path);
+        });
+        return out;
+    }
+
+    /**
+     * Direct fallback columns to rewrite, following the precedence of a full
+     * build: columns an effective mapping writes are skipped; a column is
+     * rewritten when its fallback path (see {@code fallbackPaths}) may read a
+     * changed value or its legacy mapping is in {@code changedLegacy}.  A
+     * rewritten column that also has a legacy mapping gets it added to
+     * {@code changedLegacy}, since the legacy value wins whenever it is set.
+     */
+    public Map<String, Object> filterFallbacks(Map<String, Object> fallbacks, Map<String, String> fallbackPaths,
+                                               Map<String, MetadataDefinition.FieldMapping> effective,
+                                               Map<String, String> legacy, Map<String, String> changedLegacy) {
+        Map<String, Object> out = new java.util.LinkedHashMap<>();
+        if (fallbacks == null) return out;
+        Set<String> owned = mappedColumns(effective);
+        Map<String, String> legacyByKey = new java.util.HashMap<>();
+        if (legacy != null) legacy.forEach((col, path) -> { if (path != null) legacyByKey.put(columnKey(col), col); });
+        Set<String> changedLegacyKeys = new java.util.HashSet<>();
+        changedLegacy.keySet().forEach(col -> changedLegacyKeys.add(columnKey(col)));
+        fallbacks.forEach((col, value) -> {
+            String key = columnKey(col);
+            if (owned.contains(key)) return;
+            String path = fallbackPaths == null ? null : fallbackPaths.get(col);
+            if (path != null && !affectsPath(path) && !changedLegacyKeys.contains(key)) return;
+            out.put(col, value);
+            String legacyCol = legacyByKey.get(key);
+            if (legacyCol != null) changedLegacy.putIfAbsent(legacyCol, legacy.get(legacyCol));
+        });
+        return out;
+    }
+
+    /** Plain columns the given mappings write, keyed by {@link #columnKey}. */
+    private static Set<String> mappedColumns(Map<String, MetadataDefinition.FieldMapping> mappings) {
+        Set<String> out = new java.util.HashSet<>();
+        if (mappings == null) return out;
+        for (MetadataDefinition.FieldMapping fm : mappings.values()) {
+            if (fm == null || fm.jsonPath == null) continue;
+            String col = fm.plainColumn != null && !fm.plainColumn.trim().isEmpty() ? fm.plainColumn : fm.column;
+            if (col != null && !col.trim().isEmpty()) out.add(columnKey(col));
+        }
+        return out;
+    }
+
+    private static String columnKey(String column) {
+        return column == null ? "" : column.trim().toLowerCase(java.util.Locale.ROOT);
+    }
+
+    /**
+     * Whether the rows an index definition produces may differ.  Definitions
+     * rooted at {@code $}, or whose literal root is missing in either
+     * document (the builder then falls back to class scans), always count as
+     * affected.
+     */
+    public boolean affectsIndex(IndexDefinition def) {
+        if (isEmpty() || def == null) return false;
+        String root = def.jsonPath == null || def.jsonPath.isBlank() ? "$" : def.jsonPath.trim();
+        if ("$".equals(root)) return true;
+        Prefix p = Prefix.of(root);
+        if (p == null) return true;
+        if (!p.complete) return affectsPath(root) || (def._class != null && touchesClass(def._class));
+        if (nodeAt(before, p.segments) == null || nodeAt(after, p.segments) == null) return true;
+        return affectsPath(root);
+    }
+
+    /**
+     * Whether a class scan ({@code $..[?(@['@class']=='cls')]}) may match
+     * differently: some changed location lies inside an object of that class,
+     * or a changed subtree contains one.
+     */
+    public boolean touchesClass(String cls) {
+        if (isEmpty() || cls == null) return false;
+        for (List<String> c : changed) {
+            for (JsonNode doc : new JsonNode[]{before, after}) {
+                JsonNode node = doc;
+                for (int i = 0; node != null; i++) {
+                    if (isClass(node, cls)) return true;
+                    if (i == c.size()) {
+                        if (containsClass(node, cls)) return true;
+                        break;
+                    }
+                    node = child(node, c.get(i));
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isClass(JsonNode node, String cls) {
+        return node.isObject() && cls.equals(node.path("@class").asText(null));
+    }
+
+    private static boolean containsClass(JsonNode node, String cls) {
+        if (isClass(node, cls)) return true;
+        for (JsonNode child : node) {
+            if (containsClass(child, cls)) return true;
+        }
+        return false;
+    }
+
+    private static JsonNode child(JsonNode node, String segment) {
+        if (node.isObject()) return node.get(segment);
+        if (node.isArray()) {
+            try { return node.get(Integer.parseInt(segment)); } catch (NumberFormatException ex) { return null; }
+        }
+        return null;
+    }
+
+    private static JsonNode nodeAt(JsonNode doc, List<String> segments) {
+        JsonNode node = doc;
+        for (String s : segments) {
+            if (node == null) return null;
+            node = child(node, s);
+        }
+        return node == null || node.isNull() ? null : node;
+    }
+
+    private static boolean startsWith(List<String> path, List<String> prefix) {
+        if (prefix.size() > path.size()) return false;
+        for (int i = 0; i < prefix.size(); i++) {
+            if (!prefix.get(i).equals(path.get(i))) return false;
+        }
+        return true;
+    }
+
+    private static List<String> pointerSegments(String pointer) {
+        List<String> out = new ArrayList<>();
+        if (pointer == null || pointer.isEmpty()) return out;
+        for (String raw : pointer.substring(1).split("/", -1)) {
+            out.add(raw.replace("~1", "/").replace("~0", "~"));
+        }
+        return out;
+    }
+
+    /** Leading literal segments of a JsonPath; {@code complete} when the whole path is literal. */
+    record Prefix(List<String> segments, boolean complete) {
+
+        /** {@code null} when the path is not a {@code $}-rooted JsonPath this class understands. */
+        static Prefix of(String jsonPath) {
+            if (jsonPath == null) return null;
+            String p = jsonPath.trim();
+            if (!p.startsWith("$")) return null;
+            List<String> segs = new ArrayList<>();
+            int i = 1;
+            while (i < p.length()) {
+                char ch = p.charAt(i);
+                if (ch == '.') {
+                    if (i + 1 < p.length() && p.charAt(i + 1) == '.') return new Prefix(segs, false);
+                    int end = i + 1;
+                    while (end < p.length() && p.charAt(end) != '.' && p.charAt(end) != '[') end++;
+                    String name = p.substring(i + 1, end);
+                    if (name.isEmpty() || name.equals("*") || name.endsWith(")")) return new Prefix(segs, false);
+                    segs.add(name);
+                    i = end;
+                } else if (ch == '[') {
+                    int end = p.indexOf(']', i);
+                    if (end < 0) return new Prefix(segs, false);
+                    String inner = p.substring(i + 1, end).trim();
+                    if ((inner.startsWith("'") && inner.endsWith("'") || inner.startsWith("\"") && inner.endsWith("\""))
+                            && inner.length() >= 2 && !inner.contains(",")) {
+                        segs.add(inner.substring(1, inner.length() - 1));
+                    } else if (inner.matches("\\d+")) {
+                        segs.add(inner);
+                    } else {
+                        return new Prefix(segs, false);
+                    }
+                    i = end + 1;
+                } else {
+                    return new Prefix(segs, false);
+                }
+            }
+            return new Prefix(segs, true);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import vn.com.fecredit.flowable.exposer.entity.SysExposeRequest;
+import vn.com.fecredit.flowable.exposer.service.EntityTypeSettings;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Claim logic of {@link CaseDataWorker}: groups pending expose requests by
+ * case and decides which cases are due for a reindex.
+ *
+ * <p>The window is read per entity type through {@link EntityTypeSettings}:
+ * <pre>
+ * exposer.entity.default.debounce-ms=0     # reindex on the next poll
+ * exposer.entity.Order.debounce-ms=500     # at most one reindex per 500 ms per case
+ * </pre>
+ * A case becomes due once its <em>oldest</em> pending request is at least the
+ * window old, so a burst of requests collapses into one reindex and latency
+ * stays bounded by the window plus the poll interval.  The reindex reads the
+ * latest snapshot and every request of the case is completed with it, so the
+ * final state is always included; requests arriving afterwards start a new
+ * window.
+ */
+final class CaseDataWorkerDebouncer {
+
+    static final String DEBOUNCE_MS = "debounce-ms";
+
+    private final EntityTypeSettings settings;
+
+    CaseDataWorkerDebouncer(EntityTypeSettings settings) {
+        this.settings = settings;
+    }
+
+    /** Pending requests of the cases that are due, one list per case in first-request order. */
+    List<List<SysExposeRequest>> claim(List<SysExposeRequest> pending, OffsetDateTime now) {
+        Map<String, List<SysExposeRequest>> byCase = new LinkedHashMap<>();
+        for (SysExposeRequest r : pending) {
+            byCase.computeIfAbsent(r.getCaseInstanceId(), k -> new ArrayList<>()).add(r);
+        }
+        List<List<SysExposeRequest>> due = new ArrayList<>();
+        for (List<SysExposeRequest> requests : byCase.values()) {
+            if (isDue(requests, now)) due.add(requests);
+        }
+        return due;
+    }
+
+    private boolean isDue(List<SysExposeRequest> requests, OffsetDateTime now) {
+        long windowMs = settings == null ? 0L
+                : settings.getLong(requests.get(requests.size() - 1).getEntityType(), DEBOUNCE_MS, 0L);
+        if (windowMs <= 0) return true;
+        OffsetDateTime oldest = null;
+        for (SysExposeRequest r : requests) {
+            if (r.getRequestedAt() == null) return true;
+            if (oldest == null || r.getRequestedAt().isBefore(oldest)) oldest = r.getRequestedAt();
+        }
+        return Duration.between(oldest, now).toMillis() >= windowMs;
+    }
+}
@@ -13,6 +13,15 @@ public final class CaseDataWorkerHelpers {
         try { return om.readValue(payload, Map.class); } catch (Exception e) { return java.util.Collections.emptyMap(); }
     }
 
+    /** As {@link #parsePayload(ObjectMapper, String, String)}, reading Smile bytes directly when the snapshot was stored as Smile. */
+    public static Map<String, Object> parsePayload(ObjectMapper om, String payload, byte[] smile, String caseInstanceId) {
+        if (smile == null) return parsePayload(om, payload, caseInstanceId);
+        try { return vn.com.fecredit.flowable.exposer.service.PayloadFormats.readSmileMap(smile); } catch (Exception e) { return java.util.Collections.emptyMap(); }
+    }
+
+    /** Columns filled by {@link #extractDirectFallbacks} and the JsonPath each is read from. */
+    public static final Map<String, String> DIRECT_FALLBACK_PATHS = Map.of("total", "$.total", "priority", "$.meta.priority");
+
     public static Map<String, Object> extractDirectFallbacks(String annotatedJson) {
         Double _dt = null; String _pr = null;
         try { Object o = JsonPath.read(annotatedJson, "$.total"); if (o instanceof Number) _dt = ((Number)o).doubleValue(); } catch (Exception ignored) {}
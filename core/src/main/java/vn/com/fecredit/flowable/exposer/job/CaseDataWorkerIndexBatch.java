@@ -0,0 +1,41 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the index rows produced for one case during a reindex pass so that
+ * each index table is compared against its stored row hashes exactly once,
+ * even when several definitions or several {@code @class} matches feed the
+ * same table.
+ */
+class CaseDataWorkerIndexBatch {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CaseDataWorkerIndexBatch.class);
+
+    private final Map<String, List<Map<String, Object>>> rowsByTable = new java.util.LinkedHashMap<>();
+    private final Map<String, IndexDefinition> defsByTable = new java.util.HashMap<>();
+
+    /** Register rows for a definition; {@code null} rows mean extraction failed and the table is left untouched. */
+    void add(IndexDefinition def, List<Map<String, Object>> rows) {
+        if (def == null || def.table == null || def.table.isBlank() || rows == null) return;
+        rowsByTable.computeIfAbsent(def.table, k -> new java.util.ArrayList<>()).addAll(rows);
+        defsByTable.putIfAbsent(def.table, def);
+    }
+
+    /** Sync every table; one failing table does not stop the others, but fails the flush afterwards. */
+    void flush(CaseDataWorkerRowHelper db, String caseInstanceId) {
+        IllegalStateException failure = null;
+        for (Map.Entry<String, List<Map<String, Object>>> e : rowsByTable.entrySet()) {
+            try {
+                db.syncIndexRows(e.getKey(), caseInstanceId, e.getValue(), defsByTable.get(e.getKey()));
+            } catch (Exception ex) {
+                log.error("flush: failed to sync index table {} for case {}: {}", e.getKey(), caseInstanceId, ex.getMessage(), ex);
+                if (failure == null) failure = new IllegalStateException("Index sync failed for case " + caseInstanceId);
+                failure.addSuppressed(ex);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -31,7 +31,20 @@ public class CaseDataWorkerIndexHelper {
                                        String caseInstanceId,
                                        String annotatedJson,
                                        Object rowCreatedAt) {
-        if (def == null || def.mappings == null || def.mappings.isEmpty()) return;
+        List<Map<String, Object>> rows = buildIndexRows(def, caseInstanceId, annotatedJson, rowCreatedAt);
+        if (rows != null && !rows.isEmpty()) db.upsertRowsByMetadata(def.table, rows, def);
+    }
+
+    /**
+     * Extract the rows an index definition produces for a case without
+     * writing them.  Returns {@code null} when the definition is unusable or
+     * extraction failed, so callers can tell "no rows" from "unknown".
+     */
+    public List<Map<String, Object>> buildIndexRows(vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition def,
+                                                    String caseInstanceId,
+                                                    String annotatedJson,
+                                                    Object rowCreatedAt) {
+        if (def == null || def.mappings == null || def.mappings.isEmpty()) return null;
         try {
             String rootPath = def.jsonPath == null || def.jsonPath.isBlank() ? "$" : def.jsonPath;
             Object extracted = null;
@@ -104,10 +117,10 @@ public class CaseDataWorkerIndexHelper {
                 Map<String, Object> row = rowBuilder.buildIndexRow(def, caseInstanceId, jsonForItem, rowCreatedAt);
                 rows.add(row);
             }
-            if (!rows.isEmpty()) db.upsertRowsByMetadata(def.table, rows, def);
+            return rows;
         } catch (Exception ex) {
             log.error("processIndexDefinition failed for case {} table {}: {}", caseInstanceId, def.table, ex.getMessage(), ex);
-
+            return null;
         }
     }
 
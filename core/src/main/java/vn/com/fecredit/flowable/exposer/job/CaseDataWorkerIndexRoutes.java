@@ -0,0 +1,123 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import vn.com.fecredit.flowable.exposer.service.IndexLoader;
+import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routing table from entity type to the index definitions a reindex applies.
+ *
+ * <p>For each entity type the table records the definition registered for it
+ * (looked up by entity type, then by the root class its metadata resolves to)
+ * and, for every other definition with a target table, how its roots are
+ * located: a non-root {@code jsonPath} is read from the whole payload, while a
+ * root-path definition is applied to each nested object whose {@code @class}
+ * is its class.  Those classes are gathered in {@link Route#scanClasses()} so
+ * the payload is walked once for all of them, see {@link #collectByClass}.
+ * Routes are computed on first use and dropped whenever the metadata
+ * generation reported by {@link MetadataResolver#metadataGeneration()} moves.
+ * Capture narrowing ({@code ExposedVariableSet}) reads the same routes so it
+ * fetches every variable a reindex will apply an index to.
+ */
+public final class CaseDataWorkerIndexRoutes {
+
+    public enum Locate { ROOT, PATH, CLASS_SCAN }
+
+    public record Target(IndexDefinition def, Locate locate, String keyClass) {
+    }
+
+    public record Route(List<Target> targets, Set<String> scanClasses) {
+    }
+
+    private final IndexLoader indexLoader;
+    private final MetadataResolver resolver;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private volatile long generation = Long.MIN_VALUE;
+
+    public CaseDataWorkerIndexRoutes(IndexLoader indexLoader, MetadataResolver resolver) {
+        this.indexLoader = indexLoader;
+        this.resolver = resolver;
+    }
+
+    public Route routeFor(String entityType) {
+        long current = resolver == null ? 0 : resolver.metadataGeneration();
+        if (current != generation) {
+            routes.clear();
+            generation = current;
+        }
+        return routes.computeIfAbsent(entityType, this::build);
+    }
+
+    private Route build(String entityType) {
+        List<Target> targets = new ArrayList<>();
+        Set<String> scanClasses = new LinkedHashSet<>();
+        if (indexLoader == null) return new Route(List.of(), Set.of());
+
+        Set<String> routed = new java.util.HashSet<>();
+        routed.add(entityType);
+        IndexDefinition primary = indexLoader.findByClass(entityType).orElse(null);
+        if (primary == null) {
+            String rootClass = rootClassOf(entityType);
+            if (rootClass != null && !rootClass.equals(entityType)) {
+                primary = indexLoader.findByClass(rootClass).orElse(null);
+                if (primary != null) routed.add(rootClass);
+            }
+        }
+        if (primary != null) targets.add(new Target(primary, Locate.ROOT, null));
+
+        for (IndexDefinition other : indexLoader.all()) {
+            if (other == null || other.table == null || other.table.isBlank()) continue;
+            String keyClass = other._class != null ? other._class : other.workClassReference;
+            if (keyClass == null) continue;
+            if (routed.contains(keyClass) || (other.workClassReference != null && routed.contains(other.workClassReference))) continue;
+            if (other.jsonPath != null && !other.jsonPath.isBlank() && !"$".equals(other.jsonPath.trim())) {
+                targets.add(new Target(other, Locate.PATH, keyClass));
+            } else {
+                targets.add(new Target(other, Locate.CLASS_SCAN, keyClass));
+                scanClasses.add(keyClass);
+            }
+        }
+        return new Route(List.copyOf(targets), Set.copyOf(scanClasses));
+    }
+
+    private String rootClassOf(String entityType) {
+        if (resolver == null) return null;
+        MetadataDefinition md = resolver.resolveForClass(entityType);
+        return md == null ? null : md._class;
+    }
+
+    /**
+     * Nested objects of a parsed payload grouped by {@code @class}, for the
+     * given classes only; matches what {@code $..[?(@['@class']=='X')]} selects
+     * (every object below the root), in document order.
+     */
+    static Map<String, List<Object>> collectByClass(Object tree, Set<String> classes) {
+        Map<String, List<Object>> found = new HashMap<>();
+        if (classes == null || classes.isEmpty()) return found;
+        for (String cls : classes) found.put(cls, new ArrayList<>());
+        walk(tree, classes, found);
+        return found;
+    }
+
+    private static void walk(Object node, Set<String> classes, Map<String, List<Object>> found) {
+        Iterable<?> children;
+        if (node instanceof Map<?, ?> map) children = map.values();
+        else if (node instanceof List<?> list) children = list;
+        else return;
+        for (Object child : children) {
+            if (child instanceof Map<?, ?> m && m.get("@class") instanceof String cls && classes.contains(cls)) {
+                found.get(cls).add(child);
+            }
+            walk(child, classes, found);
+        }
+    }
+}
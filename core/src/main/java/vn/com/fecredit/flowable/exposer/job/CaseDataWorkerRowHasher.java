@@ -0,0 +1,145 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes and reads the {@code row_hash} content hash carried by every
+ * materialized plain/index row.  The persister compares the hash of the row it
+ * is about to write with the hashes already stored for the case and skips the
+ * write when nothing changed.
+ *
+ * <p>Bookkeeping columns ({@code created_at}, {@code updated_at},
+ * {@code snapshot_version} and the hash column itself) are excluded so a fresh
+ * snapshot timestamp or version alone does not count as a change.
+ */
+public class CaseDataWorkerRowHasher {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CaseDataWorkerRowHasher.class);
+
+    public static final String HASH_COLUMN = "row_hash";
+
+    private static final Set<String> EXCLUDED = Set.of(HASH_COLUMN, "created_at", "updated_at", "snapshot_version");
+
+    private final JdbcTemplate jdbc;
+    private final CaseDataWorkerSchemaHelper schema;
+
+    public CaseDataWorkerRowHasher(JdbcTemplate jdbc, CaseDataWorkerSchemaHelper schema) {
+        this.jdbc = jdbc;
+        this.schema = schema;
+    }
+
+    /** SHA-256 (hex) over the row's columns, sorted case-insensitively by name. */
+    public String hash(Map<String, Object> row) {
+        java.util.TreeMap<String, Object> sorted = new java.util.TreeMap<>();
+        for (Map.Entry<String, Object> e : row.entrySet()) {
+            String col = e.getKey().toLowerCase(java.util.Locale.ROOT);
+            if (EXCLUDED.contains(col)) continue;
+            sorted.put(col, schema.isEmptyResult(e.getValue()) ? null : e.getValue());
+        }
+        try {
+            java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
+            for (Map.Entry<String, Object> e : sorted.entrySet()) {
+                md.update(e.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) '=');
+                if (e.getValue() == null) {
+                    md.update((byte) 0);
+                } else {
+                    md.update(String.valueOf(e.getValue()).getBytes(StandardCharsets.UTF_8));
+                }
+                md.update((byte) 1);
+            }
+            return java.util.HexFormat.of().formatHex(md.digest());
+        } catch (java.security.NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+
+    /**
+     * Load the hashes currently stored for a case in one query.  Returns
+     * {@code null} when the table has no hash column yet (rows written before
+     * this feature), in which case callers must write unconditionally.
+     * Rows without a hash are reported as {@code null} entries.
+     */
+    public List<String> storedHashes(String actualTable, String caseInstanceId) {
+        if (caseInstanceId == null) return null;
+        try {
+            if (!schema.getExistingColumns(actualTable).contains(HASH_COLUMN.toUpperCase(java.util.Locale.ROOT))) return null;
+            String sql = String.format("SELECT %s FROM %s WHERE case_instance_id = ?", HASH_COLUMN, schema.safeQuote(actualTable));
+            return jdbc.queryForList(sql, String.class, caseInstanceId);
+        } catch (Exception ex) {
+            log.debug("storedHashes: unable to read hashes from {}: {}", actualTable, ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Delete rows of a case whose hash is in {@code hashes} with a single
+     * statement; {@code null} matches rows without a hash.  Failures propagate
+     * so a surrounding transaction rolls back.
+     */
+    public int deleteByHash(String actualTable, String caseInstanceId, java.util.Collection<String> hashes) {
+        if (hashes == null || hashes.isEmpty()) return 0;
+        java.util.Set<String> distinct = new java.util.LinkedHashSet<>(hashes);
+        boolean unhashed = distinct.remove(null);
+        List<String> terms = new java.util.ArrayList<>(2);
+        if (!distinct.isEmpty()) terms.add(HASH_COLUMN + " IN (" + String.join(",", java.util.Collections.nCopies(distinct.size(), "?")) + ")");
+        if (unhashed) terms.add(HASH_COLUMN + " IS NULL");
+        List<Object> params = new java.util.ArrayList<>(distinct.size() + 1);
+        params.add(caseInstanceId);
+        params.addAll(distinct);
+        String sql = String.format("DELETE FROM %s WHERE case_instance_id = ? AND (%s)", schema.safeQuote(actualTable), String.join(" OR ", terms));
+        int deleted = jdbc.update(sql, params.toArray());
+        log.debug("deleteByHash: removed {} rows of case {} from {}", deleted, caseInstanceId, actualTable);
+        return deleted;
+    }
+
+    /**
+     * Decide which rows of a single case need writing.  Every row receives its
+     * {@code row_hash}.  Upserts are keyed on {@code case_instance_id}, so once
+     * a changed row is found every later row is written as well to keep the
+     * last-writer-wins order; rows before it are already stored as-is.
+     *
+     * @param stored hashes returned by {@link #storedHashes}, or {@code null}
+     * @return the rows to write (possibly empty when nothing changed)
+     */
+    public List<Map<String, Object>> changedRows(List<Map<String, Object>> rows, List<String> stored) {
+        List<String> hashes = new java.util.ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            String h = hash(row);
+            row.put(HASH_COLUMN, h);
+            hashes.add(h);
+        }
+        if (stored == null) return rows;
+        if (sameMultiset(hashes, stored)) return List.of();
+        if (stored.size() == 1 && !hashes.isEmpty() && hashes.get(hashes.size() - 1).equals(stored.get(0))) return List.of();
+        for (int i = 0; i < rows.size(); i++) {
+            if (!stored.contains(hashes.get(i))) return rows.subList(i, rows.size());
+        }
+        return List.of();
+    }
+
+    /** Stored hashes that no longer correspond to any row of the new batch. */
+    public List<String> staleHashes(List<Map<String, Object>> rows, List<String> stored) {
+        if (stored == null || stored.isEmpty()) return List.of();
+        Set<Object> current = new java.util.HashSet<>();
+        for (Map<String, Object> row : rows) current.add(row.get(HASH_COLUMN));
+        List<String> stale = new java.util.ArrayList<>();
+        for (String h : stored) {
+            if (h == null || !current.contains(h)) stale.add(h);
+        }
+        return stale;
+    }
+
+    private static boolean sameMultiset(List<String> a, List<String> b) {
+        if (a.size() != b.size()) return false;
+        List<String> x = new java.util.ArrayList<>(a);
+        List<String> y = new java.util.ArrayList<>(b);
+        x.sort(java.util.Comparator.nullsFirst(java.util.Comparator.naturalOrder()));
+        y.sort(java.util.Comparator.nullsFirst(java.util.Comparator.naturalOrder()));
+        return x.equals(y);
+    }
+}
@@ -3,7 +3,9 @@ package vn.com.fecredit.flowable.exposer.job;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.JsonPath;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
 import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.NewTransaction;
 import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
 
 import java.util.HashMap;
@@ -19,6 +21,9 @@ import java.util.Map;
 public class CaseDataWorkerRowHelper {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(CaseDataWorkerRowHelper.class);
 
+    /** Plain-table column recording the snapshot version a row was built from. */
+    static final String SNAPSHOT_VERSION_COLUMN = "snapshot_version";
+
     private final JdbcTemplate jdbc;
     private final MetadataResolver resolver;
     private final ObjectMapper om;
@@ -39,13 +44,27 @@ public class CaseDataWorkerRowHelper {
         this.schema = schema;
         this.dialect = dialect;
         this.builder = new Builder(jdbc, resolver, om, schema, dialect);
-        this.persister = new Persister(jdbc, resolver, om, schema, dialect);
+        this.persister = new Persister(jdbc, resolver, om, schema, dialect, new CaseDataWorkerRowHasher(jdbc, schema), builder);
+    }
+
+    /** Shared reconstructor for delta snapshots, so its cache is invalidated with everyone else's. */
+    public void setReconstructor(vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor reconstructor) {
+        builder.reconstructor = reconstructor;
+    }
+
+    /**
+     * Transaction manager used to write the index rows of a table (stale row
+     * deletes and upserts) atomically; without one the statements auto-commit.
+     */
+    public void setTransactionManager(PlatformTransactionManager txManager) {
+        persister.txManager = txManager;
     }
 
     public Map<String, Object> fetchLatestRow(String caseInstanceId) {
         return builder.fetchLatestRow(caseInstanceId);
     }
 
+    /** Write the plain row of a case; failures propagate so the expose request fails. */
     public void upsertPlain(String entityType,
                             String caseInstanceId,
                             String annotatedJson,
@@ -57,6 +76,51 @@ public class CaseDataWorkerRowHelper {
                               effectiveMappings, legacyMappings, directFallbacks);
     }
 
+    /**
+     * Write only the columns produced by the given (already filtered)
+     * mappings, plus {@code plain_payload}, to the existing plain row of a
+     * case.  Returns {@code false} when there is no row to update, in which
+     * case callers fall back to {@link #upsertPlain}.
+     */
+    public boolean updatePlainColumns(String entityType,
+                                      String caseInstanceId,
+                                      String annotatedJson,
+                                      Object rowCreatedAt,
+                                      Map<String, MetadataDefinition.FieldMapping> changedMappings,
+                                      Map<String, String> changedLegacyMappings,
+                                      Map<String, Object> directFallbacks) {
+        Map<String, Object> rowValues = builder.buildRowValues(caseInstanceId, annotatedJson, rowCreatedAt,
+                changedMappings, changedLegacyMappings, directFallbacks);
+        return persister.updatePlainColumns(entityType, caseInstanceId, rowValues);
+    }
+
+    /**
+     * Record on the plain row that the case is exposed up to
+     * {@code snapshotVersion}.  Callers do this last, once the plain row and
+     * every index table were written, so a failed pass is retried by the next
+     * request instead of being skipped.
+     */
+    public void markExposed(String entityType, String caseInstanceId, Object snapshotVersion) {
+        persister.markExposed(entityType, caseInstanceId, snapshotVersion);
+    }
+
+    /**
+     * The {@code plain_payload} the plain row of a case was last built from,
+     * or {@code null} when there is none.
+     */
+    public String materializedPayload(String entityType, String caseInstanceId) {
+        return persister.materializedPayload(entityType, caseInstanceId);
+    }
+
+    /**
+     * The {@code sys_case_data_store.version} the plain row of a case was last
+     * built from, or {@code null} when the case was never exposed (or the
+     * table predates the {@code snapshot_version} column).
+     */
+    public Long exposedVersion(String entityType, String caseInstanceId) {
+        return persister.exposedVersion(entityType, caseInstanceId);
+    }
+
     /**
      * Exposed for use by {@link CaseDataWorkerIndexHelper} when it needs to
      * convert arbitrary objects back to JSON.
@@ -75,10 +139,27 @@ public class CaseDataWorkerRowHelper {
         persister.upsertRowsByMetadata(tableName, rows, def);
     }
 
+    /**
+     * Bring the rows of one case in an index table in line with {@code rows}:
+     * unchanged rows are left alone, changed rows are upserted and rows that
+     * no longer exist (e.g. a removed list item) are deleted.
+     */
+    public void syncIndexRows(String tableName, String caseInstanceId, java.util.List<Map<String, Object>> rows, vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition def) {
+        if (rows != null && !rows.isEmpty()) {
+            persister.upsertRowsByMetadata(tableName, rows, def);
+        } else {
+            persister.deleteCaseRows(tableName, caseInstanceId);
+        }
+    }
+
     /* --------------------------------------------------------------------- */
     /* inner helpers                                                            */
     /* --------------------------------------------------------------------- */
     private static class Builder {
+        private volatile Boolean latestPointerTable = null;
+        private volatile Boolean codecColumns = null;
+        private volatile Boolean deltaColumns = null;
+        private volatile vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor reconstructor;
         private final JdbcTemplate jdbc;
         private final MetadataResolver resolver;
         private final ObjectMapper om;
@@ -91,25 +172,85 @@ public class CaseDataWorkerRowHelper {
             this.om = om;
             this.schema = schema;
             this.dialect = dialect;
+            this.reconstructor = new vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor(jdbc);
         }
 
         Map<String, Object> fetchLatestRow(String caseInstanceId) {
             log.info("Querying latest sys_case_data_store row for caseInstanceId={}", caseInstanceId);
             try {
-                String sql = "SELECT entity_type, payload, created_at FROM sys_case_data_store WHERE case_instance_id = ? ORDER BY created_at DESC LIMIT 1";
-                return jdbc.queryForObject(sql, new Object[]{caseInstanceId}, (rs, rowNum) -> {
-                    Map<String, Object> m = new HashMap<>();
-                    m.put("entityType", rs.getString("entity_type"));
-                    m.put("payload", rs.getString("payload"));
-                    m.put("createdAt", rs.getTimestamp("created_at"));
-                    return m;
-                });
+                String codecCols = (hasCodecColumns() ? ", s.payload_codec, s.payload_bytes" : "")
+                        + (hasDeltaColumns() ? ", s.id, s.snapshot_kind" : "");
+                if (hasLatestPointerTable()) {
+                    // primary-key lookup through the pointer maintained by CaseDataPersistService
+                    String byPointer = "SELECT s.entity_type, s.payload, s.created_at, s.version" + codecCols + " FROM sys_case_data_latest l "
+                            + "JOIN sys_case_data_store s ON s.id = l.store_id AND s.case_instance_id = l.case_instance_id "
+                            + "WHERE l.case_instance_id = ?";
+                    List<Map<String, Object>> found = jdbc.query(byPointer, (rs, rowNum) -> mapSnapshotRow(rs), caseInstanceId);
+                    if (!found.isEmpty()) return found.get(0);
+                }
+                String sql = "SELECT s.entity_type, s.payload, s.created_at, s.version" + codecCols
+                        + " FROM sys_case_data_store s WHERE s.case_instance_id = ? ORDER BY s.created_at DESC, s.version DESC LIMIT 1";
+                return jdbc.queryForObject(sql, new Object[]{caseInstanceId}, (rs, rowNum) -> mapSnapshotRow(rs));
             } catch (Exception ex) {
                 log.debug("fetchLatestRow: {}", ex.getMessage());
                 return null;
             }
         }
 
+        private Map<String, Object> mapSnapshotRow(java.sql.ResultSet rs) throws java.sql.SQLException {
+            Map<String, Object> m = new HashMap<>();
+            m.put("entityType", rs.getString("entity_type"));
+            // encoded rows keep payload NULL and carry payload_bytes + payload_codec instead;
+            // Smile bytes are handed on as-is so the worker can parse them without a JSON round trip
+            byte[] raw = hasCodecColumns()
+                    ? vn.com.fecredit.flowable.exposer.service.PayloadCodecs.decodeBytes(rs.getBytes("payload_bytes"), rs.getString("payload_codec"))
+                    : null;
+            if (vn.com.fecredit.flowable.exposer.service.PayloadFormats.isSmile(raw)) {
+                m.put("payloadSmile", raw);
+                m.put("payload", null);
+            } else {
+                m.put("payload", raw != null ? new String(raw, java.nio.charset.StandardCharsets.UTF_8) : rs.getString("payload"));
+            }
+            m.put("createdAt", rs.getTimestamp("created_at"));
+            if (hasDeltaColumns() && vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor.DELTA.equals(rs.getString("snapshot_kind"))) {
+                // a delta row: rebuild the full document from its checkpoint chain
+                m.remove("payloadSmile");
+                m.put("payload", reconstructor.reconstruct(rs.getLong("id")).json());
+            }
+            long version = rs.getLong("version");
+            m.put("version", rs.wasNull() ? null : version);
+            return m;
+        }
+
+        private boolean hasCodecColumns() {
+            Boolean cached = codecColumns;
+            if (cached == null) {
+                java.util.Set<String> cols = schema.getExistingColumns("sys_case_data_store");
+                cached = cols.contains("PAYLOAD_CODEC") && cols.contains("PAYLOAD_BYTES");
+                codecColumns = cached;
+            }
+            return cached;
+        }
+
+        private boolean hasDeltaColumns() {
+            Boolean cached = deltaColumns;
+            if (cached == null) {
+                java.util.Set<String> cols = schema.getExistingColumns("sys_case_data_store");
+                cached = cols.contains("SNAPSHOT_KIND") && cols.contains("BASE_ID");
+                deltaColumns = cached;
+            }
+            return cached;
+        }
+
+        private boolean hasLatestPointerTable() {
+            Boolean cached = latestPointerTable;
+            if (cached == null) {
+                cached = schema.tableExists("sys_case_data_latest");
+                latestPointerTable = cached;
+            }
+            return cached;
+        }
+
         Map<String, Object> buildRowValues(String caseInstanceId,
                                            String annotatedJson,
                                            Object rowCreatedAt,
@@ -200,13 +341,18 @@ public class CaseDataWorkerRowHelper {
         private final ObjectMapper om;
         private final CaseDataWorkerSchemaHelper schema;
         private final CaseDataWorkerDialectHelper dialect;
+        private final CaseDataWorkerRowHasher hasher;
+        private final Builder builder;
+        private volatile PlatformTransactionManager txManager;
 
-        Persister(JdbcTemplate jdbc, MetadataResolver resolver, ObjectMapper om, CaseDataWorkerSchemaHelper schema, CaseDataWorkerDialectHelper dialect) {
+        Persister(JdbcTemplate jdbc, MetadataResolver resolver, ObjectMapper om, CaseDataWorkerSchemaHelper schema, CaseDataWorkerDialectHelper dialect, CaseDataWorkerRowHasher hasher, Builder builder) {
             this.jdbc = jdbc;
             this.resolver = resolver;
             this.om = om;
             this.schema = schema;
             this.dialect = dialect;
+            this.hasher = hasher;
+            this.builder = builder;
         }
 
         void upsertPlain(String entityType, String caseInstanceId, String annotatedJson, Object rowCreatedAt,
@@ -215,18 +361,99 @@ public class CaseDataWorkerRowHelper {
             try {
                 MetadataDefinition metaDef = resolver.resolveForClass(entityType);
                 log.info("upsertPlain: resolver.resolveForClass({}) => {}", entityType, metaDef == null ? null : metaDef._class);
-                if (metaDef != null) log.debug("upsertPlain: resolved metadata json: {}", om.writeValueAsString(metaDef));
+                if (metaDef == null || metaDef.tableName == null) {
+                    log.info("upsertPlain: no plain table for entity type {}, nothing to write", entityType);
+                    return;
+                }
+                log.debug("upsertPlain: resolved metadata json: {}", om.writeValueAsString(metaDef));
 
-                Map<String, Object> rowValues = new Builder(jdbc, resolver, om, schema, dialect)
-                        .buildRowValues(caseInstanceId, annotatedJson, rowCreatedAt, effectiveMappings, legacyMappings, directFallbacks);
+                Map<String, Object> rowValues = builder.buildRowValues(caseInstanceId, annotatedJson, rowCreatedAt, effectiveMappings, legacyMappings, directFallbacks);
                 rowValues.put("plain_payload", annotatedJson);
 
+                List<String> stored = schema.tableExists(metaDef.tableName)
+                        ? hasher.storedHashes(resolveActualTableName(metaDef.tableName), caseInstanceId)
+                        : null;
+                if (hasher.changedRows(List.of(rowValues), stored).isEmpty()) {
+                    log.info("upsertPlain: row for case {} in {} unchanged, skipping write", caseInstanceId, metaDef.tableName);
+                    return;
+                }
                 upsertRowByMetadata(metaDef.tableName, rowValues);
             } catch (Exception ex) {
                 log.error("upsertPlain: Failed to upsert plain data for case {}", caseInstanceId, ex);
+                throw new IllegalStateException("Failed to upsert plain data for case " + caseInstanceId, ex);
+            }
+        }
+
+        boolean updatePlainColumns(String entityType, String caseInstanceId, Map<String, Object> rowValues) {
+            try {
+                MetadataDefinition metaDef = resolver.resolveForClass(entityType);
+                if (metaDef == null || metaDef.tableName == null || !schema.tableExists(metaDef.tableName)) return false;
+                String actualTable = resolveActualTableName(metaDef.tableName);
+                Map<String, Object> values = new java.util.LinkedHashMap<>(rowValues);
+                values.remove("case_instance_id");
+                schema.ensureColumnsPresent(actualTable, values, null);
+                // the stored hash covers the whole row; clear it so the next full comparison rewrites the row
+                if (schema.getExistingColumns(actualTable).contains(CaseDataWorkerRowHasher.HASH_COLUMN.toUpperCase(java.util.Locale.ROOT))) {
+                    values.put(CaseDataWorkerRowHasher.HASH_COLUMN, null);
+                }
+                StringBuilder set = new StringBuilder();
+                List<Object> params = new java.util.ArrayList<>();
+                for (Map.Entry<String, Object> e : values.entrySet()) {
+                    if (!schema.isValidIdentifier(e.getKey())) continue;
+                    if (set.length() > 0) set.append(", ");
+                    set.append(schema.safeQuote(e.getKey())).append(" = ?");
+                    params.add(schema.isEmptyResult(e.getValue()) ? null : e.getValue());
+                }
+                params.add(caseInstanceId);
+                int updated = jdbc.update(String.format("UPDATE %s SET %s WHERE case_instance_id = ?", schema.safeQuote(actualTable), set), params.toArray());
+                log.info("updatePlainColumns: updated {} columns of case {} in {} ({} rows)", values.size(), caseInstanceId, actualTable, updated);
+                return updated > 0;
+            } catch (Exception ex) {
+                log.warn("updatePlainColumns: partial update failed for case {}: {}", caseInstanceId, ex.getMessage());
+                return false;
+            }
+        }
+
+        String materializedPayload(String entityType, String caseInstanceId) {
+            try {
+                MetadataDefinition metaDef = resolver.resolveForClass(entityType);
+                if (metaDef == null || metaDef.tableName == null || !schema.tableExists(metaDef.tableName)) return null;
+                String actualTable = resolveActualTableName(metaDef.tableName);
+                if (!schema.getExistingColumns(actualTable).contains("PLAIN_PAYLOAD")) return null;
+                List<String> found = jdbc.queryForList(String.format("SELECT plain_payload FROM %s WHERE case_instance_id = ?",
+                        schema.safeQuote(actualTable)), String.class, caseInstanceId);
+                return found.isEmpty() ? null : found.get(0);
+            } catch (Exception ex) {
+                log.debug("materializedPayload: lookup failed for case {}: {}", caseInstanceId, ex.getMessage());
+                return null;
+            }
+        }
+
+        Long exposedVersion(String entityType, String caseInstanceId) {
+            try {
+                MetadataDefinition metaDef = resolver.resolveForClass(entityType);
+                if (metaDef == null || metaDef.tableName == null || !schema.tableExists(metaDef.tableName)) return null;
+                String actualTable = resolveActualTableName(metaDef.tableName);
+                if (!schema.getExistingColumns(actualTable).contains(SNAPSHOT_VERSION_COLUMN.toUpperCase(java.util.Locale.ROOT))) return null;
+                List<Long> found = jdbc.queryForList(String.format("SELECT %s FROM %s WHERE case_instance_id = ?",
+                        SNAPSHOT_VERSION_COLUMN, schema.safeQuote(actualTable)), Long.class, caseInstanceId);
+                return found.isEmpty() ? null : found.get(0);
+            } catch (Exception ex) {
+                log.debug("exposedVersion: lookup failed for case {}: {}", caseInstanceId, ex.getMessage());
+                return null;
             }
         }
 
+        void markExposed(String entityType, String caseInstanceId, Object snapshotVersion) {
+            if (snapshotVersion == null) return;
+            MetadataDefinition metaDef = resolver.resolveForClass(entityType);
+            if (metaDef == null || metaDef.tableName == null || !schema.tableExists(metaDef.tableName)) return;
+            String actualTable = resolveActualTableName(metaDef.tableName);
+            schema.ensureColumnsPresent(actualTable, Map.of(SNAPSHOT_VERSION_COLUMN, snapshotVersion), null);
+            jdbc.update(String.format("UPDATE %s SET %s = ? WHERE case_instance_id = ?", schema.safeQuote(actualTable), SNAPSHOT_VERSION_COLUMN),
+                    snapshotVersion, caseInstanceId);
+        }
+
         private void upsertRowByMetadata(String tableName, Map<String, Object> rowValues) {
             if (tableName == null || tableName.trim().isEmpty() || rowValues.isEmpty()) {
                 log.warn("upsertRowByMetadata: invalid arguments - tableName={}, rowCount={}", tableName, rowValues.size());
@@ -272,6 +499,7 @@ public class CaseDataWorkerRowHelper {
                 log.info("upsertRowByMetadata: successfully upserted row into {}", actualTable);
             } catch (Exception ex) {
                 log.error("upsertRowByMetadata: failed to upsert into table {}: {}", tableName, ex.getMessage(), ex);
+                throw ex;
             }
         }
 
@@ -290,36 +518,83 @@ public class CaseDataWorkerRowHelper {
                     schema.createDefaultWorkTable(tableName, rows.get(0));
                 }
                 String actualTable = resolveActualTableName(tableName);
-                for (Map<String, Object> row : rows) {
+                RowChanges plan = changedRows(actualTable, rows);
+                java.util.List<Map<String, Object>> changed = plan.changed();
+                if (changed.isEmpty() && plan.stale().isEmpty()) {
+                    log.info("upsertRowsByMetadata: {} rows in {} unchanged, skipping write", rows.size(), actualTable);
+                    return;
+                }
+                // DDL stays outside the transaction: some databases commit implicitly around it
+                for (Map<String, Object> row : changed) {
                     schema.ensureColumnsPresent(actualTable, row, hints);
                 }
-                for (Map<String, Object> row : rows) {
-                    java.util.List<String> columnOrder = schema.upsertColumnOrder(row);
-                    java.util.List<Object> paramsList = new java.util.ArrayList<>();
-                    for (String col : columnOrder) {
-                        Object val = row.get(col);
-                        if (schema.isEmptyResult(val)) val = null;
-                        paramsList.add(val);
-                    }
-                    if (paramsList.isEmpty()) continue;
-                    String upsertSql = dialect.buildUpsertSql(actualTable, columnOrder);
-                    Object[] params = paramsList.toArray();
-                    try {
-                        if ("__H2_SELECT_UPDATE_INSERT__".equals(upsertSql) && dialect.isH2()) {
-                            dialect.h2SelectUpdateInsert(actualTable, columnOrder, row);
-                        } else {
-                            jdbc.update(upsertSql, params);
-                         }
-                     } catch (org.springframework.jdbc.BadSqlGrammarException badSql) {
-                        log.error("upsertRowsByMetadata: bad SQL grammar for table {}: {}", actualTable, badSql.getMessage());
+                NewTransaction.run(txManager, () -> {
+                    plan.stale().forEach((caseId, hashes) -> hasher.deleteByHash(actualTable, caseId, hashes));
+                    for (Map<String, Object> row : changed) {
+                        java.util.List<String> columnOrder = schema.upsertColumnOrder(row);
+                        java.util.List<Object> paramsList = new java.util.ArrayList<>();
+                        for (String col : columnOrder) {
+                            Object val = row.get(col);
+                            if (schema.isEmptyResult(val)) val = null;
+                            paramsList.add(val);
+                        }
+                        if (paramsList.isEmpty()) continue;
+                        String upsertSql = dialect.buildUpsertSql(actualTable, columnOrder);
+                        try {
+                            if ("__H2_SELECT_UPDATE_INSERT__".equals(upsertSql) && dialect.isH2()) {
+                                dialect.h2SelectUpdateInsert(actualTable, columnOrder, row);
+                            } else {
+                                jdbc.update(upsertSql, paramsList.toArray());
+                            }
+                        } catch (org.springframework.jdbc.BadSqlGrammarException badSql) {
+                            log.error("upsertRowsByMetadata: bad SQL grammar for table {}: {}", actualTable, badSql.getMessage());
+                            throw badSql;
+                        }
                     }
-                }
-                log.info("upsertRowsByMetadata: upserted {} rows into {}", rows.size(), actualTable);
+                });
+                log.info("upsertRowsByMetadata: upserted {} of {} rows into {}", changed.size(), rows.size(), actualTable);
             } catch (Exception ex) {
                 log.error("upsertRowsByMetadata: failed for table {}: {}", tableName, ex.getMessage(), ex);
+                throw ex;
             }
         }
 
+        /** Rows to upsert, and per case the stored hashes of rows that disappeared. */
+        private record RowChanges(java.util.List<Map<String, Object>> changed, Map<String, List<String>> stale) {
+        }
+
+        /**
+         * Group rows per case and compare them with the hashes stored for that
+         * case (one query per case).  Nothing is written here; the caller
+         * deletes the stale rows and upserts the changed ones in one transaction.
+         */
+        private RowChanges changedRows(String actualTable, java.util.List<Map<String, Object>> rows) {
+            Map<Object, java.util.List<Map<String, Object>>> byCase = new java.util.LinkedHashMap<>();
+            for (Map<String, Object> row : rows) {
+                byCase.computeIfAbsent(row.get("case_instance_id"), k -> new java.util.ArrayList<>()).add(row);
+            }
+            java.util.List<Map<String, Object>> changed = new java.util.ArrayList<>();
+            Map<String, List<String>> stale = new java.util.LinkedHashMap<>();
+            for (Map.Entry<Object, java.util.List<Map<String, Object>>> e : byCase.entrySet()) {
+                String caseId = e.getKey() == null ? null : e.getKey().toString();
+                List<String> stored = hasher.storedHashes(actualTable, caseId);
+                changed.addAll(hasher.changedRows(e.getValue(), stored));
+                List<String> gone = hasher.staleHashes(e.getValue(), stored);
+                // a single stored row is replaced in place by the keyed upsert
+                if (!gone.isEmpty() && stored.size() > 1) stale.put(caseId, gone);
+            }
+            return new RowChanges(changed, stale);
+        }
+
+        void deleteCaseRows(String tableName, String caseInstanceId) {
+            if (caseInstanceId == null || !schema.tableExists(tableName)) return;
+            String actualTable = resolveActualTableName(tableName);
+            List<String> stored = hasher.storedHashes(actualTable, caseInstanceId);
+            if (stored == null || stored.isEmpty()) return;
+            int deleted = hasher.deleteByHash(actualTable, caseInstanceId, stored);
+            log.info("deleteCaseRows: removed {} rows of case {} from {}", deleted, caseInstanceId, actualTable);
+        }
+
         private String resolveActualTableName(String logicalName) {
             return schema.resolveActualTableName(logicalName);
         }
@@ -1,11 +1,11 @@
 package vn.com.fecredit.flowable.exposer.job;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.jayway.jsonpath.JsonPath;
 import org.springframework.jdbc.core.JdbcTemplate;
 import vn.com.fecredit.flowable.exposer.service.IndexLoader;
 import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
 import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
 import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
 
 import java.util.Map;
@@ -29,6 +29,7 @@ class CaseDataWorkerService {
     private final CaseDataWorkerSchemaHelper schema;
     private final CaseDataWorkerRowHelper db;
     private final CaseDataWorkerIndexHelper idx;
+    private final CaseDataWorkerIndexRoutes routes;
 
     // caches from original class (migrated into DbHelper as needed)
 
@@ -45,10 +46,33 @@ class CaseDataWorkerService {
         this.schema = new CaseDataWorkerSchemaHelper(jdbc, om, dialect);
         this.db = new CaseDataWorkerRowHelper(jdbc, resolver, om, schema, dialect);
         this.idx = new CaseDataWorkerIndexHelper(om, db, indexLoader);
+        this.routes = new CaseDataWorkerIndexRoutes(indexLoader, resolver);
+    }
+
+    /** Transaction manager for index-row writes, see {@link CaseDataWorkerRowHelper#setTransactionManager}. */
+    void setTransactionManager(org.springframework.transaction.PlatformTransactionManager txManager) {
+        db.setTransactionManager(txManager);
+    }
+
+    /** Shared snapshot reconstructor, see {@link CaseDataWorkerRowHelper#setReconstructor}. */
+    void setReconstructor(vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor reconstructor) {
+        db.setReconstructor(reconstructor);
     }
 
     /** Public entry point used by worker. */
     public void reindexByCaseInstanceId(String caseInstanceId) {
+        reindexByCaseInstanceId(caseInstanceId, false);
+    }
+
+    /**
+     * Reindex a case from its latest snapshot.  Unless {@code force} is set the
+     * call returns early when the plain table already reflects that snapshot
+     * version (or a newer one), which makes duplicate and out-of-order
+     * requests cheap.  Forced runs are meant for manual reindexes, e.g. after
+     * a metadata change.  Plain-row and index write failures propagate, and
+     * the watermark only moves once everything was written.
+     */
+    public void reindexByCaseInstanceId(String caseInstanceId, boolean force) {
         log.info("reindexByCaseInstanceId - start caseInstanceId={}", caseInstanceId);
         try {
             Map<String, Object> row = db.fetchLatestRow(caseInstanceId);
@@ -61,12 +85,21 @@ class CaseDataWorkerService {
             String payload = (String) row.get("payload");
             Object rowCreatedAt = row.get("createdAt");
             if (entityType == null) entityType = "Order";
+            Object version = row.get("version");
+            if (!force && isAlreadyExposed(entityType, caseInstanceId, version)) {
+                log.info("reindexByCaseInstanceId - case {} already exposed at version {}, skipping", caseInstanceId, version);
+                return;
+            }
 
-            Map<String, Object> vars = CaseDataWorkerHelpers.parsePayload(om, payload, caseInstanceId);
+            Map<String, Object> vars = CaseDataWorkerHelpers.parsePayload(om, payload, (byte[]) row.get("payloadSmile"), caseInstanceId);
 
-            try { annotator.annotate(vars, entityType); } catch (Exception ex) { log.debug("Annotator failed for case {}", caseInstanceId, ex); }
+            // snapshots annotated against the current metadata are used as stored
+            boolean annotated = payload != null && annotator != null && annotator.isCurrent(vars, entityType);
+            if (!annotated) {
+                try { annotator.annotate(vars, entityType); } catch (Exception ex) { log.debug("Annotator failed for case {}", caseInstanceId, ex); }
+            }
 
-            String annotatedJson = om.writeValueAsString(vars);
+            String annotatedJson = annotated ? payload : om.writeValueAsString(vars);
 
             Map<String, MetadataDefinition.FieldMapping> mappings = resolver.mappingsMetadataFor(entityType);
             final Map<String, String> legacyMappings = resolver.mappingsFor(entityType);
@@ -81,47 +114,74 @@ class CaseDataWorkerService {
                 System.out.println("DEBUG[CaseDataWorker]: processing caseInstanceId=" + caseInstanceId + " effectiveMappingsKeys=" + (effectiveMappings==null?"[]":effectiveMappings.keySet()));
             } catch (Exception ignored) {}
 
-            db.upsertPlain(entityType, caseInstanceId, annotatedJson, rowCreatedAt, effectiveMappings, legacyMappings, directFallbacks);
-
-            // indexes
-            try {
-                indexLoader.findByClass(entityType).ifPresent(def -> {
-                    try { idx.processIndexDefinition(def, caseInstanceId, annotatedJson, rowCreatedAt); } catch (Exception e) { log.error("processIndexDefinition failed: {}", e.getMessage(), e); }
-                });
-                for (vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition other : indexLoader.all()) {
-                    if (other == null) continue;
-                    String keyClass = other._class != null ? other._class : other.workClassReference;
-                    if (keyClass == null) continue;
-                    if (keyClass.equals(entityType) || (other.workClassReference != null && other.workClassReference.equals(entityType))) continue;
-                    if (other.jsonPath != null && !other.jsonPath.isBlank() && !"$".equals(other.jsonPath.trim())) {
-                        try { idx.processIndexDefinition(other, caseInstanceId, annotatedJson, rowCreatedAt); } catch (Exception ignored) {}
-                        continue;
-                    }
-                    try {
-                        String expr = "$..[?(@['@class']=='" + keyClass + "')]";
-                        Object matches = null;
-                        try { matches = JsonPath.read(annotatedJson, expr); } catch (Exception jp) { matches = null; }
-                        if (matches instanceof java.util.List) {
-                            for (Object m : (java.util.List<?>) matches) {
-                                try { idx.processIndexDefinition(other, caseInstanceId, idx.toJsonSafe(m), rowCreatedAt); } catch (Exception ignored) {}
+            // diff against the payload the plain row was built from; forced runs and rows built under
+            // other metadata (new mappings, changed paths or indexes) re-evaluate everything
+            String materialized = force ? null : db.materializedPayload(entityType, caseInstanceId);
+            boolean metadataChanged = materialized != null && annotator != null && annotator.versionFor(entityType) != null
+                    && !annotator.isCurrent(materialized, entityType);
+            CaseDataWorkerChangeSet changes = force || metadataChanged ? null
+                    : CaseDataWorkerChangeSet.between(om, materialized, annotatedJson);
+            if (changes == null || !updateChangedPlainColumns(changes, entityType, caseInstanceId, annotatedJson, rowCreatedAt,
+                    effectiveMappings, legacyMappings, directFallbacks)) {
+                changes = null;
+                db.upsertPlain(entityType, caseInstanceId, annotatedJson, rowCreatedAt, effectiveMappings, legacyMappings, directFallbacks);
+            }
+            final CaseDataWorkerChangeSet changeSet = changes;
+
+            // indexes: the routing table lists the definitions that apply to the entity type; with a
+            // change set only definitions that can see a change are rebuilt
+            {
+                CaseDataWorkerIndexBatch batch = new CaseDataWorkerIndexBatch();
+                CaseDataWorkerIndexRoutes.Route route = routes.routeFor(entityType);
+                java.util.Set<String> scan = new java.util.HashSet<>();
+                for (CaseDataWorkerIndexRoutes.Target t : route.targets()) {
+                    if (t.locate() == CaseDataWorkerIndexRoutes.Locate.CLASS_SCAN
+                            && (changeSet == null || changeSet.touchesClass(t.keyClass()))) scan.add(t.keyClass());
+                }
+                Map<String, java.util.List<Object>> byClass = CaseDataWorkerIndexRoutes.collectByClass(vars, scan);
+                for (CaseDataWorkerIndexRoutes.Target t : route.targets()) {
+                    IndexDefinition def = t.def();
+                    switch (t.locate()) {
+                        case ROOT -> {
+                            if (changeSet != null && !changeSet.affectsIndex(def)) continue;
+                            try { batch.add(def, idx.buildIndexRows(def, caseInstanceId, annotatedJson, rowCreatedAt)); } catch (Exception e) { log.error("processIndexDefinition failed: {}", e.getMessage(), e); }
+                        }
+                        case PATH -> {
+                            if (changeSet != null && !changeSet.affectsIndex(def)) continue;
+                            try { batch.add(def, idx.buildIndexRows(def, caseInstanceId, annotatedJson, rowCreatedAt)); } catch (Exception ignored) {}
+                        }
+                        case CLASS_SCAN -> {
+                            java.util.List<Object> matches = byClass.get(t.keyClass());
+                            if (matches == null) continue;
+                            batch.add(def, java.util.List.of());
+                            for (Object m : matches) {
+                                try { batch.add(def, idx.buildIndexRows(def, caseInstanceId, idx.toJsonSafe(m), rowCreatedAt)); } catch (Exception ignored) {}
                             }
                         }
-                    } catch (Exception ignored) {}
+                    }
                 }
-            } catch (Exception ex) {
-                log.error("Error processing index mappings for {}: {}", caseInstanceId, ex.getMessage(), ex);
+                batch.flush(db, caseInstanceId);
             }
 
+            // the watermark moves last: a pass that failed above is redone by the next request
+            db.markExposed(entityType, caseInstanceId, version);
             log.info("reindexByCaseInstanceId - completed for {}", caseInstanceId);
 
         } catch (Exception ex) {
             log.error("reindex error for {}", caseInstanceId, ex);
+            throw ex instanceof RuntimeException re ? re : new IllegalStateException("Reindex failed for case " + caseInstanceId, ex);
         }
     }
 
 
     // additional helper methods will be added below
 
+    private boolean isAlreadyExposed(String entityType, String caseInstanceId, Object version) {
+        if (!(version instanceof Number)) return false;
+        Long exposed = db.exposedVersion(entityType, caseInstanceId);
+        return exposed != null && exposed >= ((Number) version).longValue();
+    }
+
     private Map<String, MetadataDefinition.FieldMapping> computeEffectiveMappings(String entityType, Map<String, MetadataDefinition.FieldMapping> mappings) {
         if (mappings != null && !mappings.isEmpty()) return mappings;
         if (entityType == null) return java.util.Collections.emptyMap();
@@ -136,4 +196,25 @@ class CaseDataWorkerService {
         return java.util.Collections.emptyMap();
     }
 
+    /**
+     * Partial plain-row update: evaluate only the mappings (and direct
+     * fallbacks) whose paths intersect the change set, leaving out legacy and
+     * fallback columns that an effective mapping writes.  Returns {@code false}
+     * when the row could not be updated in place and a full upsert is needed.
+     */
+    private boolean updateChangedPlainColumns(CaseDataWorkerChangeSet changes, String entityType, String caseInstanceId,
+                                              String annotatedJson, Object rowCreatedAt,
+                                              Map<String, MetadataDefinition.FieldMapping> effectiveMappings,
+                                              Map<String, String> legacyMappings, Map<String, Object> directFallbacks) {
+        Map<String, MetadataDefinition.FieldMapping> changedMappings = changes.filterMappings(effectiveMappings);
+        // columns follow the precedence of a full build: effective mappings, then legacy, then fallbacks
+        Map<String, String> changedLegacy = changes.filterLegacy(legacyMappings, effectiveMappings);
+        Map<String, Object> changedFallbacks = changes.filterFallbacks(directFallbacks, CaseDataWorkerHelpers.DIRECT_FALLBACK_PATHS,
+                effectiveMappings, legacyMappings, changedLegacy);
+        log.debug("reindexByCaseInstanceId - {} changed paths for {}: {} of {} mappings, {} of {} legacy mappings affected",
+                changes.size(), caseInstanceId, changedMappings.size(), effectiveMappings == null ? 0 : effectiveMappings.size(),
+                changedLegacy.size(), legacyMappings == null ? 0 : legacyMappings.size());
+        return db.updatePlainColumns(entityType, caseInstanceId, annotatedJson, rowCreatedAt,
+                changedMappings, changedLegacy, changedFallbacks);
+    }
 }
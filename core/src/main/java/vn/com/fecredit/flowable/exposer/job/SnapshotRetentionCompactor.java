@@ -0,0 +1,235 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import vn.com.fecredit.flowable.exposer.service.CaseDataWriter;
+import vn.com.fecredit.flowable.exposer.service.EntityTypeSettings;
+import vn.com.fecredit.flowable.exposer.service.NewTransaction;
+import vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Background compactor enforcing the per-entityType retention policy of
+ * {@code sys_case_data_store}.
+ *
+ * <p>The policy is read through {@link EntityTypeSettings}:
+ * <pre>
+ * exposer.entity.default.retention-keep-latest=20      # newest versions kept per case
+ * exposer.entity.Order.retention-keep-newer-than=30d   # versions younger than this are kept
+ * </pre>
+ * A version is deleted only when it falls outside <em>both</em> rules; an
+ * entity type with neither setting is never compacted.  The newest version of
+ * every case (the one {@code sys_case_data_latest} points at) is always kept,
+ * which is the final version once a case has completed, and so is every
+ * snapshot a kept {@code DELTA} row needs for reconstruction.
+ *
+ * <p>Cases are visited in keyset pages over the primary key of
+ * {@code sys_case_data_latest}, and only each page's cases are aggregated in
+ * the store, so a run never groups the whole store table; without the
+ * pointer table cases are grouped straight from the store.  Surplus rows are
+ * deleted in batches of {@code exposer.retention.batch-size}, each in its own
+ * transaction, so a run never holds long locks on the store.
+ */
+@Component
+public class SnapshotRetentionCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotRetentionCompactor.class);
+
+    @Value("${exposer.retention.enabled:false}")
+    private boolean enabled;
+    @Value("${exposer.retention.batch-size:500}")
+    private int batchSize = 500;
+
+    private final JdbcTemplate jdbc;
+    private final CaseDataWriter writer;
+
+    @Autowired(required = false)
+    private EntityTypeSettings settings;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager txManager;
+
+    public SnapshotRetentionCompactor(JdbcTemplate jdbc) {
+        this(jdbc, new CaseDataWriter(jdbc));
+    }
+
+    @Autowired
+    public SnapshotRetentionCompactor(JdbcTemplate jdbc, CaseDataWriter writer) {
+        this.jdbc = jdbc;
+        this.writer = writer;
+    }
+
+    /** Outcome of a compaction run. */
+    public record Result(long casesVisited, long rowsDeleted, long bytesReclaimed) {
+        Result plus(Result other) {
+            return new Result(casesVisited + other.casesVisited, rowsDeleted + other.rowsDeleted, bytesReclaimed + other.bytesReclaimed);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${exposer.retention.interval-ms:3600000}", initialDelayString = "${exposer.retention.initial-delay-ms:60000}")
+    public void scheduledCompact() {
+        if (!enabled) return;
+        try {
+            compactAll();
+        } catch (Exception ex) {
+            log.error("SnapshotRetentionCompactor run failed", ex);
+        }
+    }
+
+    /** Compacts every entity type that has a retention policy. */
+    public Result compactAll() {
+        Result total = new Result(0, 0, 0);
+        for (String entityType : jdbc.queryForList("SELECT DISTINCT entity_type FROM sys_case_data_store WHERE entity_type IS NOT NULL", String.class)) {
+            total = total.plus(compact(entityType));
+        }
+        if (total.rowsDeleted() > 0) {
+            log.info("SnapshotRetentionCompactor: deleted {} snapshots from {} cases, reclaimed ~{} bytes",
+                    total.rowsDeleted(), total.casesVisited(), total.bytesReclaimed());
+        }
+        return total;
+    }
+
+    /** Compacts one entity type; a no-op when it has no retention policy. */
+    public Result compact(String entityType) {
+        int keepLatest = settings == null ? 0 : settings.getInt(entityType, "retention-keep-latest", 0);
+        Duration keepNewerThan = parseDuration(settings == null ? null : settings.get(entityType, "retention-keep-newer-than", null));
+        if (keepLatest <= 0 && keepNewerThan == null) return new Result(0, 0, 0);
+
+        // the newest version of a case is never deleted, whatever the policy says
+        int keep = Math.max(1, keepLatest);
+        Timestamp cutoff = Timestamp.from(keepNewerThan == null ? Instant.now() : Instant.now().minus(keepNewerThan));
+        int batch = Math.max(1, batchSize);
+        CaseDataWriter.Capabilities caps = writer.capabilities();
+        boolean hasKind = caps.snapshotKind();
+        boolean hasBytes = caps.payloadCodec();
+        boolean hasPointers = caps.latestTable();
+
+        Result result = new Result(0, 0, 0);
+        String after = "";
+        while (true) {
+            List<String> page = hasPointers
+                    ? jdbc.queryForList("SELECT case_instance_id FROM sys_case_data_latest WHERE case_instance_id > ? "
+                            + "ORDER BY case_instance_id LIMIT ?", String.class, after, batch)
+                    : null;
+            List<String> cases = hasPointers ? candidates(page, entityType, keep, cutoff) : jdbc.queryForList(
+                    "SELECT case_instance_id FROM sys_case_data_store WHERE entity_type = ? AND case_instance_id > ? "
+                            + "GROUP BY case_instance_id HAVING COUNT(*) > ? AND MIN(created_at) < ? "
+                            + "ORDER BY case_instance_id LIMIT ?",
+                    String.class, entityType, after, keep, cutoff, batch);
+            for (String caseId : cases) {
+                List<Long> doomed = expiredSnapshots(caseId, entityType, keep, cutoff, hasKind);
+                long bytes = 0;
+                for (int i = 0; i < doomed.size(); i += batch) {
+                    bytes += deleteBatch(doomed.subList(i, Math.min(doomed.size(), i + batch)), hasBytes);
+                }
+                result = result.plus(new Result(1, doomed.size(), bytes));
+            }
+            List<String> visited = hasPointers ? page : cases;
+            if (visited.size() < batch) break;
+            after = visited.get(visited.size() - 1);
+        }
+        log.debug("SnapshotRetentionCompactor: {} -> {}", entityType, result);
+        return result;
+    }
+
+    /** Cases of {@code page} with more versions than kept by count and at least one older than the cutoff. */
+    private List<String> candidates(List<String> page, String entityType, int keepLatest, Timestamp cutoff) {
+        if (page.isEmpty()) return List.of();
+        List<Object> args = new ArrayList<>(page.size() + 3);
+        args.add(entityType);
+        args.addAll(page);
+        args.add(keepLatest);
+        args.add(cutoff);
+        return jdbc.queryForList(
+                "SELECT case_instance_id FROM sys_case_data_store WHERE entity_type = ? AND case_instance_id IN ("
+                        + String.join(",", java.util.Collections.nCopies(page.size(), "?")) + ") "
+                        + "GROUP BY case_instance_id HAVING COUNT(*) > ? AND MIN(created_at) < ? ORDER BY case_instance_id",
+                String.class, args.toArray());
+    }
+
+    /** Store ids of a case that the policy allows to delete. */
+    List<Long> expiredSnapshots(String caseId, String entityType, int keepLatest, Timestamp cutoff, boolean hasKind) {
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT id, created_at" + (hasKind ? ", snapshot_kind, base_id" : "")
+                        + " FROM sys_case_data_store WHERE case_instance_id = ? AND entity_type = ? ORDER BY id DESC",
+                caseId, entityType);
+        Map<Long, Long> deltaBase = new HashMap<>();
+        Set<Long> kept = new LinkedHashSet<>();
+        Long pointer = latestPointer(caseId);
+        if (pointer != null) kept.add(pointer);
+        for (int i = 0; i < rows.size(); i++) {
+            Map<String, Object> r = rows.get(i);
+            long id = ((Number) r.get("id")).longValue();
+            if (hasKind && SnapshotReconstructor.DELTA.equals(r.get("snapshot_kind")) && r.get("base_id") instanceof Number b) {
+                deltaBase.put(id, b.longValue());
+            }
+            Object created = r.get("created_at");
+            boolean recent = !(created instanceof java.util.Date d) || !d.before(cutoff);
+            if (i < keepLatest || recent) kept.add(id);
+        }
+        // a kept delta needs its whole chain back to the nearest full checkpoint
+        for (Long id : new ArrayList<>(kept)) {
+            Long base = deltaBase.get(id);
+            while (base != null && kept.add(base)) {
+                base = deltaBase.get(base);
+            }
+        }
+        List<Long> doomed = new ArrayList<>();
+        for (Map<String, Object> r : rows) {
+            long id = ((Number) r.get("id")).longValue();
+            if (!kept.contains(id)) doomed.add(id);
+        }
+        return doomed;
+    }
+
+    private long deleteBatch(List<Long> ids, boolean hasBytes) {
+        if (ids.isEmpty()) return 0;
+        String in = String.join(",", java.util.Collections.nCopies(ids.size(), "?"));
+        Object[] args = ids.toArray();
+        long[] reclaimed = new long[1];
+        NewTransaction.run(txManager, () -> {
+            Long bytes = jdbc.queryForObject("SELECT COALESCE(SUM(COALESCE(OCTET_LENGTH(payload), 0)"
+                    + (hasBytes ? " + COALESCE(OCTET_LENGTH(payload_bytes), 0)" : "") + "), 0) FROM sys_case_data_store WHERE id IN (" + in + ")",
+                    Long.class, args);
+            jdbc.update("DELETE FROM sys_case_data_store WHERE id IN (" + in + ")", args);
+            reclaimed[0] = bytes == null ? 0 : bytes;
+        });
+        return reclaimed[0];
+    }
+
+    private Long latestPointer(String caseId) {
+        try {
+            List<Long> ids = jdbc.queryForList("SELECT store_id FROM sys_case_data_latest WHERE case_instance_id = ?", Long.class, caseId);
+            return ids.isEmpty() ? null : ids.get(0);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /** Accepts ISO-8601 ({@code P30D}) and simple ({@code 30d}, {@code 12h}) forms; {@code null} when unset or invalid. */
+    static Duration parseDuration(String value) {
+        if (value == null || value.isBlank()) return null;
+        try {
+            Duration d = org.springframework.boot.convert.DurationStyle.detectAndParse(value.trim());
+            return d.isNegative() || d.isZero() ? null : d;
+        } catch (Exception ex) {
+            log.warn("SnapshotRetentionCompactor: ignoring invalid retention duration '{}'", value);
+            return null;
+        }
+    }
+}
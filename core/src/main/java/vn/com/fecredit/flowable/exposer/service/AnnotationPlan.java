@@ -0,0 +1,158 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Annotation instructions for one root class, compiled from its metadata.
+ *
+ * <p>Every class reachable through field hints becomes a {@link Node} holding
+ * one {@link Step} per field: the field name, how its value is shaped (object,
+ * list, map of values, or an unhinted nested object) and the {@code @class}
+ * to stamp.  Nodes are shared by class, so recursive metadata compiles into a
+ * cycle rather than an endless tree.  Applying the plan walks the payload
+ * along the steps without resolving metadata; the only lookups left are for
+ * untyped root children whose class is inferred from the key, and those are
+ * memoized per plan.
+ */
+final class AnnotationPlan {
+
+    enum Shape { OBJECT, LIST, VALUE_MAP, NESTED }
+
+    record Step(String field, Shape shape, String className, Node target) {
+    }
+
+    static final class Node {
+        private Step[] steps = new Step[0];
+
+        Step[] steps() {
+            return steps;
+        }
+    }
+
+    private static final Node NONE = new Node();
+
+    private final MetadataLookup lookup;
+    private final Node root;
+    private final Map<String, Node> compiled;
+    private final Map<String, Node> inferred = new ConcurrentHashMap<>();
+
+    private AnnotationPlan(MetadataLookup lookup, Node root, Map<String, Node> compiled) {
+        this.lookup = lookup;
+        this.root = root;
+        this.compiled = compiled;
+    }
+
+    static AnnotationPlan compile(MetadataLookup lookup, String rootClass) {
+        Map<String, Node> compiled = new HashMap<>();
+        Node root = node(lookup, rootClass, compiled);
+        return new AnnotationPlan(lookup, root, compiled);
+    }
+
+    Node root() {
+        return root;
+    }
+
+    /** Annotate a root map; the caller stamps the root's own {@code @class}. */
+    void apply(Map<String, Object> payload) {
+        applyNode(payload, root);
+        inferMissingNestedClasses(payload);
+    }
+
+    private static Node node(MetadataLookup lookup, String className, Map<String, Node> compiled) {
+        Node existing = compiled.get(className);
+        if (existing != null) return existing;
+        Node node = new Node();
+        compiled.put(className, node);
+        MetadataDefinition md = lookup == null ? null : lookup.resolve(className);
+        List<MetadataDefinition.FieldDef> fields = md == null ? null : lookup.fieldsOf(md);
+        if (fields == null) return node;
+
+        Step[] steps = new Step[fields.size()];
+        int n = 0;
+        for (MetadataDefinition.FieldDef fd : fields) {
+            String name = MetadataLookup.safeName(fd);
+            if (name == null) continue;
+            String childClass = MetadataLookup.primaryClassFor(fd);
+            String elementClass = MetadataLookup.elementClassFor(fd);
+            if (childClass != null) {
+                // a field with both hints annotates an object as childClass and collections by elementClass
+                steps[n++] = new Step(name, Shape.OBJECT, childClass, node(lookup, childClass, compiled));
+                if (elementClass != null) {
+                    steps[n++] = new Step(name, Shape.LIST, elementClass, node(lookup, elementClass, compiled));
+                }
+            } else if (elementClass != null) {
+                Node element = node(lookup, elementClass, compiled);
+                steps[n++] = new Step(name, Shape.LIST, elementClass, element);
+                steps[n++] = new Step(name, Shape.VALUE_MAP, elementClass, element);
+            } else {
+                steps[n++] = new Step(name, Shape.NESTED, capitalize(name), node(lookup, name, compiled));
+            }
+        }
+        node.steps = java.util.Arrays.copyOf(steps, n);
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void applyNode(Map<String, Object> map, Node node) {
+        for (Step step : node.steps) {
+            Object val = map.get(step.field());
+            if (val == null) continue;
+            switch (step.shape()) {
+                case OBJECT, NESTED -> {
+                    if (val instanceof Map) annotate((Map<String, Object>) val, step);
+                }
+                case LIST -> {
+                    if (val instanceof List) {
+                        for (Object it : (List<Object>) val) {
+                            if (it instanceof Map) annotate((Map<String, Object>) it, step);
+                        }
+                    }
+                }
+                case VALUE_MAP -> {
+                    if (val instanceof Map) {
+                        for (Object it : ((Map<String, Object>) val).values()) {
+                            if (it instanceof Map) annotate((Map<String, Object>) it, step);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void annotate(Map<String, Object> map, Step step) {
+        map.putIfAbsent("@class", step.className());
+        applyNode(map, step.target());
+    }
+
+    private void inferMissingNestedClasses(Map<String, Object> payload) {
+        for (Map.Entry<String, Object> e : payload.entrySet()) {
+            if (!(e.getValue() instanceof Map)) continue;
+            @SuppressWarnings("unchecked") Map<String, Object> child = (Map<String, Object>) e.getValue();
+            if (child.containsKey("@class")) continue;
+            String k = e.getKey();
+            if (k == null || k.isBlank()) continue;
+            String cand = capitalize(k);
+            Node target = inferred.computeIfAbsent(cand, this::inferredNode);
+            if (target == NONE) continue;
+            child.putIfAbsent("@class", cand);
+            applyNode(child, target);
+        }
+    }
+
+    private Node inferredNode(String className) {
+        if (lookup == null || lookup.resolve(className) == null) return NONE;
+        synchronized (compiled) {
+            return node(lookup, className, compiled);
+        }
+    }
+
+    private static String capitalize(String name) {
+        if (name.isBlank() || Character.isUpperCase(name.charAt(0))) return name;
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -3,13 +3,15 @@ package vn.com.fecredit.flowable.exposer.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,39 +27,177 @@ public class CaseDataPersistService {
     private final ObjectMapper om;
     private final MetadataAnnotator annotator;
     private final CaseDataWriter writer;
+    private final SnapshotReconstructor reconstructor;
 
     public CaseDataPersistService(JdbcTemplate jdbc, ObjectMapper om, MetadataAnnotator annotator, CaseDataWriter writer) {
+        this(jdbc, om, annotator, writer, new SnapshotReconstructor(jdbc));
+    }
+
+    @Autowired
+    public CaseDataPersistService(JdbcTemplate jdbc, ObjectMapper om, MetadataAnnotator annotator, CaseDataWriter writer,
+                                  SnapshotReconstructor reconstructor) {
         this.jdbc = jdbc;
         this.om = om;
         this.annotator = annotator;
         this.writer = writer;
+        this.reconstructor = reconstructor;
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public void persistSysCaseData(String caseInstanceId, String entityType, String payload) {
+    /** The reconstructor whose cache {@link #reindexExistingBlobs(String)} invalidates. */
+    public SnapshotReconstructor reconstructor() {
+        return reconstructor;
+    }
+
+    /** Opt-in diagnostic: count the case's snapshots after every persist. */
+    @Value("${exposer.persist.verify-count:false}")
+    private boolean verifyCount;
+
+    /** Skip snapshots whose canonical content equals the case's latest snapshot. */
+    @Value("${exposer.persist.dedup:true}")
+    private boolean dedup = true;
+
+    @Value("${exposer.reindex.chunk-size:500}")
+    private int reindexChunkSize = 500;
+
+    /** Annotate threads used by {@link #reindexExistingBlobs(String)}; 0 means one per CPU. */
+    @Value("${exposer.reindex.parallelism:0}")
+    private int reindexParallelism;
+
+    @Autowired(required = false)
+    private SnapshotWriteBehind writeBehind;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager txManager;
+
+    @Autowired(required = false)
+    private EntityTypeSettings settings;
+
+    /**
+     * Persist an annotated snapshot of the case.  By default the insert runs in
+     * its own {@code REQUIRES_NEW} transaction; with the write-behind mode
+     * enabled the snapshot is queued instead and no connection is taken on the
+     * calling (engine) thread.
+     *
+     * @return {@code false} when the snapshot was skipped because its content
+     *         equals the case's latest snapshot; callers then have nothing new
+     *         to expose and should not create an expose request
+     */
+    public boolean persistSysCaseData(String caseInstanceId, String entityType, String payload) {
+        return persist(caseInstanceId, entityType, payload, false, null, null);
+    }
+
+    /**
+     * Transactional outbox variant of {@link #persistSysCaseData}: the snapshot
+     * and its {@code sys_expose_requests} row are written in one transaction
+     * (or one write-behind batch), so a crash cannot leave a snapshot without
+     * its request and each event takes a single connection.
+     *
+     * @return {@code false} when the snapshot was unchanged and neither row was written
+     */
+    public boolean persistSnapshotAndRequest(String caseInstanceId, String entityType, String payload, String requestedBy) {
+        return persist(caseInstanceId, entityType, payload, true, requestedBy, null);
+    }
+
+    /**
+     * Synchronous variant of {@link #persistSnapshotAndRequest} for callers
+     * whose own bookkeeping must commit with the snapshot: write-behind is
+     * bypassed and {@code alongside} runs in the same {@code REQUIRES_NEW}
+     * transaction as the snapshot and request rows.  It also runs, in a
+     * transaction of its own, when the snapshot is unchanged and skipped.
+     */
+    public boolean persistSnapshotAndRequest(String caseInstanceId, String entityType, String payload, String requestedBy,
+                                             Runnable alongside) {
+        return persist(caseInstanceId, entityType, payload, true, requestedBy, alongside);
+    }
+
+    private boolean persist(String caseInstanceId, String entityType, String payload, boolean exposeRequest, String requestedBy,
+                            Runnable alongside) {
         log.info("persistSysCaseData - entering caseInstanceId={} entityType={} payloadLen={}", caseInstanceId, entityType, (payload == null ? 0 : payload.length()));
 
         String annotatedPayload = annotatePayload(payload, entityType);
-        int nextVersion = computeNextVersion(caseInstanceId);
-
+        String contentHash = SnapshotContentHash.of(annotatedPayload);
+        if (isUnchanged(caseInstanceId, contentHash)) {
+            log.debug("persistSysCaseData - content unchanged for {}, skipping snapshot", caseInstanceId);
+            if (alongside != null) NewTransaction.run(txManager, alongside);
+            return false;
+        }
         Timestamp now = new Timestamp(System.currentTimeMillis());
-        boolean hasStatus = hasColumn("sys_case_data_store", "status");
-        boolean hasError = hasColumn("sys_case_data_store", "error_message");
-        boolean hasVer = hasColumn("sys_case_data_store", "version");
 
+        if (alongside == null && writeBehind != null && writeBehind.submit(new PendingSnapshot(caseInstanceId, entityType, annotatedPayload, now, contentHash, exposeRequest, requestedBy))) {
+            log.debug("persistSysCaseData - queued snapshot for {}", caseInstanceId);
+            return true;
+        }
+        NewTransaction.run(txManager, () -> {
+            writeSnapshot(caseInstanceId, entityType, annotatedPayload, now, contentHash);
+            if (exposeRequest) writer.insertExposeRequest(caseInstanceId, entityType, requestedBy, now);
+            if (alongside != null) alongside.run();
+        });
+        return true;
+    }
+
+    /**
+     * Best-effort: compares with the latest committed snapshot only, so a
+     * duplicate still sitting in the write-behind queue is not detected.
+     */
+    private boolean isUnchanged(String caseInstanceId, String contentHash) {
+        if (!dedup || contentHash == null) return false;
         try {
-            writer.insertSysCaseData(caseInstanceId, entityType, annotatedPayload, now, hasStatus, hasError, hasVer, nextVersion);
+            return contentHash.equals(writer.latestContentHash(caseInstanceId));
+        } catch (Exception e) {
+            log.debug("persistSysCaseData - latest hash lookup failed for {}: {}", caseInstanceId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void writeSnapshot(String caseInstanceId, String entityType, String annotatedPayload, Timestamp now, String contentHash) {
+        Long storeId;
+        try {
+            Delta delta = planDelta(caseInstanceId, entityType, annotatedPayload);
+            if (delta != null) {
+                storeId = writer.insertSnapshot(caseInstanceId, entityType, delta.patch(), now, contentHash, SnapshotReconstructor.DELTA, delta.baseId());
+                if (storeId != null) reconstructor.remember(storeId, annotatedPayload, delta.depth());
+            } else {
+                storeId = writer.insertSnapshot(caseInstanceId, entityType, annotatedPayload, now, contentHash);
+            }
+            writer.upsertLatestPointer(caseInstanceId, storeId);
         } catch (Exception e) {
             log.error("persistSysCaseData - insert failed for {}: {}", caseInstanceId, e.getMessage(), e);
             throw e;
         }
 
-        log.info("persisted sys_case_data_store for {} (version={})", caseInstanceId, nextVersion);
-        verifyPersistCount(caseInstanceId);
+        log.info("persisted sys_case_data_store for {} (id={})", caseInstanceId, storeId);
+        if (verifyCount) verifyPersistCount(caseInstanceId);
+    }
+
+    private record Delta(String patch, long baseId, int depth) {
+    }
+
+    /**
+     * With {@code exposer.entity.<type>.delta-checkpoint-every=N} (N &gt; 1) a
+     * snapshot is stored as a JSON Patch against the case's latest snapshot,
+     * and every N-th one as a full checkpoint.  Returns {@code null} when a
+     * full row should be written: deltas disabled, first snapshot, checkpoint
+     * due, patch not smaller than the payload, or any lookup failure.
+     */
+    private Delta planDelta(String caseInstanceId, String entityType, String annotatedPayload) {
+        int every = settings == null ? 0 : settings.getInt(entityType, "delta-checkpoint-every", 0);
+        if (every <= 1 || annotatedPayload == null || !writer.capabilities().snapshotKind()) return null;
+        try {
+            SnapshotReconstructor.Snapshot previous = reconstructor.reconstructLatest(caseInstanceId);
+            if (previous == null || previous.depth() + 1 >= every) return null;
+            String patch = om.writeValueAsString(JsonPatch.diff(om.readTree(previous.json()), om.readTree(annotatedPayload)));
+            if (patch.length() >= annotatedPayload.length()) return null;
+            return new Delta(patch, previous.storeId(), previous.depth() + 1);
+        } catch (Exception e) {
+            log.debug("persistSysCaseData - delta not possible for {}, writing full snapshot: {}", caseInstanceId, e.getMessage());
+            return null;
+        }
     }
 
     private String annotatePayload(String payload, String entityType) {
         String annotatedPayload = payload;
+        // annotated upstream (delegate, event handlers) against the current metadata: keep as is
+        if (annotator != null && annotator.isCurrent(payload, entityType)) return payload;
         if (payload != null && om != null && annotator != null) {
             try {
                 @SuppressWarnings("unchecked")
@@ -73,20 +213,6 @@ public class CaseDataPersistService {
         return annotatedPayload;
     }
 
-    private int computeNextVersion(String caseInstanceId) {
-        Integer currentMax = null;
-        try {
-            if (hasColumn("sys_case_data_store", "version")) {
-                currentMax = jdbc.queryForObject(
-                        "SELECT MAX(version) FROM sys_case_data_store WHERE case_instance_id = ?",
-                        Integer.class, caseInstanceId);
-            }
-        } catch (Exception e) {
-            log.debug("Could not read current version for {}: {}", caseInstanceId, e.getMessage());
-        }
-        return (currentMax == null) ? 1 : (currentMax + 1);
-    }
-
     private void verifyPersistCount(String caseInstanceId) {
         try {
             Integer cnt = jdbc.queryForObject("SELECT COUNT(1) FROM sys_case_data_store WHERE case_instance_id = ?", Integer.class, caseInstanceId);
@@ -98,31 +224,20 @@ public class CaseDataPersistService {
 
     /**
      * Re-index existing blobs for a given entity type by annotating payloads with @class
-     * markers and updating the payload in-place. This is best-effort and executed in a
-     * separate transaction.
+     * markers and updating the payload in-place. Encoded rows are decoded and written back
+     * with the entity type's current payload format and codec. Rows are streamed in keyset
+     * pages of {@code exposer.reindex.chunk-size} and each page commits on its own together
+     * with a checkpoint, so an interrupted run resumes where it stopped; see
+     * {@link SnapshotBlobReindexer}.
      */
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
     public void reindexExistingBlobs(String entityType) {
         try {
-            List<Map<String,Object>> rows = jdbc.queryForList("SELECT id, payload FROM sys_case_data_store WHERE entity_type = ?", entityType);
-            for (Map<String,Object> row : rows) {
-                Object id = row.get("id");
-                Object payloadObj = row.get("payload");
-                if (payloadObj == null) continue;
-                String payload = String.valueOf(payloadObj);
-                try {
-                    @SuppressWarnings("unchecked")
-                    Map<String,Object> m = om.readValue(payload, Map.class);
-                    if (m == null) continue;
-                    try { annotator.annotate(m, entityType); } catch (Exception t) { log.debug("Annotator failed during reindex for id {}: {}", id, t.getMessage()); }
-                    String updated = om.writeValueAsString(m);
-                    jdbc.update("UPDATE sys_case_data_store SET payload = ? WHERE id = ?", updated, id);
-                } catch (Exception ex) {
-                    log.warn("Failed to reindex blob id {}: {}", id, ex.getMessage());
-                }
-            }
+            long rows = new SnapshotBlobReindexer(jdbc, om, annotator, writer, txManager, reindexChunkSize, reindexParallelism).run(entityType);
+            log.info("reindexExistingBlobs: {} snapshots of {} reindexed", rows, entityType);
         } catch (Exception e) {
             log.warn("reindexExistingBlobs failed for entityType {}: {}", entityType, e.getMessage());
+        } finally {
+            reconstructor.invalidateAll();
         }
     }
 
@@ -133,21 +248,10 @@ public class CaseDataPersistService {
             Timestamp cutoffTs = Timestamp.from(cutoff);
             String sql = "UPDATE sys_case_data_store SET case_instance_id = ? WHERE created_at >= ? AND case_instance_id <> ?";
             int updated = jdbc.update(sql, newCaseInstanceId, cutoffTs, newCaseInstanceId);
+            if (updated > 0) writer.refreshLatestPointer(newCaseInstanceId);
             log.info("updateCaseInstanceIdForRecent: updated {} rows to caseInstanceId={}", updated, newCaseInstanceId);
         } catch (Throwable t) {
             log.warn("updateCaseInstanceIdForRecent failed for {}", newCaseInstanceId, t);
         }
     }
-
-    private boolean hasColumn(String tableName, String columnName) {
-        try (var conn = jdbc.getDataSource().getConnection()) {
-            var meta = conn.getMetaData();
-            try (var rs = meta.getColumns(null, null, tableName.toUpperCase(), columnName.toUpperCase())) {
-                return rs.next();
-            }
-        } catch (Exception e) {
-            log.debug("hasColumn check failed for {}.{}: {}", tableName, columnName, e.getMessage());
-            return false;
-        }
-    }
 }
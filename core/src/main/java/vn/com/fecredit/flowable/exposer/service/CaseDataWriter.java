@@ -2,60 +2,374 @@ package vn.com.fecredit.flowable.exposer.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Component
 public class CaseDataWriter {
     private static final Logger log = LoggerFactory.getLogger(CaseDataWriter.class);
 
+    /** Attempts at a snapshot insert whose allocated version lost a race (see V13's unique index). */
+    static final int VERSION_ATTEMPTS = 5;
+
+    private static final String EXPOSE_REQUEST_INSERT =
+            "INSERT INTO sys_expose_requests (case_instance_id, entity_type, requested_by, requested_at, status) VALUES (?,?,?,?,'PENDING')";
+
     private final JdbcTemplate jdbc;
 
+    private volatile Capabilities capabilities = null;
+
+    @Autowired(required = false)
+    private EntityTypeSettings settings;
+
     public CaseDataWriter(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
-    public void insertSysCaseData(String caseInstanceId, String entityType, String annotatedPayload,
-                                  Timestamp now, boolean hasStatus, boolean hasError, boolean hasVer, int nextVersion) {
-        if (hasStatus || hasError || hasVer) {
-            String sql = "INSERT INTO sys_case_data_store(case_instance_id, entity_type, payload, created_at"
-                    + (hasStatus ? ", status" : "")
-                    + (hasError ? ", error_message" : "")
-                    + (hasVer ? ", version" : "")
-                    + ") VALUES (?,?,?,?"
-                    + (hasStatus ? ",?" : "")
-                    + (hasError ? ",?" : "")
-                    + (hasVer ? ",?" : "")
-                    + ")";
-            List<Object> params = new ArrayList<>();
-            params.add(caseInstanceId);
-            params.add(entityType);
-            params.add(annotatedPayload);
-            params.add(now);
-            if (hasStatus) params.add("PENDING");
-            if (hasError) params.add(null);
-            if (hasVer) params.add(nextVersion);
-            log.info("Executing SQL: {} params={} (payload length={})", sql, params, (annotatedPayload == null ? 0 : annotatedPayload.length()));
-            try {
-                jdbc.update(sql, params.toArray());
+    /**
+     * Insert a snapshot with a single statement: optional columns come from
+     * the cached {@link #capabilities()} and the next per-case version is
+     * allocated by the statement itself instead of a separate
+     * {@code SELECT MAX(version)} round trip.  Two writers of the same case
+     * can allocate the same version; the unique {@code (case_instance_id,
+     * version)} index rejects the second, which is rolled back to a savepoint
+     * and retried with a fresh version.
+     *
+     * @return the generated store id, or {@code null} when the driver did not report one
+     */
+    public Long insertSnapshot(String caseInstanceId, String entityType, String annotatedPayload, Timestamp now) {
+        return insertSnapshot(caseInstanceId, entityType, annotatedPayload, now, SnapshotContentHash.of(annotatedPayload));
+    }
+
+    /** As {@link #insertSnapshot(String, String, String, Timestamp)} with a precomputed {@link SnapshotContentHash}. */
+    public Long insertSnapshot(String caseInstanceId, String entityType, String annotatedPayload, Timestamp now, String contentHash) {
+        return insertSnapshot(caseInstanceId, entityType, annotatedPayload, now, contentHash, null, null);
+    }
+
+    /**
+     * Insert a full snapshot ({@code kind} {@code null}/{@code FULL}) or a
+     * {@link SnapshotReconstructor#DELTA} whose payload is a {@link JsonPatch}
+     * against store row {@code baseId}.  {@code contentHash} is always the
+     * hash of the full content.
+     */
+    public Long insertSnapshot(String caseInstanceId, String entityType, String payload, Timestamp now, String contentHash,
+                               String kind, Long baseId) {
+        Capabilities caps = capabilities();
+        if (SnapshotReconstructor.DELTA.equals(kind) && (!caps.snapshotKind || baseId == null)) {
+            throw new IllegalArgumentException("Delta snapshots need the snapshot_kind/base_id columns and a base id");
+        }
+        String sql = snapshotInsertSql(caps);
+        log.debug("insertSnapshot: {} (kind={}, payload length={})", sql, kind, (payload == null ? 0 : payload.length()));
+        try {
+            Object[] params = snapshotParams(caps, caseInstanceId, entityType, payload, now, contentHash, kind, baseId);
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return atSavepoint(con -> insertReturningId(con, sql, params));
+                } catch (DuplicateKeyException dup) {
+                    if (!caps.version || attempt >= VERSION_ATTEMPTS) throw dup;
+                    log.debug("insertSnapshot: version of case {} taken concurrently, retrying ({}/{})", caseInstanceId, attempt, VERSION_ATTEMPTS);
+                }
+            }
+        } catch (Exception e) {
+            log.error("insertSnapshot - insert failed for {}: {}", caseInstanceId, e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Write a group of snapshots as one JDBC batch and move the latest pointer
+     * of every touched case.  Runs in the caller's transaction, so a group
+     * commits (or rolls back) as a whole.  When a version allocated by the
+     * batch was taken concurrently, the batch is rolled back to a savepoint
+     * and the group is written row by row with {@link #insertSnapshot}'s retry.
+     */
+    public void insertSnapshots(List<PendingSnapshot> snapshots) {
+        if (snapshots == null || snapshots.isEmpty()) return;
+        Capabilities caps = capabilities();
+        String sql = snapshotInsertSql(caps);
+        List<Object[]> batch = new ArrayList<>(snapshots.size());
+        java.util.Set<String> cases = new java.util.LinkedHashSet<>();
+        for (PendingSnapshot s : snapshots) {
+            batch.add(snapshotParams(caps, s.caseInstanceId(), s.entityType(), s.payload(), s.createdAt(), s.contentHash(), null, null));
+            cases.add(s.caseInstanceId());
+        }
+        try {
+            atSavepoint(con -> {
+                try (PreparedStatement ps = con.prepareStatement(sql)) {
+                    for (Object[] params : batch) {
+                        setParameters(ps, params);
+                        ps.addBatch();
+                    }
+                    return ps.executeBatch();
+                }
+            });
+        } catch (DuplicateKeyException dup) {
+            if (!caps.version) throw dup;
+            log.debug("insertSnapshots: a version was taken concurrently, writing {} snapshots row by row", snapshots.size());
+            for (PendingSnapshot s : snapshots) {
+                insertSnapshot(s.caseInstanceId(), s.entityType(), s.payload(), s.createdAt(), s.contentHash(), null, null);
+            }
+        }
+        for (String caseInstanceId : cases) refreshLatestPointer(caseInstanceId);
+        List<Object[]> requests = new ArrayList<>();
+        for (PendingSnapshot s : snapshots) {
+            if (s.exposeRequest()) requests.add(new Object[]{s.caseInstanceId(), s.entityType(), s.requestedBy(), s.createdAt()});
+        }
+        if (!requests.isEmpty()) jdbc.batchUpdate(EXPOSE_REQUEST_INSERT, requests);
+        log.info("insertSnapshots: wrote {} snapshots and {} expose requests for {} cases", snapshots.size(), requests.size(), cases.size());
+    }
+
+    /**
+     * Enqueue a {@code PENDING} row in {@code sys_expose_requests}.  Meant to
+     * run in the transaction that inserted the case's snapshot, so the worker
+     * can never see a request without its snapshot or miss one.
+     */
+    public void insertExposeRequest(String caseInstanceId, String entityType, String requestedBy, Timestamp now) {
+        jdbc.update(EXPOSE_REQUEST_INSERT, caseInstanceId, entityType, requestedBy, now);
+    }
+
+    /**
+     * Whether the store already holds this exact snapshot, identified by its
+     * content hash and creation time.  Used to skip journal entries a crash
+     * caught between commit and the journal's mark; always {@code false} when
+     * the store predates the {@code content_hash} column.
+     */
+    public boolean containsSnapshot(String caseInstanceId, String contentHash, Timestamp createdAt) {
+        Capabilities caps = capabilities();
+        if (!caps.contentHash || caseInstanceId == null || contentHash == null || createdAt == null) return false;
+        Integer n = jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store WHERE case_instance_id = ? AND content_hash = ? AND created_at = ?",
+                Integer.class, caseInstanceId, contentHash, createdAt);
+        return n != null && n > 0;
+    }
+
+    /**
+     * Content hash of the case's latest snapshot, or {@code null} when the
+     * case has none or the store predates the {@code content_hash} column.
+     * Uses the latest pointer when present so this stays a primary-key lookup.
+     */
+    public String latestContentHash(String caseInstanceId) {
+        Capabilities caps = capabilities();
+        if (!caps.contentHash || caseInstanceId == null) return null;
+        String sql = caps.latestTable
+                ? "SELECT s.content_hash FROM sys_case_data_latest l JOIN sys_case_data_store s ON s.id = l.store_id WHERE l.case_instance_id = ?"
+                : "SELECT content_hash FROM sys_case_data_store WHERE id = (SELECT MAX(id) FROM sys_case_data_store WHERE case_instance_id = ?)";
+        List<String> hashes = jdbc.queryForList(sql, String.class, caseInstanceId);
+        return hashes.isEmpty() ? null : hashes.get(0);
+    }
+
+    private String snapshotInsertSql(Capabilities caps) {
+        String cols = "case_instance_id, entity_type, payload, created_at"
+                + (caps.status ? ", status" : "")
+                + (caps.errorMessage ? ", error_message" : "")
+                + (caps.contentHash ? ", content_hash" : "")
+                + (caps.payloadCodec ? ", payload_codec, payload_bytes" : "")
+                + (caps.snapshotKind ? ", snapshot_kind, base_id" : "");
+        String values = "?,?,?,?" + (caps.status ? ",?" : "") + (caps.errorMessage ? ",?" : "") + (caps.contentHash ? ",?" : "")
+                + (caps.payloadCodec ? ",?,?" : "") + (caps.snapshotKind ? ",?,?" : "");
+        if (!caps.version) {
+            return "INSERT INTO sys_case_data_store(" + cols + ") VALUES (" + values + ")";
+        }
+        // MySQL rejects a VALUES sub-select on the insert target, but accepts INSERT ... SELECT from it
+        return caps.mysql
+                ? "INSERT INTO sys_case_data_store(" + cols + ", version) SELECT " + values
+                        + ", COALESCE(MAX(version), 0) + 1 FROM sys_case_data_store WHERE case_instance_id = ?"
+                : "INSERT INTO sys_case_data_store(" + cols + ", version) VALUES (" + values
+                        + ", (SELECT COALESCE(MAX(version), 0) + 1 FROM sys_case_data_store WHERE case_instance_id = ?))";
+    }
+
+    /** Parameters for {@link #snapshotInsertSql}; the trailing case id feeds the version sub-select. */
+    private Object[] snapshotParams(Capabilities caps, String caseInstanceId, String entityType, String payload, Timestamp now, String contentHash,
+                                    String kind, Long baseId) {
+        PayloadCodecs.Encoded encoded = caps.payloadCodec
+                ? encodePayload(payload, entityType)
+                : new PayloadCodecs.Encoded(payload, null, null);
+        List<Object> params = new ArrayList<>();
+        params.add(caseInstanceId);
+        params.add(entityType);
+        params.add(encoded.text());
+        params.add(now);
+        if (caps.status) params.add("PENDING");
+        if (caps.errorMessage) params.add(null);
+        if (caps.contentHash) params.add(contentHash);
+        if (caps.payloadCodec) {
+            params.add(encoded.codec());
+            params.add(encoded.bytes());
+        }
+        if (caps.snapshotKind) {
+            params.add(kind == null ? SnapshotReconstructor.FULL : kind);
+            params.add(baseId);
+        }
+        if (caps.version) params.add(caseInstanceId);
+        return params.toArray();
+    }
+
+    /** Codec configured for the entity type ({@code exposer.entity.<type>.payload-codec}), identity by default. */
+    PayloadCodec codecFor(String entityType) {
+        if (settings == null) return PayloadCodecs.IDENTITY;
+        try {
+            return PayloadCodecs.forName(settings.get(entityType, "payload-codec", "none"));
+        } catch (IllegalArgumentException ex) {
+            log.warn("codecFor: {} for entityType {}, storing uncompressed", ex.getMessage(), entityType);
+            return PayloadCodecs.IDENTITY;
+        }
+    }
+
+    /** Whether the entity type stores Smile ({@code exposer.entity.<type>.payload-format}), JSON text by default. */
+    boolean smileFor(String entityType) {
+        return settings != null && PayloadFormats.isSmileName(settings.get(entityType, "payload-format", "json"));
+    }
+
+    /** Encode with the entity type's format and codec; a payload that is not JSON is kept as text. */
+    PayloadCodecs.Encoded encodePayload(String payload, String entityType) {
+        PayloadCodec codec = codecFor(entityType);
+        try {
+            return PayloadCodecs.encode(payload, codec, smileFor(entityType));
+        } catch (IllegalArgumentException ex) {
+            log.debug("encodePayload: {} ({}), falling back to text", ex.getMessage(), entityType);
+            return PayloadCodecs.encode(payload, codec, false);
+        }
+    }
+
+    /**
+     * Point {@code sys_case_data_latest} at the given store row, copying the
+     * version from that row server-side.  The pointer only moves forward
+     * (higher store id), so a late writer cannot hide a newer snapshot.
+     * Meant to run in the snapshot insert's transaction.
+     */
+    public void upsertLatestPointer(String caseInstanceId, Long storeId) {
+        if (storeId == null || !capabilities().latestTable) return;
+        String update = "UPDATE sys_case_data_latest SET store_id = ?, version = (SELECT version FROM sys_case_data_store WHERE id = ?), "
+                + "updated_at = CURRENT_TIMESTAMP WHERE case_instance_id = ? AND store_id < ?";
+        if (jdbc.update(update, storeId, storeId, caseInstanceId, storeId) > 0) return;
+        Integer existing = jdbc.queryForObject("SELECT COUNT(1) FROM sys_case_data_latest WHERE case_instance_id = ?", Integer.class, caseInstanceId);
+        if (existing != null && existing > 0) return;
+        try {
+            jdbc.update("INSERT INTO sys_case_data_latest (case_instance_id, store_id, version, updated_at) "
+                    + "SELECT case_instance_id, id, version, CURRENT_TIMESTAMP FROM sys_case_data_store WHERE id = ?", storeId);
+        } catch (DuplicateKeyException dup) {
+            // a concurrent first snapshot of the same case created the pointer meanwhile
+            jdbc.update(update, storeId, storeId, caseInstanceId, storeId);
+        }
+    }
+
+    /** Re-point a case at its newest store row, e.g. after rows were re-assigned to it. */
+    public void refreshLatestPointer(String caseInstanceId) {
+        if (!capabilities().latestTable) return;
+        List<Long> newest = jdbc.queryForList(
+                "SELECT MAX(id) FROM sys_case_data_store WHERE case_instance_id = ?", Long.class, caseInstanceId);
+        if (newest.isEmpty() || newest.get(0) == null) return;
+        upsertLatestPointer(caseInstanceId, newest.get(0));
+    }
+
+    /**
+     * Optional columns/tables of the snapshot store, read from
+     * {@code DatabaseMetaData} once and cached for the lifetime of the writer.
+     * Detection is lazy so it runs after the schema has been created.
+     */
+    public Capabilities capabilities() {
+        Capabilities cached = capabilities;
+        if (cached != null) return cached;
+        synchronized (this) {
+            if (capabilities != null) return capabilities;
+            java.util.Set<String> cols = new java.util.HashSet<>();
+            boolean latest = false;
+            String product = "";
+            try (var conn = jdbc.getDataSource().getConnection()) {
+                var meta = conn.getMetaData();
+                product = String.valueOf(meta.getDatabaseProductName()).toLowerCase(java.util.Locale.ROOT);
+                for (String table : new String[]{"SYS_CASE_DATA_STORE", "sys_case_data_store"}) {
+                    try (var rs = meta.getColumns(null, null, table, null)) {
+                        while (rs.next()) cols.add(rs.getString("COLUMN_NAME").toUpperCase(java.util.Locale.ROOT));
+                    }
+                }
+                for (String table : new String[]{"SYS_CASE_DATA_LATEST", "sys_case_data_latest"}) {
+                    try (var rs = meta.getTables(null, null, table, new String[]{"TABLE"})) {
+                        if (rs.next()) latest = true;
+                    }
+                }
             } catch (Exception e) {
-                log.error("insertSysCaseData - insert failed for {}: {}", caseInstanceId, e.getMessage(), e);
-                throw e;
+                log.warn("capabilities: metadata lookup failed, assuming legacy schema: {}", e.getMessage());
+            }
+            capabilities = new Capabilities(cols.contains("STATUS"), cols.contains("ERROR_MESSAGE"), cols.contains("VERSION"),
+                    cols.contains("CONTENT_HASH"), cols.contains("PAYLOAD_CODEC") && cols.contains("PAYLOAD_BYTES"),
+                    cols.contains("SNAPSHOT_KIND") && cols.contains("BASE_ID"), latest, product.contains("mysql") || product.contains("mariadb"));
+            log.info("CaseDataWriter capabilities: {}", capabilities);
+            return capabilities;
+        }
+    }
+
+    /** Detected optional schema features of the snapshot store. */
+    public record Capabilities(boolean status, boolean errorMessage, boolean version, boolean contentHash, boolean payloadCodec, boolean snapshotKind, boolean latestTable, boolean mysql) {
+    }
+
+    /** Run an insert on a given connection and return its generated id, for use inside {@link #atSavepoint}. */
+    private static Long insertReturningId(Connection con, String sql, Object[] params) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement(sql, new String[]{"id"})) {
+            setParameters(ps, params);
+            ps.executeUpdate();
+            KeyHolder keys = new GeneratedKeyHolder();
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (rs != null) keys.getKeyList().addAll(new RowMapperResultSetExtractor<>(new ColumnMapRowMapper()).extractData(rs));
+            }
+            return generatedId(keys);
+        }
+    }
+
+    private static Long generatedId(KeyHolder keys) {
+        for (Map<String, Object> row : keys.getKeyList()) {
+            for (Map.Entry<String, Object> e : row.entrySet()) {
+                if (e.getValue() instanceof Number && (row.size() == 1 || "id".equalsIgnoreCase(e.getKey()))) {
+                    return ((Number) e.getValue()).longValue();
+                }
             }
-        } else {
-            String sql = "INSERT INTO sys_case_data_store(case_instance_id, entity_type, payload, created_at) VALUES (?,?,?,?)";
-            log.info("Executing legacy SQL: {} params=[{}, {}, <payload length:{}>, {}]", sql,
-                    caseInstanceId, entityType, (annotatedPayload == null ? 0 : annotatedPayload.length()), now);
+        }
+        return null;
+    }
+
+    private static void setParameters(PreparedStatement ps, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
+        }
+    }
+
+    /**
+     * Run statements on the current connection behind a savepoint when a
+     * transaction is active, so a failed statement (e.g. a duplicate version)
+     * does not leave the surrounding transaction aborted.  SQL errors are
+     * translated as usual, so callers can catch {@link DuplicateKeyException}.
+     */
+    private <T> T atSavepoint(ConnectionCallback<T> work) {
+        return jdbc.execute((ConnectionCallback<T>) con -> {
+            Savepoint savepoint = con.getAutoCommit() ? null : con.setSavepoint();
             try {
-                jdbc.update(sql, caseInstanceId, entityType, annotatedPayload, now);
-            } catch (Exception e) {
-                log.error("insertSysCaseData - legacy insert failed for {}: {}", caseInstanceId, e.getMessage(), e);
+                T result = work.doInConnection(con);
+                if (savepoint != null) {
+                    try { con.releaseSavepoint(savepoint); } catch (SQLException ignored) { /* optional in some drivers */ }
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                if (savepoint != null) con.rollback(savepoint);
                 throw e;
             }
-        }
+        });
     }
 }
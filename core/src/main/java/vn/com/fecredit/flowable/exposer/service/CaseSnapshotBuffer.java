@@ -0,0 +1,121 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collapses the snapshots produced during one engine transaction into one
+ * snapshot (and at most one expose request) per case, written after commit.
+ *
+ * <p>A single engine transaction may fire several exposer hooks for the same
+ * case (a task completion, the service task it triggers, a DMN evaluation,
+ * {@code CasePersistDelegate}).  While a Spring transaction synchronization
+ * is active, {@link #submit} only records the case's latest payload in a
+ * {@link TransactionSynchronization} registered with that transaction; in
+ * {@code afterCommit} each buffered case is written through
+ * {@link CaseDataPersistService#persistSnapshotAndRequest} (its own
+ * {@code REQUIRES_NEW} transaction).  A rollback discards the buffer, so no
+ * snapshot or request is written for work that never happened.
+ *
+ * <p>The payload is captured when the hook runs because engine variables are
+ * no longer reachable after the command context closes; that is why the
+ * global listener itself does not use Flowable's
+ * {@code isFireOnTransactionLifecycleEvent}.  Outside a transaction, or with
+ * {@code exposer.persist.per-transaction=false}, snapshots are written
+ * immediately as before.
+ */
+@Component
+public class CaseSnapshotBuffer {
+    private static final Logger log = LoggerFactory.getLogger(CaseSnapshotBuffer.class);
+
+    @Value("${exposer.persist.per-transaction:true}")
+    private boolean enabled = true;
+
+    private final CaseDataPersistService persistService;
+
+    public CaseSnapshotBuffer(CaseDataPersistService persistService) {
+        this.persistService = persistService;
+    }
+
+    private static final class Pending {
+        String entityType;
+        String payload;
+        boolean exposeRequest;
+        String requestedBy;
+        int submissions;
+    }
+
+    /**
+     * Persist (or buffer until commit) a snapshot of the case.
+     *
+     * @param exposeRequest whether the snapshot should also enqueue an expose request
+     * @return {@code true} when buffered, or when written immediately and changed
+     */
+    public boolean submit(String caseInstanceId, String entityType, String payload, boolean exposeRequest, String requestedBy) {
+        if (!enabled || caseInstanceId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return write(caseInstanceId, entityType, payload, exposeRequest, requestedBy);
+        }
+        Pending p = currentBuffer().cases.computeIfAbsent(caseInstanceId, k -> new Pending());
+        p.entityType = entityType;
+        p.payload = payload;
+        p.exposeRequest |= exposeRequest;
+        if (requestedBy != null) p.requestedBy = requestedBy;
+        p.submissions++;
+        log.debug("CaseSnapshotBuffer: buffered snapshot #{} for case {} until commit", p.submissions, caseInstanceId);
+        return true;
+    }
+
+    private boolean write(String caseInstanceId, String entityType, String payload, boolean exposeRequest, String requestedBy) {
+        return exposeRequest
+                ? persistService.persistSnapshotAndRequest(caseInstanceId, entityType, payload, requestedBy)
+                : persistService.persistSysCaseData(caseInstanceId, entityType, payload);
+    }
+
+    /** The buffer registered with the current transaction; suspended outer transactions keep their own. */
+    private Buffer currentBuffer() {
+        for (TransactionSynchronization s : TransactionSynchronizationManager.getSynchronizations()) {
+            if (s instanceof Buffer b && b.owner() == this) return b;
+        }
+        Buffer b = new Buffer();
+        TransactionSynchronizationManager.registerSynchronization(b);
+        return b;
+    }
+
+    private final class Buffer implements TransactionSynchronization {
+        private final Map<String, Pending> cases = new LinkedHashMap<>();
+
+        CaseSnapshotBuffer owner() {
+            return CaseSnapshotBuffer.this;
+        }
+
+        @Override
+        public void afterCommit() {
+            int submissions = 0;
+            for (Map.Entry<String, Pending> e : cases.entrySet()) {
+                Pending p = e.getValue();
+                submissions += p.submissions;
+                try {
+                    write(e.getKey(), p.entityType, p.payload, p.exposeRequest, p.requestedBy);
+                } catch (Exception ex) {
+                    log.error("CaseSnapshotBuffer: failed to persist snapshot for case {} after commit", e.getKey(), ex);
+                }
+            }
+            log.debug("CaseSnapshotBuffer: {} submissions written as {} snapshots", submissions, cases.size());
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != STATUS_COMMITTED && !cases.isEmpty()) {
+                log.debug("CaseSnapshotBuffer: transaction did not commit, discarding snapshots for {} cases", cases.size());
+            }
+            cases.clear();
+        }
+    }
+}
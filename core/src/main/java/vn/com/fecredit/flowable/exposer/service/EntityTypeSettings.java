@@ -0,0 +1,60 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Per-entityType tuning knobs read from the Spring {@link Environment}.
+ *
+ * <p>A setting {@code key} for entity type {@code Order} is looked up as
+ * {@code exposer.entity.Order.<key>}, then {@code exposer.entity.default.<key>},
+ * then the caller's default, e.g.
+ * <pre>
+ * exposer.entity.default.payload-codec=none
+ * exposer.entity.Order.payload-codec=deflate
+ * </pre>
+ */
+@Component
+public class EntityTypeSettings {
+
+    private final Environment env;
+
+    public EntityTypeSettings(Environment env) {
+        this.env = env;
+    }
+
+    public String get(String entityType, String key, String defaultValue) {
+        if (env == null) return defaultValue;
+        if (entityType != null && !entityType.isBlank()) {
+            String v = env.getProperty("exposer.entity." + entityType + "." + key);
+            if (v != null && !v.isBlank()) return v.trim();
+        }
+        String v = env.getProperty("exposer.entity.default." + key);
+        return v != null && !v.isBlank() ? v.trim() : defaultValue;
+    }
+
+    public int getInt(String entityType, String key, int defaultValue) {
+        String v = get(entityType, key, null);
+        if (v == null) return defaultValue;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String entityType, String key, long defaultValue) {
+        String v = get(entityType, key, null);
+        if (v == null) return defaultValue;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String entityType, String key, boolean defaultValue) {
+        String v = get(entityType, key, null);
+        return v == null ? defaultValue : Boolean.parseBoolean(v);
+    }
+}
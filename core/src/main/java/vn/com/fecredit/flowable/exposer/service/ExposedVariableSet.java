@@ -0,0 +1,194 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import vn.com.fecredit.flowable.exposer.job.CaseDataWorkerIndexRoutes;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Top-level process/case variables that the exposure of an entity type
+ * actually reads, so capture can fetch those with
+ * {@code getVariables(Collection)} instead of loading every variable.
+ *
+ * <p>Opt-in through {@code exposer.capture.referenced-only=true}.  The set is
+ * the first segment of every json path of the resolved
+ * {@link MetadataDefinition} (mappings and field declarations), and for the
+ * {@link IndexDefinition}s a reindex routes to the entity type
+ * ({@link CaseDataWorkerIndexRoutes}) the paths of its own definition and the
+ * root variable of every definition located by path, plus the identity variables the
+ * handlers resolve case ids from, the roots of the worker's direct fallback
+ * columns and {@code exposer.capture.always-include}.  A path that cannot be
+ * narrowed to one variable ({@code $}, {@code $..x}, {@code $.*}), or any
+ * definition applied by scanning the payload for its class, disables
+ * filtering for that entity type.  Results are cached per metadata
+ * generation and dropped whenever {@link MetadataResolver} evicts.
+ */
+@Component
+public class ExposedVariableSet {
+    private static final Logger log = LoggerFactory.getLogger(ExposedVariableSet.class);
+
+    /** Variables read by the capture handlers themselves. */
+    static final List<String> IDENTITY_VARIABLES = List.of("caseInstanceId", "caseId", "scopeId", "parentId", "initiator");
+
+    @Value("${exposer.capture.referenced-only:false}")
+    private boolean enabled;
+
+    @Value("${exposer.capture.always-include:}")
+    private List<String> alwaysInclude = List.of();
+
+    private final MetadataResolver resolver;
+    private final CaseDataWorkerIndexRoutes routes;
+
+    /** Variables the worker reads its direct fallback columns from ({@code total}, {@code meta}). */
+    static final Set<String> FALLBACK_VARIABLES = fallbackVariables();
+
+    /** Keyed by entity type and metadata generation; an empty optional caches "capture everything". */
+    private final Cache<String, Optional<Set<String>>> cache = Caffeine.newBuilder()
+            .maximumSize(256)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
+    @Autowired
+    public ExposedVariableSet(MetadataResolver resolver, IndexLoader indexLoader) {
+        this.resolver = resolver;
+        this.routes = new CaseDataWorkerIndexRoutes(indexLoader, resolver);
+        if (resolver != null) resolver.onEvict(this::evictAll);
+    }
+
+    /**
+     * Variable names to capture for {@code entityType}, or {@code null} when
+     * every variable must be captured (filtering disabled, no metadata, or a
+     * path that reads the whole payload).
+     */
+    public Set<String> namesFor(String entityType) {
+        if (!enabled || resolver == null || entityType == null) return null;
+        return cache.get(entityType + "@" + resolver.metadataGeneration(), k -> compute(entityType)).orElse(null);
+    }
+
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+
+    private Optional<Set<String>> compute(String entityType) {
+        try {
+            Set<String> names = new LinkedHashSet<>();
+            boolean found = false;
+
+            MetadataDefinition md = resolver.resolveForClass(entityType);
+            String classRoot = md == null ? null : md.jsonPath;
+            if (md != null && md.fields != null) {
+                for (MetadataDefinition.FieldDef f : md.fields) {
+                    if (f == null) continue;
+                    if (!add(names, f.jsonPath != null ? f.jsonPath : "$." + f.name, null)) return Optional.empty();
+                    found = true;
+                }
+            }
+            var mappings = resolver.mappingsMetadataFor(entityType);
+            if (mappings != null) {
+                for (MetadataDefinition.FieldMapping m : mappings.values()) {
+                    if (m == null || m.jsonPath == null) continue;
+                    if (!add(names, m.jsonPath, classRoot)) return Optional.empty();
+                    found = true;
+                }
+            }
+            for (CaseDataWorkerIndexRoutes.Target target : routes.routeFor(entityType).targets()) {
+                IndexDefinition idx = target.def();
+                switch (target.locate()) {
+                    case CLASS_SCAN -> {
+                        // objects of that class may sit under any variable
+                        return Optional.empty();
+                    }
+                    case PATH -> {
+                        String v = topLevel(idx.jsonPath);
+                        if (v == null) return Optional.empty();
+                        names.add(v);
+                        found = true;
+                    }
+                    case ROOT -> {
+                        List<IndexDefinition.IndexField> fields = idx.mappings == null ? List.of() : idx.mappings;
+                        for (IndexDefinition.IndexField f : fields) {
+                            if (f == null || f.jsonPath == null) continue;
+                            if (!add(names, f.jsonPath, idx.jsonPath)) return Optional.empty();
+                            found = true;
+                        }
+                    }
+                }
+            }
+            if (!found) return Optional.empty();
+
+            names.addAll(IDENTITY_VARIABLES);
+            names.addAll(FALLBACK_VARIABLES);
+            if (alwaysInclude != null) {
+                for (String v : alwaysInclude) if (v != null && !v.isBlank()) names.add(v.trim());
+            }
+            log.debug("ExposedVariableSet: {} captures {}", entityType, names);
+            return Optional.of(Set.copyOf(names));
+        } catch (Exception ex) {
+            log.debug("ExposedVariableSet: cannot compute variables for {}, capturing all: {}", entityType, ex.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static Set<String> fallbackVariables() {
+        Set<String> names = new LinkedHashSet<>();
+        for (String path : vn.com.fecredit.flowable.exposer.job.CaseDataWorkerHelpers.DIRECT_FALLBACK_PATHS.values()) {
+            String v = topLevel(path);
+            if (v != null) names.add(v);
+        }
+        return Set.copyOf(names);
+    }
+
+    /**
+     * Add the top-level variable {@code path} reads, relative to {@code root}
+     * when the root is not the payload itself.
+     *
+     * @return {@code false} when the path reads the whole payload
+     */
+    private static boolean add(Set<String> names, String path, String root) {
+        String rootVar = topLevel(root);
+        if (rootVar != null) {
+            names.add(rootVar);
+            return true;
+        }
+        if (root != null && !"$".equals(root.trim())) return false;
+        String v = topLevel(path);
+        if (v == null) return false;
+        names.add(v);
+        return true;
+    }
+
+    /** First property of a json path ({@code $.customer.id} -> {@code customer}), or {@code null} when it has none. */
+    static String topLevel(String path) {
+        if (path == null) return null;
+        String p = path.trim();
+        if (p.startsWith("$")) p = p.substring(1);
+        if (p.startsWith("..") || p.isEmpty()) return null;
+        String name;
+        if (p.startsWith("['") || p.startsWith("[\"")) {
+            int end = p.indexOf(p.charAt(1), 2);
+            if (end < 0) return null;
+            name = p.substring(2, end);
+        } else {
+            if (p.startsWith(".")) p = p.substring(1);
+            int end = p.length();
+            for (int i = 0; i < p.length(); i++) {
+                char c = p.charAt(i);
+                if (c == '.' || c == '[') { end = i; break; }
+            }
+            name = p.substring(0, end);
+        }
+        return name.isEmpty() || "*".equals(name) ? null : name;
+    }
+}
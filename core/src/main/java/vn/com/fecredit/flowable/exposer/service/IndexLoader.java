@@ -1,6 +1,8 @@
 package vn.com.fecredit.flowable.exposer.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +21,11 @@ public class IndexLoader {
     private final ObjectMapper mapper = new ObjectMapper();
     private final Map<String, IndexDefinition> indexByClass = new HashMap<>();
     private final Map<String, IndexDefinition> indexByTable = new HashMap<>();
+    /** Lower-cased class (or workClassReference when no class is given) and table names for case-insensitive lookups */
+    private final Map<String, IndexDefinition> classKey = new HashMap<>();
+    private final Map<String, IndexDefinition> tableKey = new HashMap<>();
+    /** Normalized names known to have no index definition */
+    private final Cache<String, Boolean> misses = Caffeine.newBuilder().maximumSize(4096).build();
 
     @PostConstruct
     public void init() {
@@ -41,6 +48,8 @@ public class IndexLoader {
                     String key = def._class != null ? def._class : def.workClassReference;
                     if (key != null) indexByClass.put(key, def);
                     if (def.table != null) indexByTable.put(def.table, def);
+                    if (key != null) classKey.put(normalize(key), def);
+                    if (def.table != null) tableKey.put(normalize(def.table), def);
                     log.info("Loaded index definition {} -> table={}", key, def.table);
                 } catch (Exception ex) {
                     log.warn("Failed to parse index resource {}: {}", r.getFilename(), ex.getMessage());
@@ -49,20 +58,33 @@ public class IndexLoader {
         } catch (Exception ex) {
             log.debug("IndexLoader.loadIndexFiles failed: {}", ex.getMessage());
         }
+        misses.invalidateAll();
+    }
+
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
     }
 
     public Optional<IndexDefinition> findByClass(String className) {
         if (className == null) return Optional.empty();
         IndexDefinition def = indexByClass.get(className);
         if (def != null) return Optional.of(def);
-        return indexByClass.entrySet().stream().filter(e -> e.getKey().equalsIgnoreCase(className)).map(Map.Entry::getValue).findFirst();
+        return lookup(classKey, "class:", className);
     }
 
     public Optional<IndexDefinition> findByTable(String table) {
         if (table == null) return Optional.empty();
         IndexDefinition def = indexByTable.get(table);
         if (def != null) return Optional.of(def);
-        return indexByTable.entrySet().stream().filter(e -> e.getKey().equalsIgnoreCase(table)).map(Map.Entry::getValue).findFirst();
+        return lookup(tableKey, "table:", table);
+    }
+
+    private Optional<IndexDefinition> lookup(Map<String, IndexDefinition> index, String kind, String name) {
+        String k = normalize(name);
+        if (misses.getIfPresent(kind + k) != null) return Optional.empty();
+        IndexDefinition def = index.get(k);
+        if (def == null) misses.put(kind + k, Boolean.TRUE);
+        return Optional.ofNullable(def);
     }
 
     public Collection<IndexDefinition> all() { return Collections.unmodifiableCollection(indexByClass.values()); }
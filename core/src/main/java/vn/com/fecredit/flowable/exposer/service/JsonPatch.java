@@ -0,0 +1,103 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Minimal RFC 6902 JSON Patch support for delta snapshots: {@link #diff}
+ * produces {@code add}/{@code remove}/{@code replace} operations, descending
+ * into objects and replacing arrays and scalars as a whole, and
+ * {@link #apply} replays such a patch.
+ */
+public final class JsonPatch {
+
+    private static final ObjectMapper OM = new ObjectMapper();
+
+    private JsonPatch() {
+    }
+
+    /** Operations turning {@code from} into {@code to}; empty when they are equal. */
+    public static ArrayNode diff(JsonNode from, JsonNode to) {
+        ArrayNode ops = OM.createArrayNode();
+        diff(from, to, "", ops);
+        return ops;
+    }
+
+    private static void diff(JsonNode from, JsonNode to, String path, ArrayNode ops) {
+        if (from != null && from.equals(to)) return;
+        if (from instanceof ObjectNode f && to instanceof ObjectNode t) {
+            for (Iterator<String> it = f.fieldNames(); it.hasNext(); ) {
+                String name = it.next();
+                if (!t.has(name)) ops.addObject().put("op", "remove").put("path", path + "/" + escape(name));
+            }
+            for (Iterator<String> it = t.fieldNames(); it.hasNext(); ) {
+                String name = it.next();
+                String child = path + "/" + escape(name);
+                if (!f.has(name)) {
+                    ops.addObject().put("op", "add").put("path", child).set("value", t.get(name));
+                } else {
+                    diff(f.get(name), t.get(name), child, ops);
+                }
+            }
+            return;
+        }
+        ops.addObject().put("op", "replace").put("path", path).set("value", to);
+    }
+
+    /** Apply {@code patch} to a copy of {@code base} and return the result. */
+    public static JsonNode apply(JsonNode base, JsonNode patch) {
+        JsonNode doc = base == null ? null : base.deepCopy();
+        for (JsonNode op : patch) {
+            String kind = op.path("op").asText();
+            List<String> tokens = parse(op.path("path").asText());
+            JsonNode value = op.get("value");
+            if (tokens.isEmpty()) {
+                if ("remove".equals(kind)) throw new IllegalArgumentException("Cannot remove the document root");
+                doc = value == null ? null : value.deepCopy();
+                continue;
+            }
+            JsonNode parent = doc;
+            for (int i = 0; i < tokens.size() - 1; i++) {
+                parent = parent == null ? null : (parent.isArray() ? parent.get(Integer.parseInt(tokens.get(i))) : parent.get(tokens.get(i)));
+            }
+            String last = tokens.get(tokens.size() - 1);
+            if (parent instanceof ObjectNode obj) {
+                switch (kind) {
+                    case "add", "replace" -> obj.set(last, value);
+                    case "remove" -> obj.remove(last);
+                    default -> throw new IllegalArgumentException("Unsupported patch op: " + kind);
+                }
+            } else if (parent instanceof ArrayNode arr) {
+                int idx = "-".equals(last) ? arr.size() : Integer.parseInt(last);
+                switch (kind) {
+                    case "add" -> arr.insert(idx, value);
+                    case "replace" -> arr.set(idx, value);
+                    case "remove" -> arr.remove(idx);
+                    default -> throw new IllegalArgumentException("Unsupported patch op: " + kind);
+                }
+            } else {
+                throw new IllegalArgumentException("Patch path does not exist: " + op.path("path").asText());
+            }
+        }
+        return doc;
+    }
+
+    private static String escape(String token) {
+        return token.replace("~", "~0").replace("/", "~1");
+    }
+
+    private static List<String> parse(String pointer) {
+        List<String> tokens = new ArrayList<>();
+        if (pointer == null || pointer.isEmpty()) return tokens;
+        for (String raw : pointer.substring(1).split("/", -1)) {
+            tokens.add(raw.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+}
@@ -3,143 +3,100 @@ package vn.com.fecredit.flowable.exposer.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
 
-import java.util.List;
 import java.util.Map;
 
 /**
  * Annotates JSON-like maps with minimal @class markers using resolved metadata.
  * Refactored to use MetadataLookup (typed) and to keep methods short and focused.
+ *
+ * <p>An annotated root also gets {@value #VERSION_MARKER} =
+ * {@code <rootClass>:<metadata fingerprint>}.  A payload whose marker matches
+ * the current metadata is not annotated again, and {@link #isCurrent(String, String)}
+ * lets later stages skip the parse/serialize round trip altogether.  Code
+ * that edits a stored payload must remove the marker, since the edited
+ * values were never annotated.
+ *
+ * <p>The field walk itself follows an {@link AnnotationPlan} compiled from the
+ * metadata of the root class and cached per metadata version, so annotating a
+ * payload does not resolve metadata again.
  */
 @Component
 public class MetadataAnnotator {
 
     private static final Logger log = LoggerFactory.getLogger(MetadataAnnotator.class);
 
+    /** Root key recording the metadata version a payload was annotated with. */
+    public static final String VERSION_MARKER = "@metadataVersion";
+
+    private static final com.fasterxml.jackson.core.JsonFactory JSON = new com.fasterxml.jackson.core.JsonFactory();
+
     private final MetadataLookup lookup;
 
+    /** Compiled annotation plans keyed by {@link #versionFor(String)}; a metadata change yields a new key. */
+    private final com.github.benmanes.caffeine.cache.Cache<String, AnnotationPlan> plans = com.github.benmanes.caffeine.cache.Caffeine.newBuilder()
+            .maximumSize(256)
+            .build();
+
     public MetadataAnnotator(MetadataLookup lookup) {
         this.lookup = lookup;
     }
 
     public void annotate(Map<String, Object> root, String rootClass) {
         if (root == null || rootClass == null) return;
+        String version = versionFor(rootClass);
+        if (version != null && version.equals(root.get(VERSION_MARKER))) return;
         try {
-            root.putIfAbsent("@class", rootClass);
-            MetadataDefinition md = lookup.resolve(rootClass);
-            if (md == null) return;
-            List<MetadataDefinition.FieldDef> fields = lookup.fieldsOf(md);
-            if (fields == null) return;
-
-            for (MetadataDefinition.FieldDef fd : fields) {
-                processFieldOnRoot(root, fd);
-            }
-
-            inferMissingNestedClasses(root);
+            annotateRoot(root, rootClass, version);
+            if (version != null) root.put(VERSION_MARKER, version);
         } catch (Exception ex) {
             log.debug("MetadataAnnotator failed", ex);
         }
     }
 
-    private void processFieldOnRoot(Map<String, Object> root, MetadataDefinition.FieldDef fd) {
-        if (fd == null) return;
-        String name = MetadataLookup.safeName(fd);
-        if (name == null) return;
-        Object val = root.get(name);
-        if (val == null) return;
-
-        String className = MetadataLookup.primaryClassFor(fd);
-        String elementClass = MetadataLookup.elementClassFor(fd);
-
-        if (className != null && val instanceof Map) {
-            annotateMap((Map<String, Object>) val, className);
-        } else if (elementClass != null && val instanceof List) {
-            annotateList((List<Object>) val, elementClass);
-        } else if (elementClass != null && val instanceof Map) {
-            annotateValueMap((Map<String, Object>) val, elementClass);
-        } else if (val instanceof Map) {
-            annotateByClass((Map<String, Object>) val, name);
-        }
+    /** Marker value for payloads annotated as {@code rootClass} with the current metadata, or {@code null}. */
+    public String versionFor(String rootClass) {
+        if (lookup == null || rootClass == null) return null;
+        String fingerprint = lookup.fingerprint(rootClass);
+        return fingerprint == null ? null : rootClass + ":" + fingerprint;
     }
 
-    private void annotateMap(Map<String, Object> m, String className) {
-        if (m.putIfAbsent("@class", className) == null) {
-            log.info("MetadataAnnotator: annotated map as @class='{}'", className);
-        }
-        annotateByClass(m, className);
+    /** Whether the map is already annotated as {@code rootClass} with the current metadata. */
+    public boolean isCurrent(Map<String, Object> root, String rootClass) {
+        String version = root == null ? null : versionFor(rootClass);
+        return version != null && version.equals(root.get(VERSION_MARKER));
     }
 
-    private void annotateList(List<Object> list, String elementClass) {
-        for (Object it : list) {
-            if (it instanceof Map) {
-                @SuppressWarnings("unchecked") Map<String, Object> im = (Map<String, Object>) it;
-                im.putIfAbsent("@class", elementClass);
-                annotateByClass(im, elementClass);
-            }
-        }
+    /** Whether the JSON payload is already annotated as {@code rootClass} with the current metadata, without parsing it into a tree. */
+    public boolean isCurrent(String json, String rootClass) {
+        String version = json == null ? null : versionFor(rootClass);
+        return version != null && version.equals(markerOf(json));
     }
 
-    private void annotateValueMap(Map<String, Object> map, String elementClass) {
-        for (Map.Entry<String, Object> e : map.entrySet()) {
-            Object it = e.getValue();
-            if (it instanceof Map) {
-                @SuppressWarnings("unchecked") Map<String, Object> im = (Map<String, Object>) it;
-                im.putIfAbsent("@class", elementClass);
-                annotateByClass(im, elementClass);
+    /** The {@value #VERSION_MARKER} of a JSON object, reading only its top-level tokens. */
+    static String markerOf(String json) {
+        try (com.fasterxml.jackson.core.JsonParser p = JSON.createParser(json)) {
+            if (p.nextToken() != com.fasterxml.jackson.core.JsonToken.START_OBJECT) return null;
+            while (p.nextToken() == com.fasterxml.jackson.core.JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                com.fasterxml.jackson.core.JsonToken value = p.nextToken();
+                if (VERSION_MARKER.equals(name)) return value == com.fasterxml.jackson.core.JsonToken.VALUE_STRING ? p.getText() : null;
+                p.skipChildren();
             }
+        } catch (Exception ex) {
+            log.debug("markerOf: unreadable payload: {}", ex.getMessage());
         }
+        return null;
     }
 
-    private void inferMissingNestedClasses(Map<String, Object> root) {
-        for (Map.Entry<String, Object> e : root.entrySet()) {
-            Object v = e.getValue();
-            if (!(v instanceof Map)) continue;
-            @SuppressWarnings("unchecked") Map<String, Object> child = (Map<String, Object>) v;
-            if (child.containsKey("@class")) continue;
-            String k = e.getKey();
-            if (k == null || k.isBlank()) continue;
-            String cand = Character.toUpperCase(k.charAt(0)) + k.substring(1);
-            MetadataDefinition md2 = lookup.resolve(cand);
-            if (md2 != null) {
-                if (child.putIfAbsent("@class", cand) == null) {
-                    log.info("MetadataAnnotator: inferred @class='{}' for nested field '{}'", cand, k);
-                }
-                annotateByClass(child, cand);
-            }
-        }
+    /** The annotation plan for {@code rootClass}, compiled once per metadata version. */
+    AnnotationPlan planFor(String rootClass, String version) {
+        if (version == null) return AnnotationPlan.compile(lookup, rootClass);
+        return plans.get(version, v -> AnnotationPlan.compile(lookup, rootClass));
     }
 
-    private void annotateByClass(Map<String, Object> node, String className) {
-        if (node == null || className == null) return;
-        String inferred = className;
-        if (!inferred.isBlank() && !Character.isUpperCase(inferred.charAt(0))) {
-            inferred = Character.toUpperCase(inferred.charAt(0)) + inferred.substring(1);
-        }
-        node.putIfAbsent("@class", inferred);
-
-        MetadataDefinition md = lookup.resolve(className);
-        if (md == null) return;
-        List<MetadataDefinition.FieldDef> fields = lookup.fieldsOf(md);
-        if (fields == null) return;
-
-        for (MetadataDefinition.FieldDef fd : fields) {
-            if (fd == null) continue;
-            String name = MetadataLookup.safeName(fd);
-            if (name == null) continue;
-            Object val = node.get(name);
-            if (val == null) continue;
-            String childClass = MetadataLookup.primaryClassFor(fd);
-            String elementClass = MetadataLookup.elementClassFor(fd);
-            if (childClass != null && val instanceof Map) {
-                annotateMap((Map<String, Object>) val, childClass);
-            } else if (elementClass != null && val instanceof List) {
-                annotateList((List<Object>) val, elementClass);
-            } else if (elementClass != null && val instanceof Map) {
-                annotateValueMap((Map<String, Object>) val, elementClass);
-            } else if (val instanceof Map) {
-                annotateByClass((Map<String, Object>) val, name);
-            }
-        }
+    private void annotateRoot(Map<String, Object> root, String rootClass, String version) {
+        root.putIfAbsent("@class", rootClass);
+        planFor(rootClass, version).apply(root);
     }
 }
@@ -23,6 +23,12 @@ public class MetadataLookup {
         return resolver.resolveForClass(className);
     }
 
+    /** See {@link MetadataResolver#metadataFingerprint(String)}. */
+    public String fingerprint(String className) {
+        if (className == null || className.isBlank()) return null;
+        return resolver.metadataFingerprint(className);
+    }
+
     public List<MetadataDefinition.FieldDef> fieldsOf(MetadataDefinition md) {
         if (md == null) return null;
         return md.fields;
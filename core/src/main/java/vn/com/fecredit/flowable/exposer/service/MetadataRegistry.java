@@ -0,0 +1,205 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import vn.com.fecredit.flowable.exposer.entity.SysExposeClassDef;
+import vn.com.fecredit.flowable.exposer.repository.SysExposeClassDefRepository;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable, fully resolved view of all metadata, published by atomic swap.
+ *
+ * <p>A {@link Snapshot} gathers the file-backed definitions, the latest
+ * enabled DB overrides, the flattened mappings {@link MetadataResolveEngine}
+ * produces for every known class and entity type (inheritance chain, mixins
+ * and nested JSON paths applied) and the index definitions, each keyed by the
+ * lower-cased name.  Snapshots are built by {@link #refresh()} — at startup
+ * and whenever {@link MetadataResolver#evict} reports a metadata change — and
+ * replace the previous one in a single reference write, so readers never lock
+ * and never query the database.  A name missing from the snapshot has no
+ * definition.
+ */
+@Component
+public class MetadataRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetadataRegistry.class);
+
+    private final SysExposeClassDefRepository repo;
+    private final MetadataResourceLoader resourceLoader;
+    private final IndexLoader indexLoader;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicReference<Snapshot> current = new AtomicReference<>();
+
+    public MetadataRegistry(SysExposeClassDefRepository repo, MetadataResourceLoader resourceLoader, IndexLoader indexLoader) {
+        this.repo = repo;
+        this.resourceLoader = resourceLoader;
+        this.indexLoader = indexLoader;
+    }
+
+    /** One published generation of resolved metadata; all maps are unmodifiable. */
+    public static final class Snapshot {
+        private final long generation;
+        private final Map<String, MetadataDefinition> definitions;
+        private final Map<String, MetadataDefinition> overrides;
+        private final Map<String, Map<String, MetadataDefinition.FieldMapping>> flattened;
+        private final Map<String, List<String>> diagnostics;
+        private final Map<String, IndexDefinition> indexByClass;
+        private final Map<String, IndexDefinition> indexByTable;
+
+        Snapshot(long generation,
+                 Map<String, MetadataDefinition> definitions,
+                 Map<String, MetadataDefinition> overrides,
+                 Map<String, Map<String, MetadataDefinition.FieldMapping>> flattened,
+                 Map<String, List<String>> diagnostics,
+                 Map<String, IndexDefinition> indexByClass,
+                 Map<String, IndexDefinition> indexByTable) {
+            this.generation = generation;
+            this.definitions = Map.copyOf(definitions);
+            this.overrides = Map.copyOf(overrides);
+            this.flattened = Map.copyOf(flattened);
+            this.diagnostics = Map.copyOf(diagnostics);
+            this.indexByClass = Map.copyOf(indexByClass);
+            this.indexByTable = Map.copyOf(indexByTable);
+        }
+
+        public long generation() { return generation; }
+
+        /** Definition {@link MetadataResolver#resolveForClass} returns: DB override, class file, then entity-type file. */
+        public MetadataDefinition definition(String classOrEntityType) { return definitions.get(key(classOrEntityType)); }
+
+        /** Latest enabled DB override registered for the entity type. */
+        public MetadataDefinition override(String entityType) { return overrides.get(key(entityType)); }
+
+        /** Flattened mappings keyed by column, or {@code null} when the name was not resolved. */
+        public Map<String, MetadataDefinition.FieldMapping> flattened(String classOrEntityType) { return flattened.get(key(classOrEntityType)); }
+
+        public List<String> diagnostics(String className) { return diagnostics.getOrDefault(key(className), List.of()); }
+
+        public Optional<IndexDefinition> indexByClass(String className) { return Optional.ofNullable(indexByClass.get(key(className))); }
+
+        public Optional<IndexDefinition> indexByTable(String table) { return Optional.ofNullable(indexByTable.get(key(table))); }
+
+        public Collection<IndexDefinition> indices() { return indexByClass.values(); }
+    }
+
+    /** The current snapshot, building the first one if startup has not yet done so. */
+    public Snapshot snapshot() {
+        Snapshot s = current.get();
+        if (s != null) return s;
+        synchronized (this) {
+            s = current.get();
+            return s != null ? s : refresh();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        refresh();
+    }
+
+    /** Build a new snapshot from the sources and publish it; readers keep the old one until the swap. */
+    public synchronized Snapshot refresh() {
+        Snapshot previous = current.get();
+        Snapshot next = build(previous == null ? 1 : previous.generation() + 1);
+        current.set(next);
+        log.info("MetadataRegistry: published generation {} with {} definitions and {} indices",
+                next.generation(), next.definitions.size(), next.indexByClass.size());
+        return next;
+    }
+
+    private Snapshot build(long generation) {
+        Map<String, MetadataDefinition> overrides = loadOverrides();
+
+        Map<String, MetadataDefinition> byClass = new HashMap<>();
+        Map<String, MetadataDefinition> byEntityType = new HashMap<>();
+        for (MetadataDefinition md : resourceLoader.all()) {
+            if (md == null) continue;
+            if (md._class != null) byClass.putIfAbsent(key(md._class), md);
+            if (md.entityType != null) byEntityType.putIfAbsent(key(md.entityType), md);
+        }
+
+        Set<String> names = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        for (MetadataDefinition md : resourceLoader.all()) {
+            if (md == null) continue;
+            if (md._class != null) names.add(md._class);
+            if (md.entityType != null) names.add(md.entityType);
+        }
+        for (MetadataDefinition md : overrides.values()) {
+            if (md._class != null) names.add(md._class);
+            if (md.entityType != null) names.add(md.entityType);
+        }
+        names.addAll(overrides.keySet());
+
+        Map<String, MetadataDefinition> definitions = new HashMap<>();
+        Map<String, Map<String, MetadataDefinition.FieldMapping>> flattened = new HashMap<>();
+        Map<String, List<String>> diagnostics = new HashMap<>();
+        MetadataResolveEngine engine = new MetadataResolveEngine(repo, resourceLoader, mapper);
+        for (String name : names) {
+            String k = key(name);
+            MetadataDefinition md = overrides.get(k);
+            if (md == null) md = byClass.get(k);
+            if (md == null) md = byEntityType.get(k);
+            if (md != null) definitions.put(k, md);
+
+            MetadataResolveEngine.Result r = engine.resolveAndFlatten(name);
+            flattened.put(k, Collections.unmodifiableMap(new LinkedHashMap<>(r.merged)));
+            r.diagnostics.forEach((cls, msgs) -> diagnostics.merge(key(cls), List.copyOf(msgs), (a, b) -> {
+                List<String> all = new ArrayList<>(a);
+                all.addAll(b);
+                return List.copyOf(all);
+            }));
+        }
+
+        Map<String, IndexDefinition> indexByClass = new HashMap<>();
+        Map<String, IndexDefinition> indexByTable = new HashMap<>();
+        if (indexLoader != null) {
+            for (IndexDefinition def : indexLoader.all()) {
+                String cls = def._class != null ? def._class : def.workClassReference;
+                if (cls != null) indexByClass.putIfAbsent(key(cls), def);
+                if (def.table != null) indexByTable.putIfAbsent(key(def.table), def);
+            }
+        }
+        return new Snapshot(generation, definitions, overrides, flattened, diagnostics, indexByClass, indexByTable);
+    }
+
+    /** Latest enabled override per entity type, read in one query. */
+    private Map<String, MetadataDefinition> loadOverrides() {
+        Map<String, SysExposeClassDef> latest = new HashMap<>();
+        try {
+            List<SysExposeClassDef> rows = repo == null ? null : repo.findAll();
+            if (rows == null) return Map.of();
+            for (SysExposeClassDef row : rows) {
+                if (!Boolean.TRUE.equals(row.getEnabled()) || row.getEntityType() == null) continue;
+                latest.merge(key(row.getEntityType()), row, (a, b) -> version(b) > version(a) ? b : a);
+            }
+        } catch (Exception ex) {
+            log.warn("MetadataRegistry: failed to load DB overrides: {}", ex.getMessage());
+        }
+        Map<String, MetadataDefinition> out = new HashMap<>();
+        latest.forEach((k, row) -> {
+            try {
+                MetadataDefinition md = mapper.readValue(row.getJsonDefinition(), MetadataDefinition.class);
+                if (md != null) out.put(k, md);
+            } catch (Exception ex) {
+                log.warn("MetadataRegistry: failed to parse DB jsonDefinition for {}: {}", row.getEntityType(), ex.getMessage());
+            }
+        });
+        return out;
+    }
+
+    private static int version(SysExposeClassDef row) {
+        return row.getVersion() == null ? 0 : row.getVersion();
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -17,6 +17,8 @@ import java.util.stream.Collectors;
 
 /**
  * Thin façade that caches resolved metadata and delegates heavy work to MetadataResolveEngine.
+ * When a {@link MetadataRegistry} is wired, definitions, flattened mappings, DB overrides and
+ * indices are read from its published snapshot; {@link #evict} rebuilds and swaps that snapshot.
  */
 @Component
 public class MetadataResolver {
@@ -32,11 +34,24 @@ public class MetadataResolver {
     /** Caffeine cache for resolved metadata: classOrEntityType -> (columnName -> FieldMapping) */
     private final Cache<String, Map<String, MetadataDefinition.FieldMapping>> resolvedCache;
 
+    /** Caffeine cache for annotation fingerprints: root class -> hash of every definition the annotator reads */
+    private final Cache<String, String> fingerprintCache = Caffeine.newBuilder()
+            .maximumSize(1024)
+            .expireAfterWrite(Duration.ofMinutes(10))
+            .build();
+
     /** Loader for file-backed canonical metadata definitions */
     private final MetadataResourceLoader resourceLoader;
     @Autowired
     private vn.com.fecredit.flowable.exposer.service.IndexLoader indexLoader;
 
+    /** Published metadata snapshot; when present lookups are served from it instead of the repository */
+    @Autowired(required = false)
+    private MetadataRegistry registry;
+
+    /** Caches derived from resolved metadata, dropped by {@link #evict} and {@link #evictAll}. */
+    private final List<Runnable> evictionListeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+
     @Autowired
     // Backwards-compatible constructors: keep two-arg constructor used by tests and add three-arg for DI
     public MetadataResolver(SysExposeClassDefRepository repo, MetadataResourceLoader resourceLoader) {
@@ -165,7 +180,8 @@ public class MetadataResolver {
         }
 
         // 2) Fallback: use resolved flattened metadata and prefer exportable/plain mappings
-        Map<String, MetadataDefinition.FieldMapping> resolved = resolvedCache.get(cacheKey, k -> resolveAndFlatten(original));
+        Map<String, MetadataDefinition.FieldMapping> resolved = registry == null ? null : registry.snapshot().flattened(original);
+        if (resolved == null) resolved = resolvedCache.get(cacheKey, k -> resolveAndFlatten(original));
         System.out.println("DEBUG[MetadataResolver]: resolvedCache returned size=" + (resolved==null?0:resolved.size()));
         try {
             if (resolved != null && !resolved.isEmpty()) {
@@ -191,33 +207,23 @@ public class MetadataResolver {
 
         // 3) Try DB override parsing for explicit expose mappings
         try {
-            Optional<SysExposeClassDef> dbDef = repo.findLatestEnabledByEntityType(classOrEntityType);
-            System.out.println("DEBUG[MetadataResolver]: db override present=" + (dbDef.isPresent()));
-            if (dbDef.isPresent()) {
-                String jd = dbDef.get().getJsonDefinition();
-                try {
-                    MetadataDefinition md = mapper.readValue(jd, MetadataDefinition.class);
-                    System.out.println("DEBUG[MetadataResolver]: parsed db md._class=" + (md==null?null:md._class) + " mappingsCount=" + (md==null||md.mappings==null?0:md.mappings.size()));
-                    if (md != null && md.mappings != null && !md.mappings.isEmpty()) {
-                        Map<String, MetadataDefinition.FieldMapping> map = new LinkedHashMap<>();
-                        for (MetadataDefinition.FieldMapping fm : md.mappings) {
-                            System.out.println("DEBUG[MetadataResolver]: db fm jsonPath=" + fm.jsonPath + " plainColumn=" + fm.plainColumn + " column=" + fm.column + " exportToPlain=" + fm.exportToPlain);
-                            boolean exportable = Boolean.TRUE.equals(fm.exportToPlain) || (fm.plainColumn != null && !fm.plainColumn.isBlank()) || (fm.exportDest != null && fm.exportDest.contains("plain")) || (fm.column != null && !fm.column.isBlank());
-                            if (!exportable) continue;
-                            String key = (fm.plainColumn != null && !fm.plainColumn.isBlank()) ? fm.plainColumn : (fm.column != null && !fm.column.isBlank() ? fm.column : fm.jsonPath);
-                            MetadataDefinition.FieldMapping copy = MetadataResolveHelpers.cloneMappingWithProvenance(fm, md, "db");
-                            if ((copy.column == null || copy.column.isBlank()) && key != null && !key.equals(copy.jsonPath)) copy.column = key;
-                            if (copy.plainColumn != null && !copy.plainColumn.isBlank()) copy.exportToPlain = true;
-                            map.put(key, copy);
-                        }
-                        if (!map.isEmpty()) {
-                            System.out.println("DEBUG[MetadataResolver]: returning db-backed keys=" + map.keySet());
-                            log.debug("mappingsMetadataFor - db fallback resolved keys for {}: {}", classOrEntityType, map.keySet());
-                            return map;
-                        }
-                    }
-                } catch (Exception ex) {
-                    log.debug("mappingsMetadataFor - failed to parse DB jsonDefinition for {}: {}", classOrEntityType, ex.getMessage());
+            MetadataDefinition md = overrideFor(classOrEntityType);
+            if (md != null && md.mappings != null && !md.mappings.isEmpty()) {
+                Map<String, MetadataDefinition.FieldMapping> map = new LinkedHashMap<>();
+                for (MetadataDefinition.FieldMapping fm : md.mappings) {
+                    System.out.println("DEBUG[MetadataResolver]: db fm jsonPath=" + fm.jsonPath + " plainColumn=" + fm.plainColumn + " column=" + fm.column + " exportToPlain=" + fm.exportToPlain);
+                    boolean exportable = Boolean.TRUE.equals(fm.exportToPlain) || (fm.plainColumn != null && !fm.plainColumn.isBlank()) || (fm.exportDest != null && fm.exportDest.contains("plain")) || (fm.column != null && !fm.column.isBlank());
+                    if (!exportable) continue;
+                    String key = (fm.plainColumn != null && !fm.plainColumn.isBlank()) ? fm.plainColumn : (fm.column != null && !fm.column.isBlank() ? fm.column : fm.jsonPath);
+                    MetadataDefinition.FieldMapping copy = MetadataResolveHelpers.cloneMappingWithProvenance(fm, md, "db");
+                    if ((copy.column == null || copy.column.isBlank()) && key != null && !key.equals(copy.jsonPath)) copy.column = key;
+                    if (copy.plainColumn != null && !copy.plainColumn.isBlank()) copy.exportToPlain = true;
+                    map.put(key, copy);
+                }
+                if (!map.isEmpty()) {
+                    System.out.println("DEBUG[MetadataResolver]: returning db-backed keys=" + map.keySet());
+                    log.debug("mappingsMetadataFor - db fallback resolved keys for {}: {}", classOrEntityType, map.keySet());
+                    return map;
                 }
             }
         } catch (Exception ex) {
@@ -227,6 +233,22 @@ public class MetadataResolver {
         return Collections.emptyMap();
     }
 
+    /** Latest enabled DB override for the entity type, from the registry snapshot when one is wired. */
+    private MetadataDefinition overrideFor(String entityType) {
+        if (registry != null) return registry.snapshot().override(entityType);
+        Optional<SysExposeClassDef> dbDef = repo.findLatestEnabledByEntityType(entityType);
+        System.out.println("DEBUG[MetadataResolver]: db override present=" + (dbDef.isPresent()));
+        if (dbDef.isEmpty()) return null;
+        try {
+            MetadataDefinition md = mapper.readValue(dbDef.get().getJsonDefinition(), MetadataDefinition.class);
+            System.out.println("DEBUG[MetadataResolver]: parsed db md._class=" + (md==null?null:md._class) + " mappingsCount=" + (md==null||md.mappings==null?0:md.mappings.size()));
+            return md;
+        } catch (Exception ex) {
+            log.debug("mappingsMetadataFor - failed to parse DB jsonDefinition for {}: {}", entityType, ex.getMessage());
+            return null;
+        }
+    }
+
     private Map<String, MetadataDefinition.FieldMapping> resolveAndFlatten(String classOrEntityType) {
         try {
             MetadataResolveEngine engine = new MetadataResolveEngine(repo, resourceLoader, mapper);
@@ -246,19 +268,76 @@ public class MetadataResolver {
     }
 
     public List<String> diagnosticsFor(String classOrEntityType) {
+        if (registry != null) {
+            List<String> published = registry.snapshot().diagnostics(classOrEntityType);
+            if (!published.isEmpty()) return published;
+        }
         return diagnostics.getOrDefault(classOrEntityType, List.of());
     }
 
-    public void evict(String classOrEntityType) { resolvedCache.invalidate(classOrEntityType); }
+    public void evict(String classOrEntityType) {
+        if (registry != null) registry.refresh();
+        resolvedCache.invalidate(classOrEntityType);
+        fingerprintCache.invalidateAll();
+        evictionListeners.forEach(Runnable::run);
+    }
 
-    public void evictAll() { resolvedCache.invalidateAll(); }
+    public void evictAll() {
+        if (registry != null) registry.refresh();
+        resolvedCache.invalidateAll();
+        fingerprintCache.invalidateAll();
+        evictionListeners.forEach(Runnable::run);
+    }
+
+    /** Run {@code listener} on every eviction, so caches built from resolved metadata follow it. */
+    public void onEvict(Runnable listener) {
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * Short hash of the metadata {@link MetadataAnnotator} applies for
+     * {@code rootClass}: its definition and every class reachable through
+     * field declarations.  Payloads carry it as the annotation version marker,
+     * so it changes whenever one of those definitions does.
+     */
+    public String metadataFingerprint(String rootClass) {
+        if (rootClass == null || rootClass.isBlank()) return null;
+        return fingerprintCache.get(rootClass, this::computeFingerprint);
+    }
+
+    private String computeFingerprint(String rootClass) {
+        try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-256");
+            Deque<String> todo = new ArrayDeque<>(List.of(rootClass));
+            Set<String> seen = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            while (!todo.isEmpty()) {
+                String cls = todo.pop();
+                if (!seen.add(cls)) continue;
+                MetadataDefinition md = resolveForClass(cls);
+                digest.update((cls + "=" + (md == null ? "null" : mapper.writeValueAsString(md)) + "\n").getBytes(java.nio.charset.StandardCharsets.UTF_8));
+                if (md == null || md.fields == null) continue;
+                for (MetadataDefinition.FieldDef fd : md.fields) {
+                    String child = MetadataLookup.primaryClassFor(fd);
+                    if (child != null) todo.push(child);
+                    String element = MetadataLookup.elementClassFor(fd);
+                    if (element != null) todo.push(element);
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (Exception ex) {
+            log.debug("metadataFingerprint failed for {}: {}", rootClass, ex.getMessage());
+            return null;
+        }
+    }
 
     /**
      * Returns an index definition (if any) loaded from metadata/indices for the given class/entity.
      */
     public java.util.Optional<vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition> indexFor(String classOrEntityType) {
         try {
-            if (indexLoader == null || classOrEntityType == null) return java.util.Optional.empty();
+            if (classOrEntityType == null) return java.util.Optional.empty();
+            if (registry != null) return registry.snapshot().indexByClass(classOrEntityType);
+            if (indexLoader == null) return java.util.Optional.empty();
             return indexLoader.findByClass(classOrEntityType);
         } catch (Exception ex) {
             log.debug("indexFor lookup failed for {}: {}", classOrEntityType, ex.getMessage());
@@ -266,13 +345,20 @@ public class MetadataResolver {
         }
     }
 
+    /** Generation of the published metadata snapshot; {@code 0} when no registry is wired and metadata never changes. */
+    public long metadataGeneration() {
+        return registry == null ? 0 : registry.snapshot().generation();
+    }
+
     public java.util.Collection<vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition> allIndices() {
+        if (registry != null) return registry.snapshot().indices();
         if (indexLoader == null) return java.util.List.of();
         return indexLoader.all();
     }
 
     public MetadataDefinition resolveForClass(String classOrEntityType) {
         try {
+            if (registry != null) return registry.snapshot().definition(classOrEntityType);
             Optional<SysExposeClassDef> dbDef = repo.findLatestEnabledByEntityType(classOrEntityType);
             MetadataDefinition md = null;
             if (dbDef.isPresent()) {
@@ -2,6 +2,8 @@ package vn.com.fecredit.flowable.exposer.service;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import jakarta.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +27,11 @@ public class MetadataResourceLoader {
     private final ObjectMapper mapper = new ObjectMapper()
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     private final Map<String, MetadataDefinition> fileDefs = new HashMap<>();
+    /** Secondary indexes built at load time: lower-cased class name or alias -> definition, lower-cased entityType -> definition */
+    private final Map<String, MetadataDefinition> byClassKey = new HashMap<>();
+    private final Map<String, MetadataDefinition> byEntityTypeKey = new HashMap<>();
+    /** Normalized names known to have no definition, so repeated misses skip every index */
+    private final Cache<String, Boolean> misses = Caffeine.newBuilder().maximumSize(4096).build();
 
     @PostConstruct
     public void init() {
@@ -88,6 +95,9 @@ public class MetadataResourceLoader {
             // Parse JSON tree so we can infer common aliases (workClassReference/workClass) for the canonical 'class' value
             var root = mapper.readTree(txt);
             String inferredClass = null;
+            List<String> aliases = new ArrayList<>();
+            if (root.hasNonNull("workClassReference")) aliases.add(root.get("workClassReference").asText());
+            if (root.hasNonNull("workClass")) aliases.add(root.get("workClass").asText());
             if (root.has("class")) {
                 inferredClass = root.get("class").asText();
             } else if (root.has("workClassReference")) {
@@ -138,8 +148,10 @@ public class MetadataResourceLoader {
                 }
                 // leave other provenance as-is; update map
                 fileDefs.put(existing._class, existing);
+                registerKeys(existing, aliases);
             } else {
                 fileDefs.put(def._class, def);
+                registerKeys(def, aliases);
             }
             System.out.println("Successfully loaded metadata file: " + r.getFilename() + " -> class=" + def._class);
             log.debug("Loaded metadata file: {} -> class={} entityType={}", r.getFilename(), def._class, def.entityType);
@@ -149,22 +161,44 @@ public class MetadataResourceLoader {
         }
     }
 
+    private void registerKeys(MetadataDefinition def, List<String> aliases) {
+        byClassKey.putIfAbsent(key(def._class), def);
+        for (String alias : aliases) {
+            if (alias != null && !alias.isBlank()) byClassKey.putIfAbsent(key(alias), def);
+        }
+        if (def.entityType != null && !def.entityType.isBlank()) byEntityTypeKey.putIfAbsent(key(def.entityType), def);
+        misses.invalidateAll();
+    }
+
+    private static String key(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
     public Optional<MetadataDefinition> getByClass(String className) {
         if (className == null) return Optional.empty();
         MetadataDefinition md = fileDefs.get(className);
         if (md != null) return Optional.of(md);
-        // case-insensitive lookup
-        return fileDefs.entrySet().stream()
-                .filter(e -> e.getKey().equalsIgnoreCase(className))
-                .map(Map.Entry::getValue)
-                .findFirst();
+        // case-insensitive lookup through the normalized index
+        String k = key(className);
+        if (misses.getIfPresent("class:" + k) != null) return Optional.empty();
+        md = byClassKey.get(k);
+        if (md == null) misses.put("class:" + k, Boolean.TRUE);
+        return Optional.ofNullable(md);
     }
 
+    /** First candidate, in order, that names a class (or alias) or an entityType, ignoring case. */
     public Optional<MetadataDefinition> findByEntityTypeOrClassCandidates(List<String> candidates) {
         if (candidates == null) return Optional.empty();
-        return fileDefs.values().stream()
-                .filter(d -> candidates.stream().anyMatch(c -> (d.entityType != null && c.equalsIgnoreCase(d.entityType)) || (d._class != null && c.equalsIgnoreCase(d._class))))
-                .findFirst();
+        for (String c : candidates) {
+            if (c == null) continue;
+            String k = key(c);
+            if (misses.getIfPresent("any:" + k) != null) continue;
+            MetadataDefinition md = byClassKey.get(k);
+            if (md == null) md = byEntityTypeKey.get(k);
+            if (md != null) return Optional.of(md);
+            misses.put("any:" + k, Boolean.TRUE);
+        }
+        return Optional.empty();
     }
 
     public Collection<MetadataDefinition> all() { return Collections.unmodifiableCollection(fileDefs.values()); }
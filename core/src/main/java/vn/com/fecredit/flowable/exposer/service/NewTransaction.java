@@ -0,0 +1,27 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Runs a unit of work in its own {@code REQUIRES_NEW} transaction, so batch
+ * writers (reindex chunks, retention deletes, write-behind flushes, overflow
+ * handling) commit independently of whatever transaction the caller is in.
+ * Without a transaction manager the work runs as-is, in auto-commit.
+ */
+public final class NewTransaction {
+
+    private NewTransaction() {
+    }
+
+    public static void run(PlatformTransactionManager txManager, Runnable work) {
+        if (txManager == null) {
+            work.run();
+            return;
+        }
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        tx.executeWithoutResult(status -> work.run());
+    }
+}
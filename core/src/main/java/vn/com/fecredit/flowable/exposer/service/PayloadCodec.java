@@ -0,0 +1,17 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+/**
+ * Transforms snapshot payload bytes on their way into and out of
+ * {@code sys_case_data_store.payload_bytes}.  The codec's {@link #name()} is
+ * stored in {@code payload_codec} next to every encoded row so readers can
+ * pick the matching decoder; see {@link PayloadCodecs}.
+ */
+public interface PayloadCodec {
+
+    /** Marker written to {@code payload_codec}. */
+    String name();
+
+    byte[] encode(byte[] raw);
+
+    byte[] decode(byte[] stored);
+}
@@ -0,0 +1,114 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Built-in {@link PayloadCodec}s and the encode/decode entry points used by
+ * the snapshot writer and readers.
+ *
+ * <p>Rows written with the {@code none} codec keep the JSON text in
+ * {@code payload} and leave {@code payload_bytes}/{@code payload_codec} NULL,
+ * exactly like rows written before codecs existed, so old and new rows can
+ * be mixed freely in one table.
+ */
+public final class PayloadCodecs {
+
+    public static final PayloadCodec IDENTITY = new PayloadCodec() {
+        @Override public String name() { return "none"; }
+        @Override public byte[] encode(byte[] raw) { return raw; }
+        @Override public byte[] decode(byte[] stored) { return stored; }
+    };
+
+    public static final PayloadCodec DEFLATE = new PayloadCodec() {
+        @Override public String name() { return "deflate"; }
+
+        @Override
+        public byte[] encode(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+                byte[] buf = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        public byte[] decode(byte[] stored) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(stored.length * 4);
+                byte[] buf = new byte[8192];
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IllegalStateException("Truncated deflate payload");
+                    }
+                    out.write(buf, 0, n);
+                }
+                return out.toByteArray();
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException("Corrupt deflate payload", ex);
+            } finally {
+                inflater.end();
+            }
+        }
+    };
+
+    private PayloadCodecs() {
+    }
+
+    /** Codec for a {@code payload_codec} marker; {@code null}/blank/{@code none} mean identity. */
+    public static PayloadCodec forName(String name) {
+        if (name == null || name.isBlank()) return IDENTITY;
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case "none", "identity" -> IDENTITY;
+            case "deflate" -> DEFLATE;
+            default -> throw new IllegalArgumentException("Unknown payload codec: " + name);
+        };
+    }
+
+    /** Column values for one snapshot: either {@code text} or {@code bytes}+{@code codec} is set. */
+    public record Encoded(String text, byte[] bytes, String codec) {
+    }
+
+    public static Encoded encode(String json, PayloadCodec codec) {
+        return encode(json, codec, false);
+    }
+
+    /**
+     * Encode a JSON payload, optionally converting it to Smile first (see
+     * {@link PayloadFormats}).  Smile payloads always go to {@code payload_bytes},
+     * with marker {@code none} when no compression codec applies.
+     */
+    public static Encoded encode(String json, PayloadCodec codec, boolean smile) {
+        PayloadCodec c = codec == null ? IDENTITY : codec;
+        if (json == null || (!smile && c == IDENTITY)) return new Encoded(json, null, null);
+        byte[] raw = smile ? PayloadFormats.jsonToSmile(json) : json.getBytes(StandardCharsets.UTF_8);
+        return new Encoded(null, c.encode(raw), c.name());
+    }
+
+    /** Codec-decoded {@code payload_bytes} (JSON or Smile), or {@code null} for plain text rows. */
+    public static byte[] decodeBytes(byte[] bytes, String codec) {
+        return bytes == null ? null : forName(codec).decode(bytes);
+    }
+
+    /** Inverse of {@link #encode}; rows without bytes are returned as their text, Smile is rendered as JSON. */
+    public static String decode(String text, byte[] bytes, String codec) {
+        if (bytes == null) return text;
+        byte[] raw = decodeBytes(bytes, codec);
+        return PayloadFormats.isSmile(raw) ? PayloadFormats.smileToJson(raw) : new String(raw, StandardCharsets.UTF_8);
+    }
+}
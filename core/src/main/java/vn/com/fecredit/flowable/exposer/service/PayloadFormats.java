@@ -0,0 +1,60 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.util.Map;
+
+/**
+ * Binary (Jackson Smile) encoding of snapshot payloads, selected per entity
+ * type with {@code exposer.entity.<type>.payload-format=smile}.
+ *
+ * <p>Smile documents always start with the {@code ":)\n"} header, which can
+ * never start a JSON text, so readers detect the format from the bytes
+ * themselves and mixed JSON/Smile tables keep working.
+ */
+public final class PayloadFormats {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    // the header is what readers key on, so never let it be disabled
+    private static final ObjectMapper SMILE = new ObjectMapper(
+            SmileFactory.builder().enable(SmileGenerator.Feature.WRITE_HEADER).build());
+
+    private PayloadFormats() {
+    }
+
+    public static boolean isSmileName(String format) {
+        return format != null && "smile".equalsIgnoreCase(format.trim());
+    }
+
+    /** True when {@code bytes} start with the Smile header {@code ":)\n"}. */
+    public static boolean isSmile(byte[] bytes) {
+        return bytes != null && bytes.length >= 3 && bytes[0] == ':' && bytes[1] == ')' && bytes[2] == '\n';
+    }
+
+    public static byte[] jsonToSmile(String json) {
+        try {
+            return SMILE.writeValueAsBytes(JSON.readTree(json));
+        } catch (Exception ex) {
+            throw new IllegalArgumentException("Payload is not valid JSON, cannot encode as Smile", ex);
+        }
+    }
+
+    public static String smileToJson(byte[] smile) {
+        try {
+            return JSON.writeValueAsString(SMILE.readTree(smile));
+        } catch (Exception ex) {
+            throw new IllegalStateException("Corrupt Smile payload", ex);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> readSmileMap(byte[] smile) {
+        try {
+            return SMILE.readValue(smile, Map.class);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Corrupt Smile payload", ex);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import java.sql.Timestamp;
+
+/**
+ * An annotated snapshot waiting to be written to {@code sys_case_data_store}
+ * by {@link SnapshotWriteBehind}.
+ *
+ * @param exposeRequest whether a {@code sys_expose_requests} row is enqueued
+ *                      in the same transaction as the snapshot
+ * @param requestedBy   requester recorded on that row
+ */
+public record PendingSnapshot(String caseInstanceId, String entityType, String payload, Timestamp createdAt, String contentHash,
+                              boolean exposeRequest, String requestedBy) {
+
+    public PendingSnapshot(String caseInstanceId, String entityType, String payload, Timestamp createdAt, String contentHash) {
+        this(caseInstanceId, entityType, payload, createdAt, contentHash, false, null);
+    }
+
+    public PendingSnapshot(String caseInstanceId, String entityType, String payload, Timestamp createdAt) {
+        this(caseInstanceId, entityType, payload, createdAt, SnapshotContentHash.of(payload));
+    }
+}
@@ -0,0 +1,204 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Streaming rewrite of the stored snapshots of one entity type, used by
+ * {@link CaseDataPersistService#reindexExistingBlobs(String)}.
+ *
+ * <p>Rows are read in keyset pages ({@code id > lastId ORDER BY id}) of
+ * {@code chunkSize} with a matching JDBC fetch size, so memory is bounded by
+ * one page whatever the table size.  Each page is annotated in parallel and
+ * written back as one JDBC batch; the batch and the advanced
+ * {@code sys_case_data_reindex_checkpoint} row commit together, so a run that
+ * dies (or a restarted application) resumes after the last committed page.
+ * Delta rows hold patches rather than documents and are not touched, and
+ * neither are the full rows some delta is based on: rewriting a base alone
+ * would give its reconstructed deltas the new annotation marker (although
+ * what their patches added was never annotated) and leave their
+ * {@code content_hash} describing a document that can no longer be rebuilt.
+ * Such chains are annotated when the worker reads them.
+ */
+class SnapshotBlobReindexer {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotBlobReindexer.class);
+
+    static final String RUNNING = "RUNNING";
+    static final String COMPLETED = "COMPLETED";
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper om;
+    private final MetadataAnnotator annotator;
+    private final CaseDataWriter writer;
+    private final PlatformTransactionManager txManager;
+    private final int chunkSize;
+    private final int parallelism;
+
+    SnapshotBlobReindexer(JdbcTemplate jdbc, ObjectMapper om, MetadataAnnotator annotator, CaseDataWriter writer,
+                          PlatformTransactionManager txManager, int chunkSize, int parallelism) {
+        this.jdbc = jdbc;
+        this.om = om;
+        this.annotator = annotator;
+        this.writer = writer;
+        this.txManager = txManager;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    private record Row(long id, String text, String codec, byte[] bytes) {
+    }
+
+    /** Rewrites every full snapshot of {@code entityType}; returns the number of rows visited by this run. */
+    long run(String entityType) {
+        CaseDataWriter.Capabilities caps = writer.capabilities();
+        boolean checkpoints = checkpointTableExists();
+        long lastId = 0;
+        long done = 0;
+        Map<String, Object> cp = checkpoints ? loadCheckpoint(entityType) : null;
+        if (cp != null && RUNNING.equals(cp.get("status"))) {
+            lastId = ((Number) cp.get("last_id")).longValue();
+            done = ((Number) cp.get("rows_done")).longValue();
+            log.info("reindexExistingBlobs: resuming {} after id {} ({} rows already done)", entityType, lastId, done);
+        } else if (checkpoints) {
+            saveCheckpoint(entityType, 0, 0, RUNNING, true);
+        }
+
+        String select = "SELECT s.id, s.payload" + (caps.payloadCodec() ? ", s.payload_codec, s.payload_bytes" : "")
+                + " FROM sys_case_data_store s WHERE s.entity_type = ? AND s.id > ?"
+                + (caps.snapshotKind() ? " AND (s.snapshot_kind IS NULL OR s.snapshot_kind <> '" + SnapshotReconstructor.DELTA + "')"
+                        + " AND NOT EXISTS (SELECT 1 FROM sys_case_data_store d WHERE d.base_id = s.id)" : "")
+                + " ORDER BY s.id LIMIT " + chunkSize;
+        String update = "UPDATE sys_case_data_store SET payload = ?"
+                + (caps.payloadCodec() ? ", payload_codec = ?, payload_bytes = ?" : "")
+                + (caps.contentHash() ? ", content_hash = ?" : "") + " WHERE id = ?";
+        JdbcTemplate reader = new JdbcTemplate(jdbc.getDataSource());
+        reader.setFetchSize(chunkSize);
+
+        ExecutorService pool = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "exposer-blob-reindex");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        try {
+            while (true) {
+                List<Row> page = reader.query(select, (rs, i) -> new Row(rs.getLong("id"), rs.getString("payload"),
+                        caps.payloadCodec() ? rs.getString("payload_codec") : null,
+                        caps.payloadCodec() ? rs.getBytes("payload_bytes") : null), entityType, lastId);
+                if (page.isEmpty()) break;
+
+                List<Object[]> updates = annotatePage(page, entityType, caps, pool);
+                long pageLastId = page.get(page.size() - 1).id();
+                long pageDone = done + page.size();
+                NewTransaction.run(txManager, () -> {
+                    if (!updates.isEmpty()) jdbc.batchUpdate(update, updates);
+                    if (checkpoints) saveCheckpoint(entityType, pageLastId, pageDone, RUNNING, false);
+                });
+                lastId = pageLastId;
+                done = pageDone;
+                log.debug("reindexExistingBlobs: {} rewritten up to id {} ({} rows)", entityType, lastId, done);
+                if (page.size() < chunkSize) break;
+            }
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+        if (checkpoints) saveCheckpoint(entityType, lastId, done, COMPLETED, false);
+        return done;
+    }
+
+    private List<Object[]> annotatePage(List<Row> page, String entityType, CaseDataWriter.Capabilities caps, ExecutorService pool) {
+        List<Object[]> out = new ArrayList<>(page.size());
+        if (pool == null) {
+            for (Row row : page) {
+                Object[] args = rewrite(row, entityType, caps);
+                if (args != null) out.add(args);
+            }
+            return out;
+        }
+        List<CompletableFuture<Object[]>> futures = new ArrayList<>(page.size());
+        for (Row row : page) {
+            futures.add(CompletableFuture.supplyAsync(() -> rewrite(row, entityType, caps), pool));
+        }
+        for (CompletableFuture<Object[]> f : futures) {
+            Object[] args = f.join();
+            if (args != null) out.add(args);
+        }
+        return out;
+    }
+
+    /** UPDATE arguments for one row, or {@code null} when it cannot be read and is left as is. */
+    private Object[] rewrite(Row row, String entityType, CaseDataWriter.Capabilities caps) {
+        try {
+            // Smile rows are read straight into a map, JSON (text or codec bytes) is parsed as text
+            byte[] raw = caps.payloadCodec() ? PayloadCodecs.decodeBytes(row.bytes(), row.codec()) : null;
+            Map<String, Object> m;
+            if (PayloadFormats.isSmile(raw)) {
+                m = PayloadFormats.readSmileMap(raw);
+            } else {
+                String payload = raw != null ? new String(raw, java.nio.charset.StandardCharsets.UTF_8) : row.text();
+                if (payload == null) return null;
+                @SuppressWarnings("unchecked")
+                Map<String, Object> parsed = om.readValue(payload, Map.class);
+                m = parsed;
+            }
+            if (m == null) return null;
+            try { if (annotator != null) annotator.annotate(m, entityType); } catch (Exception t) { log.debug("Annotator failed during reindex for id {}: {}", row.id(), t.getMessage()); }
+            String updated = om.writeValueAsString(m);
+
+            List<Object> args = new ArrayList<>(5);
+            if (caps.payloadCodec()) {
+                PayloadCodecs.Encoded enc = writer.encodePayload(updated, entityType);
+                args.add(enc.text());
+                args.add(enc.codec());
+                args.add(enc.bytes());
+            } else {
+                args.add(updated);
+            }
+            if (caps.contentHash()) args.add(SnapshotContentHash.of(updated));
+            args.add(row.id());
+            return args.toArray();
+        } catch (Exception ex) {
+            log.warn("Failed to reindex blob id {}: {}", row.id(), ex.getMessage());
+            return null;
+        }
+    }
+
+    private boolean checkpointTableExists() {
+        try {
+            jdbc.queryForList("SELECT entity_type FROM sys_case_data_reindex_checkpoint WHERE 1 = 0");
+            return true;
+        } catch (Exception ex) {
+            log.debug("reindexExistingBlobs: no checkpoint table, progress will not be resumable: {}", ex.getMessage());
+            return false;
+        }
+    }
+
+    private Map<String, Object> loadCheckpoint(String entityType) {
+        List<Map<String, Object>> rows = jdbc.queryForList(
+                "SELECT last_id, rows_done, status FROM sys_case_data_reindex_checkpoint WHERE entity_type = ?", entityType);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private void saveCheckpoint(String entityType, long lastId, long rowsDone, String status, boolean restart) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        int updated = restart
+                ? jdbc.update("UPDATE sys_case_data_reindex_checkpoint SET last_id = ?, rows_done = ?, status = ?, started_at = ?, updated_at = ? WHERE entity_type = ?",
+                        lastId, rowsDone, status, now, now, entityType)
+                : jdbc.update("UPDATE sys_case_data_reindex_checkpoint SET last_id = ?, rows_done = ?, status = ?, updated_at = ? WHERE entity_type = ?",
+                        lastId, rowsDone, status, now, entityType);
+        if (updated == 0) {
+            jdbc.update("INSERT INTO sys_case_data_reindex_checkpoint (entity_type, last_id, rows_done, status, started_at, updated_at) VALUES (?,?,?,?,?,?)",
+                    entityType, lastId, rowsDone, status, now, now);
+        }
+    }
+}
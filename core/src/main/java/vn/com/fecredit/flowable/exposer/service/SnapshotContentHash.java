@@ -0,0 +1,39 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 over the canonical JSON form of a snapshot payload: object keys are
+ * sorted recursively so two payloads that differ only in key order (e.g. a
+ * {@code HashMap} serialized twice) hash the same.  Payloads that are not
+ * valid JSON are hashed as-is.
+ */
+public final class SnapshotContentHash {
+
+    private static final ObjectMapper CANONICAL = new ObjectMapper()
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    private SnapshotContentHash() {
+    }
+
+    public static String of(String payload) {
+        if (payload == null) return null;
+        String canonical;
+        try {
+            canonical = CANONICAL.writeValueAsString(CANONICAL.readValue(payload, Object.class));
+        } catch (Exception ex) {
+            canonical = payload;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(canonical.getBytes(StandardCharsets.UTF_8)));
+        } catch (java.security.NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fsync'd JSON-lines file receiving snapshots {@link SnapshotWriteBehind}
+ * could not write even row by row.  Lines use the journal format plus an
+ * {@code error} field, so they can be inspected and re-submitted by hand.
+ */
+class SnapshotDeadLetters {
+
+    private final Path file;
+    private final SnapshotJournal format;
+
+    SnapshotDeadLetters(Path file, ObjectMapper om) {
+        this.file = file;
+        this.format = new SnapshotJournal(file, om);
+    }
+
+    synchronized void append(PendingSnapshot s, String error) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            SnapshotJournal.write(out, format.line(0, s, error == null ? "unknown" : error));
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+}
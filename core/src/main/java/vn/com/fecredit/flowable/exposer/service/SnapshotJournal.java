@@ -0,0 +1,224 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Append-only, fsync'd local journal backing {@link SnapshotWriteBehind}.
+ *
+ * <p>Each accepted snapshot is appended as one JSON line with a sequence
+ * number and forced to disk before the caller returns.  Committed entries are
+ * tracked by a high-water mark kept in a {@code .mark} side file: every entry
+ * at or below it reached the database (or the dead-letter file).  The journal
+ * is truncated when nothing is outstanding and otherwise compacted down to
+ * the outstanding entries once it grows past {@code compactBytes}, so it stays
+ * bounded under steady load.  Entries above the mark are replayed on the next
+ * start (at-least-once; the caller skips those already in the store).
+ */
+class SnapshotJournal {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotJournal.class);
+
+    static final long DEFAULT_COMPACT_BYTES = 4L * 1024 * 1024;
+
+    /** A journaled snapshot and its sequence number. */
+    record Entry(long seq, PendingSnapshot snapshot) {
+    }
+
+    private final Path file;
+    private final Path markFile;
+    private final ObjectMapper om;
+    private final long compactBytes;
+    private FileChannel channel;
+    private long lastSeq = 0;
+    private long mark = 0;
+    /** Lines of entries not yet committed, by sequence number; what a compaction keeps. */
+    private final TreeMap<Long, String> outstanding = new TreeMap<>();
+
+    SnapshotJournal(Path file, ObjectMapper om) {
+        this(file, om, DEFAULT_COMPACT_BYTES);
+    }
+
+    SnapshotJournal(Path file, ObjectMapper om, long compactBytes) {
+        this.file = file;
+        this.markFile = file.resolveSibling(file.getFileName() + ".mark");
+        this.om = om;
+        this.compactBytes = compactBytes;
+    }
+
+    /** Read entries above the committed mark left by a previous run; must be called before {@link #open()}. */
+    synchronized List<Entry> replay() {
+        List<Entry> out = new ArrayList<>();
+        mark = readMark();
+        lastSeq = mark;
+        if (!Files.exists(file)) return out;
+        List<Map<String, Object>> unnumbered = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) continue;
+                try {
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> m = om.readValue(line, Map.class);
+                    Object seq = m.get("seq");
+                    if (!(seq instanceof Number)) {
+                        unnumbered.add(m);
+                        continue;
+                    }
+                    long n = ((Number) seq).longValue();
+                    lastSeq = Math.max(lastSeq, n);
+                    if (n <= mark) continue;
+                    out.add(new Entry(n, toSnapshot(m)));
+                    outstanding.put(n, line);
+                } catch (Exception ex) {
+                    // a torn last line from a crash mid-append
+                    log.warn("SnapshotJournal: skipping unreadable journal line: {}", ex.getMessage());
+                }
+            }
+            // lines written before entries were numbered are all outstanding
+            for (Map<String, Object> m : unnumbered) {
+                long n = ++lastSeq;
+                PendingSnapshot s = toSnapshot(m);
+                out.add(new Entry(n, s));
+                outstanding.put(n, line(n, s, null));
+            }
+        } catch (IOException ex) {
+            log.error("SnapshotJournal: failed to read {}: {}", file, ex.getMessage(), ex);
+        }
+        return out;
+    }
+
+    synchronized void open() throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** Append and fsync a snapshot; returns its sequence number. */
+    synchronized long append(PendingSnapshot s) throws IOException {
+        long seq = lastSeq + 1;
+        String line = line(seq, s, null);
+        write(channel, line);
+        lastSeq = seq;
+        outstanding.put(seq, line);
+        return seq;
+    }
+
+    /**
+     * Record that the given entries reached the database.  Advances the mark
+     * to just below the oldest outstanding entry, then truncates or compacts.
+     */
+    synchronized void committed(Collection<Long> seqs) {
+        for (Long seq : seqs) outstanding.remove(seq);
+        long next = outstanding.isEmpty() ? lastSeq : outstanding.firstKey() - 1;
+        if (next > mark) {
+            try {
+                writeMark(next);
+                mark = next;
+            } catch (IOException ex) {
+                log.warn("SnapshotJournal: failed to record committed mark {} for {}: {}", next, file, ex.getMessage());
+                return;
+            }
+        }
+        if (channel == null) return;
+        try {
+            if (outstanding.isEmpty()) {
+                channel.truncate(0);
+                channel.force(true);
+            } else if (channel.size() > compactBytes) {
+                compact();
+            }
+        } catch (IOException ex) {
+            log.warn("SnapshotJournal: truncate/compact failed for {}: {}", file, ex.getMessage());
+        }
+    }
+
+    synchronized long mark() {
+        return mark;
+    }
+
+    synchronized int outstanding() {
+        return outstanding.size();
+    }
+
+    /** Rewrite the journal with only the outstanding entries and swap it in atomically. */
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String line : outstanding.values()) write(out, line);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        log.debug("SnapshotJournal: compacted {} to {} outstanding entries", file, outstanding.size());
+    }
+
+    private long readMark() {
+        try {
+            if (!Files.exists(markFile)) return 0;
+            return Long.parseLong(Files.readString(markFile, StandardCharsets.UTF_8).trim());
+        } catch (Exception ex) {
+            // a torn mark only costs a longer replay; stored entries are skipped there
+            log.warn("SnapshotJournal: unreadable mark {}, replaying the whole journal: {}", markFile, ex.getMessage());
+            return 0;
+        }
+    }
+
+    private void writeMark(long value) throws IOException {
+        if (markFile.getParent() != null) Files.createDirectories(markFile.getParent());
+        try (FileChannel out = FileChannel.open(markFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(out, Long.toString(value));
+        }
+    }
+
+    String line(long seq, PendingSnapshot s, String error) throws IOException {
+        Map<String, Object> m = new java.util.LinkedHashMap<>();
+        if (seq > 0) m.put("seq", seq);
+        m.put("caseInstanceId", s.caseInstanceId());
+        m.put("entityType", s.entityType());
+        m.put("payload", s.payload());
+        m.put("createdAt", s.createdAt() == null ? null : s.createdAt().getTime());
+        m.put("contentHash", s.contentHash());
+        if (s.exposeRequest()) {
+            m.put("exposeRequest", true);
+            m.put("requestedBy", s.requestedBy());
+        }
+        if (error != null) m.put("error", error);
+        return om.writeValueAsString(m) + "\n";
+    }
+
+    private static PendingSnapshot toSnapshot(Map<String, Object> m) {
+        Object ts = m.get("createdAt");
+        String payload = (String) m.get("payload");
+        Object hash = m.get("contentHash");
+        Object requestedBy = m.get("requestedBy");
+        return new PendingSnapshot((String) m.get("caseInstanceId"), (String) m.get("entityType"), payload,
+                new java.sql.Timestamp(ts instanceof Number ? ((Number) ts).longValue() : System.currentTimeMillis()),
+                hash != null ? String.valueOf(hash) : SnapshotContentHash.of(payload),
+                Boolean.TRUE.equals(m.get("exposeRequest")), requestedBy != null ? String.valueOf(requestedBy) : null);
+    }
+
+    static void write(FileChannel out, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining()) out.write(buf);
+        out.force(false);
+    }
+
+    synchronized void close() {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException ignored) {}
+        channel = null;
+    }
+}
@@ -0,0 +1,140 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rebuilds the full JSON of a snapshot stored as a delta.
+ *
+ * <p>A {@code DELTA} row of {@code sys_case_data_store} holds a
+ * {@link JsonPatch} against the row named by its {@code base_id}; a
+ * {@code FULL} row (or a row without {@code snapshot_kind}, i.e. everything
+ * written before deltas existed) holds the complete payload.  Reconstruction
+ * walks back to the nearest full checkpoint and replays the patches.  Store
+ * rows are immutable, so results are cached by store id; the next delta of a
+ * case then usually needs a single patch on top of a cached version.
+ *
+ * <p>One instance is shared by the persist service, the change-log folder and
+ * the worker, so a rewrite of stored payloads is invalidated in one place.
+ */
+@Component
+public class SnapshotReconstructor {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotReconstructor.class);
+
+    public static final String FULL = "FULL";
+    public static final String DELTA = "DELTA";
+
+    /** Guards against a corrupt (cyclic) base chain. */
+    private static final int MAX_CHAIN = 10_000;
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper om = new ObjectMapper();
+    private final Cache<Long, Snapshot> cache;
+
+    @Autowired
+    public SnapshotReconstructor(JdbcTemplate jdbc) {
+        this(jdbc, 1_000);
+    }
+
+    public SnapshotReconstructor(JdbcTemplate jdbc, long cacheSize) {
+        this.jdbc = jdbc;
+        this.cache = Caffeine.newBuilder().maximumSize(Math.max(1, cacheSize)).build();
+    }
+
+    /**
+     * Full content of a store row.
+     *
+     * @param depth number of deltas applied on top of the nearest full checkpoint
+     */
+    public record Snapshot(long storeId, String json, int depth) {
+    }
+
+    public Snapshot reconstruct(long storeId) {
+        Snapshot cached = cache.getIfPresent(storeId);
+        if (cached != null) return cached;
+
+        Deque<JsonNode> patches = new ArrayDeque<>();
+        Snapshot base = null;
+        long id = storeId;
+        while (base == null) {
+            base = cache.getIfPresent(id);
+            if (base != null) break;
+            List<Map<String, Object>> rows = jdbc.queryForList("SELECT * FROM sys_case_data_store WHERE id = ?", id);
+            if (rows.isEmpty()) throw new IllegalStateException("Snapshot " + id + " not found while reconstructing " + storeId);
+            Map<String, Object> row = rows.get(0);
+            Object text = row.get("payload");
+            String json = PayloadCodecs.decode(text == null ? null : String.valueOf(text), (byte[]) row.get("payload_bytes"), (String) row.get("payload_codec"));
+            if (!DELTA.equals(row.get("snapshot_kind"))) {
+                base = new Snapshot(id, json, 0);
+                cache.put(id, base);
+                break;
+            }
+            try {
+                patches.push(om.readTree(json));
+            } catch (Exception ex) {
+                throw new IllegalStateException("Unreadable delta in snapshot " + id, ex);
+            }
+            Object baseId = row.get("base_id");
+            if (!(baseId instanceof Number) || patches.size() > MAX_CHAIN) {
+                throw new IllegalStateException("Broken delta chain at snapshot " + id);
+            }
+            id = ((Number) baseId).longValue();
+        }
+        if (patches.isEmpty()) return base;
+
+        try {
+            JsonNode doc = om.readTree(base.json());
+            int depth = base.depth();
+            while (!patches.isEmpty()) {
+                doc = JsonPatch.apply(doc, patches.pop());
+                depth++;
+            }
+            Snapshot result = new Snapshot(storeId, om.writeValueAsString(doc), depth);
+            cache.put(storeId, result);
+            log.debug("reconstruct: snapshot {} rebuilt from checkpoint {} (+{} deltas)", storeId, base.storeId(), depth - base.depth());
+            return result;
+        } catch (IllegalStateException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IllegalStateException("Failed to reconstruct snapshot " + storeId, ex);
+        }
+    }
+
+    /** Latest snapshot of a case, or {@code null} when it has none. */
+    public Snapshot reconstructLatest(String caseInstanceId) {
+        Long id = null;
+        try {
+            List<Long> ids = jdbc.queryForList("SELECT store_id FROM sys_case_data_latest WHERE case_instance_id = ?", Long.class, caseInstanceId);
+            if (!ids.isEmpty()) id = ids.get(0);
+        } catch (Exception ex) {
+            log.debug("reconstructLatest: no latest pointer for {}: {}", caseInstanceId, ex.getMessage());
+        }
+        if (id == null) {
+            List<Long> ids = jdbc.queryForList("SELECT MAX(id) FROM sys_case_data_store WHERE case_instance_id = ?", Long.class, caseInstanceId);
+            if (!ids.isEmpty()) id = ids.get(0);
+        }
+        return id == null ? null : reconstruct(id);
+    }
+
+    /** Seed the cache with a row the caller just wrote, so the next delta of the case starts from it. */
+    public void remember(long storeId, String json, int depth) {
+        cache.put(storeId, new Snapshot(storeId, json, depth));
+    }
+
+    /** Drop cached results, e.g. after stored payloads were rewritten in place. */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
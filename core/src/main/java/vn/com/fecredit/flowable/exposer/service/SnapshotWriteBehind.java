@@ -0,0 +1,256 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional write-behind mode for snapshot persistence.
+ *
+ * <p>When {@code exposer.persist.async.enabled=true}, {@link CaseDataPersistService}
+ * hands annotated snapshots to this component instead of opening its own
+ * {@code REQUIRES_NEW} transaction on the engine thread.  Snapshots wait in a
+ * bounded queue and a single writer thread flushes them to
+ * {@code sys_case_data_store} as multi-row JDBC batches, one commit per group.
+ *
+ * <p>Durability is configurable through {@code exposer.persist.async.durability}:
+ * {@code journal} (default) appends every snapshot to an fsync'd local file
+ * before accepting it and replays that file on start; {@code none} accepts the
+ * loss of queued snapshots on a crash.  A journal entry is marked committed
+ * only after its snapshot is written, and replay skips snapshots the store
+ * already holds.  When the queue is full the caller waits up to
+ * {@code offer-timeout-ms}; after that {@code overflow=sync} (default) writes
+ * the snapshot on the caller's thread while {@code overflow=block} waits for
+ * space.  A case that still has older snapshots queued or being written
+ * always waits for space, so its snapshots are committed in order.  Snapshots that still fail row by row go to the
+ * {@code dead-letter-file} instead of being dropped.
+ */
+@Component
+public class SnapshotWriteBehind {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotWriteBehind.class);
+
+    @Value("${exposer.persist.async.enabled:false}")
+    private boolean enabled;
+    @Value("${exposer.persist.async.capacity:10000}")
+    private int capacity;
+    @Value("${exposer.persist.async.batch-size:200}")
+    private int batchSize;
+    @Value("${exposer.persist.async.offer-timeout-ms:50}")
+    private long offerTimeoutMs;
+    @Value("${exposer.persist.async.overflow:sync}")
+    private String overflow;
+    @Value("${exposer.persist.async.durability:journal}")
+    private String durability;
+    @Value("${exposer.persist.async.journal-file:${java.io.tmpdir}/exposer/snapshot-journal.log}")
+    private String journalFile;
+    @Value("${exposer.persist.async.dead-letter-file:${java.io.tmpdir}/exposer/snapshot-dead-letters.log}")
+    private String deadLetterFile;
+
+    private final CaseDataWriter writer;
+    private final ObjectMapper om;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager txManager;
+
+    /** A snapshot and its journal sequence number ({@code 0} without a journal). */
+    private record Queued(long seq, PendingSnapshot snapshot) {
+    }
+
+    /** Snapshots per case submitted and not yet written or dead-lettered. */
+    private final java.util.concurrent.ConcurrentMap<String, Integer> pending = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private BlockingQueue<Queued> queue;
+    private SnapshotJournal journal;
+    private SnapshotDeadLetters deadLetters;
+    private Thread flusher;
+    private volatile boolean running;
+
+    public SnapshotWriteBehind(CaseDataWriter writer, ObjectMapper om) {
+        this.writer = writer;
+        this.om = om;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) return;
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        deadLetters = new SnapshotDeadLetters(java.nio.file.Path.of(deadLetterFile), om);
+        if ("journal".equalsIgnoreCase(durability)) {
+            journal = new SnapshotJournal(java.nio.file.Path.of(journalFile), om);
+            List<SnapshotJournal.Entry> replayed = journal.replay();
+            try {
+                journal.open();
+            } catch (java.io.IOException ex) {
+                throw new IllegalStateException("Cannot open snapshot journal " + journalFile, ex);
+            }
+            replay(replayed);
+        }
+        running = true;
+        flusher = new Thread(this::runLoop, "exposer-snapshot-writer");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("SnapshotWriteBehind started (capacity={}, batchSize={}, durability={}, overflow={})", capacity, batchSize, durability, overflow);
+    }
+
+    /** Write entries left above the committed mark, skipping those a crash caught between commit and mark. */
+    private void replay(List<SnapshotJournal.Entry> replayed) {
+        if (replayed.isEmpty()) return;
+        List<Queued> todo = new ArrayList<>();
+        List<Long> present = new ArrayList<>();
+        for (SnapshotJournal.Entry e : replayed) {
+            PendingSnapshot s = e.snapshot();
+            if (writer.containsSnapshot(s.caseInstanceId(), s.contentHash(), s.createdAt())) present.add(e.seq());
+            else todo.add(new Queued(e.seq(), s));
+        }
+        if (!present.isEmpty()) journal.committed(present);
+        log.info("SnapshotWriteBehind: replaying {} journaled snapshots ({} already stored)", todo.size(), present.size());
+        for (int i = 0; i < todo.size(); i += Math.max(1, batchSize)) {
+            flushWithRetry(new ArrayList<>(todo.subList(i, Math.min(todo.size(), i + Math.max(1, batchSize)))));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled && running;
+    }
+
+    /**
+     * Queue a snapshot for the writer thread.  Returns {@code false} when the
+     * caller must persist it synchronously itself (mode disabled, or the
+     * journal append failed).  With {@code overflow=sync} a full queue makes
+     * this call write the snapshot on the caller's thread before returning,
+     * unless older snapshots of the same case are still pending.
+     */
+    public boolean submit(PendingSnapshot snapshot) {
+        if (!isEnabled()) return false;
+        long seq = journal(snapshot);
+        if (seq < 0) return false;
+        Queued queued = new Queued(seq, snapshot);
+        pending.merge(caseKey(snapshot), 1, Integer::sum);
+        try {
+            if (queue.offer(queued, offerTimeoutMs, TimeUnit.MILLISECONDS)) return true;
+            // writing ahead of an older queued snapshot would make stale content the latest
+            if ("block".equalsIgnoreCase(overflow) || pending.getOrDefault(caseKey(snapshot), 0) > 1) {
+                queue.put(queued);
+                return true;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        log.warn("SnapshotWriteBehind: queue full, writing snapshot for {} synchronously", snapshot.caseInstanceId());
+        // committed in the journal only once written (or dead-lettered)
+        flushWithRetry(List.of(queued));
+        return true;
+    }
+
+    /** Journal before queueing; returns the sequence number, {@code 0} without a journal, {@code -1} on failure. */
+    private long journal(PendingSnapshot snapshot) {
+        if (journal == null) return 0;
+        try {
+            return journal.append(snapshot);
+        } catch (java.io.IOException ex) {
+            log.error("SnapshotWriteBehind: journal append failed for {}, writing synchronously: {}", snapshot.caseInstanceId(), ex.getMessage());
+            return -1;
+        }
+    }
+
+    private void runLoop() {
+        List<Queued> batch = new ArrayList<>(Math.max(1, batchSize));
+        while (running || !queue.isEmpty()) {
+            try {
+                Queued first = queue.poll(250, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, Math.max(0, batchSize - 1));
+                flushWithRetry(batch);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                log.error("SnapshotWriteBehind: unexpected error in writer loop", ex);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * One transaction per group; after repeated failures fall back to row-by-row
+     * so one bad snapshot cannot stall the queue.  Snapshots that still fail go
+     * to the dead-letter file; an entry leaves the journal only once written
+     * or dead-lettered.
+     */
+    private void flushWithRetry(List<Queued> batch) {
+        List<PendingSnapshot> snapshots = batch.stream().map(Queued::snapshot).toList();
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            try {
+                NewTransaction.run(txManager, () -> writer.insertSnapshots(snapshots));
+                committed(batch);
+                return;
+            } catch (Exception ex) {
+                log.warn("SnapshotWriteBehind: batch of {} failed (attempt {}): {}", batch.size(), attempt, ex.getMessage());
+                try { Thread.sleep(200L * attempt); } catch (InterruptedException ie) { Thread.currentThread().interrupt(); break; }
+            }
+        }
+        for (Queued q : batch) {
+            try {
+                NewTransaction.run(txManager, () -> writer.insertSnapshots(List.of(q.snapshot())));
+                committed(List.of(q));
+            } catch (Exception ex) {
+                deadLetter(q, ex);
+            }
+        }
+    }
+
+    private void deadLetter(Queued q, Exception cause) {
+        try {
+            deadLetters.append(q.snapshot(), cause.getMessage());
+            committed(List.of(q));
+            log.error("SnapshotWriteBehind: snapshot for case {} failed after retries, moved to {}: {}",
+                    q.snapshot().caseInstanceId(), deadLetters.file(), cause.getMessage(), cause);
+        } catch (java.io.IOException io) {
+            release(List.of(q));
+            log.error("SnapshotWriteBehind: snapshot for case {} failed and could not be dead-lettered; it stays journaled for replay: {}",
+                    q.snapshot().caseInstanceId(), io.getMessage(), cause);
+        }
+    }
+
+    private void committed(List<Queued> written) {
+        release(written);
+        if (journal == null) return;
+        List<Long> seqs = new ArrayList<>(written.size());
+        for (Queued q : written) if (q.seq() > 0) seqs.add(q.seq());
+        journal.committed(seqs);
+    }
+
+    private void release(List<Queued> done) {
+        for (Queued q : done) pending.computeIfPresent(caseKey(q.snapshot()), (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    private static String caseKey(PendingSnapshot s) {
+        return s.caseInstanceId() == null ? "" : s.caseInstanceId();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (!running) return;
+        running = false;
+        try {
+            if (flusher != null) flusher.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) journal.close();
+    }
+}
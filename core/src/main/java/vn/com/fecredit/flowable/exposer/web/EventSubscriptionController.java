@@ -0,0 +1,27 @@
+package vn.com.fecredit.flowable.exposer.web;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import vn.com.fecredit.flowable.exposer.flowable.EventSubscriptions;
+
+/**
+ * Exposes the per-subscription counters of the global event listener so
+ * operators can see which engine events are actually handled.
+ */
+@RestController
+@RequestMapping("/api/event-subscriptions")
+public class EventSubscriptionController {
+
+    private final EventSubscriptions subscriptions;
+
+    public EventSubscriptionController(EventSubscriptions subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> list() {
+        return ResponseEntity.ok(subscriptions.stats());
+    }
+}
@@ -18,6 +18,7 @@ import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -64,7 +65,7 @@ class CasePersistDelegateTest {
         assertThat(captured).containsEntry("orderId", 12345);
         assertThat(captured).containsKey("@class");
 
-        verify(persistService).persistSysCaseData(eq("case-1"), eq("Order"), eq("{\"orderId\":12345}"));
+        verify(persistService).persistSnapshotAndRequest(eq("case-1"), eq("Order"), eq("{\"orderId\":12345}"), isNull());
     }
 
     @Test
@@ -78,7 +79,7 @@ class CasePersistDelegateTest {
 
         delegate.execute(execution);
 
-        verify(persistService).persistSysCaseData(org.mockito.Mockito.eq("case-2"), org.mockito.Mockito.eq("Order"), org.mockito.Mockito.contains("x=y"));
+        verify(persistService).persistSnapshotAndRequest(org.mockito.Mockito.eq("case-2"), org.mockito.Mockito.eq("Order"), org.mockito.Mockito.contains("x=y"), isNull());
     }
 
     @Test
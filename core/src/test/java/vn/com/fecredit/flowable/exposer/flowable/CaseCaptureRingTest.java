@@ -0,0 +1,163 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseDataWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+class CaseCaptureRingTest {
+
+    @TempDir
+    Path tmp;
+
+    private CaseCaptureRing ring(CaseDataPersistService persist, String overflow) {
+        CaseCaptureRing ring = new CaseCaptureRing(persist, new ObjectMapper());
+        ReflectionTestUtils.setField(ring, "enabled", true);
+        ReflectionTestUtils.setField(ring, "capacity", 1);
+        ReflectionTestUtils.setField(ring, "consumers", 1);
+        ReflectionTestUtils.setField(ring, "offerTimeoutMs", 10L);
+        ReflectionTestUtils.setField(ring, "overflow", overflow);
+        ReflectionTestUtils.setField(ring, "spillFile", tmp.resolve("spill.log").toString());
+        return ring;
+    }
+
+    /** Blocks the consumer inside its first persist call until the latch opens. */
+    private CountDownLatch blockFirstPersist(CaseDataPersistService persist) {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            if ("c1".equals(inv.getArgument(0))) release.await(5, TimeUnit.SECONDS);
+            return true;
+        }).when(persist).persistSnapshotAndRequest(anyString(), anyString(), anyString(), any());
+        return release;
+    }
+
+    @Test
+    void consumers_serialize_and_persist_off_the_calling_thread() {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        AtomicReference<String> thread = new AtomicReference<>();
+        doAnswer(inv -> { thread.set(Thread.currentThread().getName()); return true; })
+                .when(persist).persistSnapshotAndRequest(anyString(), anyString(), anyString(), any());
+        CaseCaptureRing ring = ring(persist, "block");
+        ring.start();
+        try {
+            assertThat(ring.publish("c1", "Order", Map.of("total", 5), true, true, "alice")).isTrue();
+
+            verify(persist, timeout(2000)).persistSnapshotAndRequest(eq("c1"), eq("Order"), contains("\"meta\""), eq("alice"));
+            assertThat(thread.get()).startsWith("exposer-capture-");
+        } finally {
+            ring.stop();
+        }
+    }
+
+    @Test
+    void overflow_spills_to_file_and_drains_when_idle() throws Exception {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CountDownLatch release = blockFirstPersist(persist);
+        CaseCaptureRing ring = ring(persist, "spill");
+        ring.start();
+        try {
+            ring.publish("c1", "Order", Map.of("n", 1), false, true, "alice");
+            ring.publish("c2", "Order", Map.of("n", 2), false, true, "bob");
+            assertThat(Files.readString(tmp.resolve("spill.log.0"))).contains("\"c2\"");
+
+            release.countDown();
+            verify(persist, timeout(2000)).persistSnapshotAndRequest(eq("c2"), eq("Order"), contains("\"n\":2"), eq("bob"));
+        } finally {
+            release.countDown();
+            ring.stop();
+        }
+    }
+
+    @Test
+    void overflow_request_policy_only_enqueues_an_expose_request() {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CaseDataWriter writer = mock(CaseDataWriter.class);
+        CountDownLatch release = blockFirstPersist(persist);
+        PlatformTransactionManager tx = mock(PlatformTransactionManager.class);
+        CaseCaptureRing ring = ring(persist, "request");
+        ReflectionTestUtils.setField(ring, "writer", writer);
+        ReflectionTestUtils.setField(ring, "txManager", tx);
+        ring.start();
+        try {
+            ring.publish("c1", "Order", Map.of("n", 1), false, true, "alice");
+            ring.publish("c2", "Order", Map.of("n", 2), false, true, "bob");
+
+            verify(writer).insertExposeRequest(eq("c2"), eq("Order"), eq("bob"), any());
+            verify(tx).getTransaction(argThat(d -> d.getPropagationBehavior() == TransactionDefinition.PROPAGATION_REQUIRES_NEW));
+        } finally {
+            release.countDown();
+            ring.stop();
+        }
+    }
+
+    @Test
+    void captures_of_a_case_stay_in_order_across_spills() throws Exception {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> persisted = new CopyOnWriteArrayList<>();
+        doAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            persisted.add(inv.getArgument(2));
+            return true;
+        }).when(persist).persistSnapshotAndRequest(anyString(), anyString(), anyString(), any());
+        CaseCaptureRing ring = ring(persist, "spill");
+        ReflectionTestUtils.setField(ring, "capacity", 2);
+        ReflectionTestUtils.setField(ring, "consumers", 3);
+        ring.start();
+        try {
+            ring.publish("c1", "Order", Map.of("n", 1), false, true, "alice");
+            Thread.sleep(100);
+            ring.publish("c1", "Order", Map.of("n", 2), false, true, "alice");
+            ring.publish("c1", "Order", Map.of("n", 3), false, true, "alice");
+            release.countDown();
+            // a slot frees up before the spill file is drained; the capture must queue behind it
+            ring.publish("c1", "Order", Map.of("n", 4), false, true, "alice");
+
+            verify(persist, timeout(3000).times(4)).persistSnapshotAndRequest(eq("c1"), anyString(), anyString(), any());
+            assertThat(persisted).containsExactly("{\"n\":1}", "{\"n\":2}", "{\"n\":3}", "{\"n\":4}");
+        } finally {
+            release.countDown();
+            ring.stop();
+        }
+    }
+
+    @Test
+    void publish_deep_copies_nested_variables() {
+        Map<String, Object> customer = new HashMap<>(Map.of("name", "Ann"));
+        List<Object> items = new ArrayList<>(List.of(new HashMap<>(Map.of("sku", "A"))));
+        Map<String, Object> vars = new HashMap<>(Map.of("customer", customer, "items", items));
+
+        Map<String, Object> copy = CaseCaptureRing.deepCopy(vars);
+        customer.put("name", "Bob");
+        items.add(Map.of("sku", "B"));
+
+        assertThat(copy.get("customer")).isEqualTo(Map.of("name", "Ann")).isNotSameAs(customer);
+        assertThat((List<?>) copy.get("items")).hasSize(1).first().isNotSameAs(items.get(0));
+    }
+}
@@ -0,0 +1,96 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEventType;
+import org.flowable.common.engine.api.delegate.event.FlowableEntityEvent;
+import org.flowable.common.engine.api.delegate.event.FlowableEventType;
+import org.flowable.engine.runtime.ProcessInstance;
+import org.flowable.task.api.Task;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class EventSubscriptionsTest {
+
+    @Test
+    void subscriptions_filter_by_type_definition_key_and_task_type() {
+        EventSubscriptions subs = new EventSubscriptions(new MockEnvironment()
+                .withProperty("exposer.events.subscriptions[0].name", "orders")
+                .withProperty("exposer.events.subscriptions[0].event-types", "process_started,PROCESS_COMPLETED")
+                .withProperty("exposer.events.subscriptions[0].definition-keys", "orderProcess")
+                .withProperty("exposer.events.subscriptions[1].name", "approvals")
+                .withProperty("exposer.events.subscriptions[1].event-types", "TASK_COMPLETED")
+                .withProperty("exposer.events.subscriptions[1].task-types", "approve"));
+
+        assertThat(subs.engineEventTypes()).containsExactlyInAnyOrder(
+                FlowableEngineEventType.PROCESS_STARTED, FlowableEngineEventType.PROCESS_COMPLETED, FlowableEngineEventType.TASK_COMPLETED);
+
+        ProcessInstance order = mock(ProcessInstance.class);
+        when(order.getProcessDefinitionKey()).thenReturn("orderProcess");
+        ProcessInstance other = mock(ProcessInstance.class);
+        when(other.getProcessDefinitionId()).thenReturn("invoiceProcess:3:42");
+        Task approve = mock(Task.class);
+        when(approve.getTaskDefinitionKey()).thenReturn("approveOrder");
+        Task review = mock(Task.class);
+        when(review.getTaskDefinitionKey()).thenReturn("review");
+
+        assertThat(subs.match(event(FlowableEngineEventType.PROCESS_STARTED, order), order).name()).isEqualTo("orders");
+        assertThat(subs.match(event(FlowableEngineEventType.PROCESS_STARTED, other), other)).isNull();
+        assertThat(subs.match(event(FlowableEngineEventType.TASK_COMPLETED, approve), approve).name()).isEqualTo("approvals");
+        assertThat(subs.match(event(FlowableEngineEventType.TASK_COMPLETED, review), review)).isNull();
+        assertThat(subs.match(event(FlowableEngineEventType.VARIABLE_UPDATED, order), order)).isNull();
+
+        assertThat(subs.subscriptions()).extracting(EventSubscriptions.Subscription::handled).containsExactly(1L, 1L);
+        assertThat(subs.subscriptions()).extracting(EventSubscriptions.Subscription::filtered).containsExactly(1L, 1L);
+    }
+
+    @Test
+    void event_types_are_resolved_per_engine_without_widening_to_all_events() {
+        EventSubscriptions subs = new EventSubscriptions(new MockEnvironment()
+                .withProperty("exposer.events.subscriptions[0].name", "cases")
+                .withProperty("exposer.events.subscriptions[0].event-types", "CASE_STARTED,TASK_COMPLETED,NO_SUCH_EVENT"));
+
+        assertThat(subs.engineEventTypes(EventSubscriptions.Engine.BPMN)).containsExactly(FlowableEngineEventType.TASK_COMPLETED);
+        assertThat(subs.engineEventTypes()).isEqualTo(subs.engineEventTypes(EventSubscriptions.Engine.BPMN));
+        assertThat(subs.engineEventTypes(EventSubscriptions.Engine.CMMN)).extracting(FlowableEventType::name)
+                .containsExactlyInAnyOrder("CASE_STARTED", "TASK_COMPLETED");
+
+        GlobalFlowableEventListener listener = new GlobalFlowableEventListener();
+        ReflectionTestUtils.setField(listener, "subscriptions", subs);
+        assertThat(listener.getTypes()).containsExactly(FlowableEngineEventType.TASK_COMPLETED);
+        assertThat(listener.cmmnListener().getTypes()).extracting(FlowableEventType::name).contains("CASE_STARTED");
+
+        ReflectionTestUtils.setField(listener, "subscriptions", new EventSubscriptions(new MockEnvironment()
+                .withProperty("exposer.events.subscriptions[0].name", "cases")
+                .withProperty("exposer.events.subscriptions[0].event-types", "CASE_STARTED")));
+        assertThat(listener.listensTo(EventSubscriptions.Engine.BPMN)).isFalse();
+        assertThat(listener.listensTo(EventSubscriptions.Engine.CMMN)).isTrue();
+    }
+
+    @Test
+    void listener_ignores_unsubscribed_events() {
+        GlobalFlowableEventListener listener = new GlobalFlowableEventListener();
+        TaskExposeHandler handler = mock(TaskExposeHandler.class);
+        ReflectionTestUtils.setField(listener, "taskExposeHandler", handler);
+        ReflectionTestUtils.setField(listener, "subscriptions", new EventSubscriptions(new MockEnvironment()));
+        Task task = mock(Task.class);
+
+        listener.onEvent(event(FlowableEngineEventType.TASK_CREATED, task));
+        verifyNoInteractions(handler);
+
+        listener.onEvent(event(FlowableEngineEventType.TASK_COMPLETED, task));
+        verify(handler).handle(task, FlowableEngineEventType.TASK_COMPLETED);
+    }
+
+    private static FlowableEntityEvent event(FlowableEngineEventType type, Object entity) {
+        FlowableEntityEvent ev = mock(FlowableEntityEvent.class);
+        when(ev.getType()).thenReturn(type);
+        when(ev.getEntity()).thenReturn(entity);
+        return ev;
+    }
+}
@@ -0,0 +1,49 @@
+package vn.com.fecredit.flowable.exposer.flowable;
+
+import org.flowable.task.api.Task;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FlowableEntityAccessorsTest {
+
+    public static class CaseEntityStub {
+        public String getId() { return "case-1"; }
+        public Map<String, Object> getCaseVariables() { return Map.of("total", 10); }
+        public Object getVariable(String name) { return "v:" + name; }
+        public String getBroken() { throw new IllegalStateException("boom"); }
+        public void getNothing() { }
+    }
+
+    @Test
+    void non_api_getters_resolve_through_cached_handles() {
+        CaseEntityStub entity = new CaseEntityStub();
+
+        assertThat(FlowableEntityAccessors.string(entity, "getId")).isEqualTo("case-1");
+        assertThat(FlowableEntityAccessors.map(entity, "getVariables", "getCaseVariables")).containsEntry("total", 10);
+        assertThat(FlowableEntityAccessors.variable(entity, "caseInstanceId")).isEqualTo("v:caseInstanceId");
+        assertThat(FlowableEntityAccessors.get(entity, "getMissing")).isNull();
+        assertThat(FlowableEntityAccessors.get(entity, "getBroken")).isNull();
+        assertThat(FlowableEntityAccessors.get(entity, "getNothing")).isNull();
+        // cached misses stay misses
+        assertThat(FlowableEntityAccessors.get(entity, "getMissing")).isNull();
+        assertThat(FlowableEntityAccessors.lowerSimpleName(entity)).isEqualTo("caseentitystub");
+    }
+
+    @Test
+    void flowable_api_getters_are_called_directly() {
+        Task task = mock(Task.class);
+        when(task.getTaskLocalVariables()).thenReturn(Map.of("caseInstanceId", "c-9"));
+        when(task.getTaskDefinitionKey()).thenReturn("approveOrder");
+        when(task.getId()).thenReturn("t-1");
+
+        assertThat(FlowableEntityAccessors.map(task, "getTaskLocalVariables")).containsEntry("caseInstanceId", "c-9");
+        assertThat(FlowableEntityAccessors.get(task, "getTaskDefinitionKey")).isEqualTo("approveOrder");
+        assertThat(FlowableEntityAccessors.string(task, "getId")).isEqualTo("t-1");
+        assertThat(FlowableEntityAccessors.get(null, "getId")).isNull();
+    }
+}
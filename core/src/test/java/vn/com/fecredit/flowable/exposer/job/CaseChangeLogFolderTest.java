@@ -0,0 +1,132 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flowable.common.engine.api.delegate.event.FlowableEngineEventType;
+import org.flowable.variable.api.event.FlowableVariableEvent;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.fecredit.flowable.exposer.flowable.VariableChangeCapture;
+import vn.com.fecredit.flowable.exposer.service.CaseDataPersistService;
+import vn.com.fecredit.flowable.exposer.service.CaseDataWriter;
+import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
+import vn.com.fecredit.flowable.exposer.service.SnapshotReconstructor;
+import vn.com.fecredit.flowable.exposer.service.SnapshotWriteBehind;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CaseChangeLogFolderTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private JdbcTemplate jdbc() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_change_log;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, content_hash VARCHAR(64))");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE sys_expose_requests (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255) NOT NULL, "
+                + "entity_type VARCHAR(255), requested_by VARCHAR(255), requested_at TIMESTAMP, status VARCHAR(50), processed_at TIMESTAMP)");
+        jdbc.execute("CREATE TABLE sys_case_change_log (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255) NOT NULL, "
+                + "entity_type VARCHAR(255), variable_name VARCHAR(255) NOT NULL, operation VARCHAR(10) NOT NULL, value_json CLOB, "
+                + "created_at TIMESTAMP, applied_at TIMESTAMP NULL)");
+        return jdbc;
+    }
+
+    private static FlowableVariableEvent event(FlowableEngineEventType type, String processInstanceId, String name, Object value) {
+        FlowableVariableEvent ev = mock(FlowableVariableEvent.class);
+        when(ev.getType()).thenReturn(type);
+        when(ev.getProcessInstanceId()).thenReturn(processInstanceId);
+        when(ev.getVariableName()).thenReturn(name);
+        when(ev.getVariableValue()).thenReturn(value);
+        return ev;
+    }
+
+    @Test
+    void variable_changes_fold_into_one_snapshot_and_request_per_case() throws Exception {
+        JdbcTemplate jdbc = jdbc();
+        CaseDataPersistService persist = new CaseDataPersistService(jdbc, om, null, new CaseDataWriter(jdbc));
+        persist.persistSysCaseData("c1", "Order", "{\"total\":10,\"status\":\"NEW\",\"note\":\"x\"}");
+
+        VariableChangeCapture capture = new VariableChangeCapture(jdbc, om);
+        assertThat(capture.record(event(FlowableEngineEventType.VARIABLE_UPDATED, "c1", "total", 10))).isFalse();
+        ReflectionTestUtils.setField(capture, "enabled", true);
+        capture.record(event(FlowableEngineEventType.VARIABLE_UPDATED, "c1", "total", 25));
+        capture.record(event(FlowableEngineEventType.VARIABLE_CREATED, "c1", "customer", Map.of("id", "C-7")));
+        capture.record(event(FlowableEngineEventType.VARIABLE_DELETED, "c1", "note", null));
+        capture.record(event(FlowableEngineEventType.VARIABLE_CREATED, "c2", "total", 3));
+        FlowableVariableEvent taskLocal = event(FlowableEngineEventType.VARIABLE_CREATED, "c1", "comment", "hi");
+        when(taskLocal.getTaskId()).thenReturn("t-1");
+        assertThat(capture.record(taskLocal)).isFalse();
+
+        CaseChangeLogFolder folder = new CaseChangeLogFolder(jdbc, om, persist);
+        assertThat(ReflectionTestUtils.getField(folder, "reconstructor")).isSameAs(persist.reconstructor());
+        assertThat(folder.foldPending(100)).isEqualTo(2);
+        assertThat(folder.foldPending(100)).isZero();
+
+        JsonNode c1 = om.readTree(new SnapshotReconstructor(jdbc).reconstructLatest("c1").json());
+        assertThat(c1.path("total").asInt()).isEqualTo(25);
+        assertThat(c1.path("status").asText()).isEqualTo("NEW");
+        assertThat(c1.path("customer").path("id").asText()).isEqualTo("C-7");
+        assertThat(c1.has("note")).isFalse();
+        assertThat(om.readTree(new SnapshotReconstructor(jdbc).reconstructLatest("c2").json()).path("total").asInt()).isEqualTo(3);
+
+        assertThat(jdbc.queryForList("SELECT case_instance_id FROM sys_expose_requests ORDER BY id", String.class)).containsExactly("c1", "c2");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_change_log WHERE applied_at IS NULL", Integer.class)).isZero();
+    }
+
+    @Test
+    void folding_drops_the_metadata_version_marker_of_the_stored_snapshot() throws Exception {
+        JdbcTemplate jdbc = jdbc();
+        CaseDataPersistService persist = new CaseDataPersistService(jdbc, om, null, new CaseDataWriter(jdbc));
+        persist.persistSysCaseData("c1", "Order", "{\"total\":10,\"" + MetadataAnnotator.VERSION_MARKER + "\":\"Order:abc\"}");
+        jdbc.update("INSERT INTO sys_case_change_log (case_instance_id, entity_type, variable_name, operation, value_json, created_at) "
+                + "VALUES ('c1', 'Order', 'customer', ?, '{\"id\":\"C-7\"}', CURRENT_TIMESTAMP)", VariableChangeCapture.SET);
+
+        assertThat(new CaseChangeLogFolder(jdbc, om, persist).foldPending(10)).isEqualTo(1);
+
+        JsonNode c1 = om.readTree(new SnapshotReconstructor(jdbc).reconstructLatest("c1").json());
+        assertThat(c1.path("customer").path("id").asText()).isEqualTo("C-7");
+        assertThat(c1.has(MetadataAnnotator.VERSION_MARKER)).isFalse();
+    }
+
+    @Test
+    void snapshot_request_and_applied_at_commit_together_bypassing_write_behind() {
+        JdbcTemplate jdbc = jdbc();
+        CaseDataPersistService persist = new CaseDataPersistService(jdbc, om, null, new CaseDataWriter(jdbc));
+        SnapshotWriteBehind writeBehind = mock(SnapshotWriteBehind.class);
+        when(writeBehind.submit(any())).thenReturn(true);
+        ReflectionTestUtils.setField(persist, "writeBehind", writeBehind);
+        ReflectionTestUtils.setField(persist, "txManager", new DataSourceTransactionManager(jdbc.getDataSource()));
+        jdbc.update("INSERT INTO sys_case_change_log (case_instance_id, entity_type, variable_name, operation, value_json, created_at) "
+                + "VALUES ('c1', 'Order', 'total', ?, '5', CURRENT_TIMESTAMP)", VariableChangeCapture.SET);
+        // applied_at cannot be set: the snapshot and request must roll back with it
+        jdbc.execute("ALTER TABLE sys_case_change_log ADD CONSTRAINT no_apply CHECK (applied_at IS NULL)");
+
+        CaseChangeLogFolder folder = new CaseChangeLogFolder(jdbc, om, persist);
+        assertThat(folder.foldPending(10)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_expose_requests", Integer.class)).isZero();
+
+        jdbc.execute("ALTER TABLE sys_case_change_log DROP CONSTRAINT no_apply");
+        assertThat(folder.foldPending(10)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store", Integer.class)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_change_log WHERE applied_at IS NULL", Integer.class)).isZero();
+        verify(writeBehind, never()).submit(any());
+    }
+}
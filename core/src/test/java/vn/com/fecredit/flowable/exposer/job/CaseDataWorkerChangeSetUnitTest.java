@@ -0,0 +1,193 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import vn.com.fecredit.flowable.exposer.service.IndexLoader;
+import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
+import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CaseDataWorkerChangeSetUnitTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    void paths_intersect_only_on_the_same_branch() {
+        CaseDataWorkerChangeSet changes = CaseDataWorkerChangeSet.between(om,
+                "{\"total\":10,\"customer\":{\"name\":\"A\",\"tier\":\"GOLD\"},\"items\":[{\"@class\":\"Item\",\"sku\":\"X\"}]}",
+                "{\"total\":10,\"customer\":{\"name\":\"B\",\"tier\":\"GOLD\"},\"items\":[{\"@class\":\"Item\",\"sku\":\"X\"}]}");
+
+        assertThat(changes.size()).isEqualTo(1);
+        assertThat(changes.affectsPath("$.customer.name")).isTrue();
+        assertThat(changes.affectsPath("$['customer']")).isTrue();
+        assertThat(changes.affectsPath("$.customer.tier")).isFalse();
+        assertThat(changes.affectsPath("$.total")).isFalse();
+        assertThat(changes.affectsPath("$..name")).isTrue();
+        assertThat(changes.affectsPath("$.items[0].sku")).isFalse();
+        assertThat(changes.touchesClass("Item")).isFalse();
+
+        IndexDefinition items = new IndexDefinition();
+        items.jsonPath = "$.items";
+        assertThat(changes.affectsIndex(items)).isFalse();
+        items.jsonPath = "$.missing";
+        assertThat(changes.affectsIndex(items)).isTrue();
+    }
+
+    @Test
+    void class_scans_see_changes_inside_and_around_matching_objects() {
+        CaseDataWorkerChangeSet inside = CaseDataWorkerChangeSet.between(om,
+                "{\"items\":[{\"@class\":\"Item\",\"sku\":\"X\"}],\"note\":\"a\"}",
+                "{\"items\":[{\"@class\":\"Item\",\"sku\":\"Y\"}],\"note\":\"a\"}");
+        assertThat(inside.touchesClass("Item")).isTrue();
+
+        CaseDataWorkerChangeSet added = CaseDataWorkerChangeSet.between(om,
+                "{\"note\":\"a\"}",
+                "{\"note\":\"a\",\"meta\":{\"@class\":\"Meta\",\"priority\":\"HIGH\"}}");
+        assertThat(added.touchesClass("Meta")).isTrue();
+        assertThat(added.touchesClass("Item")).isFalse();
+    }
+
+    @Test
+    void reindex_updates_only_columns_whose_paths_changed() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_changeset;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER)");
+
+        MetadataDefinition def = new MetadataDefinition();
+        def._class = "Order";
+        def.tableName = "cs_plain_order";
+        Map<String, MetadataDefinition.FieldMapping> mappings = new LinkedHashMap<>();
+        mappings.put("order_code", mapping("order_code", "$.code"));
+        mappings.put("customer_name", mapping("customer_name", "$.customer.name"));
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.resolveForClass(anyString())).thenReturn(def);
+        when(resolver.mappingsMetadataFor(anyString())).thenReturn(mappings);
+        when(resolver.mappingsFor(anyString())).thenReturn(Map.of());
+        CaseDataWorkerService svc = new CaseDataWorkerService(jdbc, resolver, om, mock(MetadataAnnotator.class), new IndexLoader());
+
+        store(jdbc, 1, "{\"code\":\"O-1\",\"customer\":{\"name\":\"A\"}}");
+        svc.reindexByCaseInstanceId("c1");
+        assertThat(jdbc.queryForObject("SELECT order_code FROM cs_plain_order WHERE case_instance_id = 'c1'", String.class)).isEqualTo("O-1");
+
+        // tamper with a column whose path will not change: a partial update must leave it alone
+        jdbc.update("UPDATE cs_plain_order SET order_code = 'untouched' WHERE case_instance_id = 'c1'");
+        store(jdbc, 2, "{\"code\":\"O-1\",\"customer\":{\"name\":\"B\"}}");
+        svc.reindexByCaseInstanceId("c1");
+
+        Map<String, Object> row = jdbc.queryForMap("SELECT order_code, customer_name, snapshot_version FROM cs_plain_order WHERE case_instance_id = 'c1'");
+        assertThat(row.get("order_code")).isEqualTo("untouched");
+        assertThat(row.get("customer_name")).isEqualTo("B");
+        assertThat(((Number) row.get("snapshot_version")).longValue()).isEqualTo(2L);
+
+        // forced runs re-evaluate every mapping
+        svc.reindexByCaseInstanceId("c1", true);
+        assertThat(jdbc.queryForObject("SELECT order_code FROM cs_plain_order WHERE case_instance_id = 'c1'", String.class)).isEqualTo("O-1");
+    }
+
+    @Test
+    void rows_built_under_other_metadata_are_rebuilt_in_full() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_changeset_metadata;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER)");
+
+        MetadataDefinition def = new MetadataDefinition();
+        def._class = "Order";
+        def.tableName = "csm_plain_order";
+        Map<String, MetadataDefinition.FieldMapping> mappings = new LinkedHashMap<>();
+        mappings.put("order_code", mapping("order_code", "$.code"));
+        mappings.put("customer_name", mapping("customer_name", "$.customer.name"));
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.resolveForClass(anyString())).thenReturn(def);
+        when(resolver.mappingsMetadataFor(anyString())).thenReturn(mappings);
+        when(resolver.mappingsFor(anyString())).thenReturn(Map.of());
+        MetadataAnnotator annotator = mock(MetadataAnnotator.class);
+        when(annotator.versionFor("Order")).thenReturn("Order:v1");
+        when(annotator.isCurrent(anyString(), eq("Order"))).thenReturn(true);
+        CaseDataWorkerService svc = new CaseDataWorkerService(jdbc, resolver, om, annotator, new IndexLoader());
+
+        store(jdbc, 1, "{\"code\":\"O-1\",\"customer\":{\"name\":\"A\"}}");
+        svc.reindexByCaseInstanceId("c1");
+        jdbc.update("UPDATE csm_plain_order SET order_code = 'untouched' WHERE case_instance_id = 'c1'");
+        store(jdbc, 2, "{\"code\":\"O-1\",\"customer\":{\"name\":\"B\"}}");
+        svc.reindexByCaseInstanceId("c1");
+        assertThat(jdbc.queryForObject("SELECT order_code FROM csm_plain_order WHERE case_instance_id = 'c1'", String.class)).isEqualTo("untouched");
+
+        // the metadata moved on: the unchanged data is still rebuilt against the new mappings
+        when(annotator.versionFor("Order")).thenReturn("Order:v2");
+        when(annotator.isCurrent(anyString(), eq("Order"))).thenReturn(false);
+        store(jdbc, 3, "{\"code\":\"O-1\",\"customer\":{\"name\":\"B\"}}");
+        svc.reindexByCaseInstanceId("c1");
+        assertThat(jdbc.queryForObject("SELECT order_code FROM csm_plain_order WHERE case_instance_id = 'c1'", String.class)).isEqualTo("O-1");
+    }
+
+    private static MetadataDefinition.FieldMapping mapping(String column, String jsonPath) {
+        MetadataDefinition.FieldMapping fm = new MetadataDefinition.FieldMapping();
+        fm.column = column;
+        fm.jsonPath = jsonPath;
+        return fm;
+    }
+
+    private static void store(JdbcTemplate jdbc, int version, String payload) {
+        jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, created_at, version) VALUES (?,?,?,?,?)",
+                "c1", "Order", payload, new java.sql.Timestamp(System.currentTimeMillis() + version), version);
+    }
+
+    @Test
+    void legacy_and_fallback_columns_owned_by_an_effective_mapping_are_left_alone() {
+        CaseDataWorkerChangeSet changes = CaseDataWorkerChangeSet.between(om,
+                "{\"total\":10,\"amount\":1,\"meta\":{\"priority\":\"LOW\"}}",
+                "{\"total\":20,\"amount\":1,\"meta\":{\"priority\":\"HIGH\"}}");
+        MetadataDefinition.FieldMapping amount = new MetadataDefinition.FieldMapping();
+        amount.column = "TOTAL";
+        amount.jsonPath = "$.amount";
+        Map<String, MetadataDefinition.FieldMapping> effective = Map.of("total", amount);
+        Map<String, String> legacy = Map.of("total", "$.total", "priority", "$.meta.priority");
+        Map<String, Object> fallbacks = new LinkedHashMap<>();
+        fallbacks.put("total", 20.0);
+        fallbacks.put("priority", "HIGH");
+
+        assertThat(changes.filterMappings(effective)).isEmpty();
+        Map<String, String> changedLegacy = changes.filterLegacy(legacy, effective);
+        assertThat(changedLegacy).containsOnlyKeys("priority");
+        assertThat(changes.filterFallbacks(fallbacks, CaseDataWorkerHelpers.DIRECT_FALLBACK_PATHS, effective, legacy, changedLegacy))
+                .containsOnlyKeys("priority");
+    }
+
+    @Test
+    void a_changed_fallback_brings_its_legacy_mapping_along() {
+        CaseDataWorkerChangeSet changes = CaseDataWorkerChangeSet.between(om,
+                "{\"total\":10,\"sum\":5}", "{\"total\":20,\"sum\":5}");
+        Map<String, String> legacy = Map.of("total", "$.sum");
+        Map<String, String> changedLegacy = changes.filterLegacy(legacy, Map.of());
+        assertThat(changedLegacy).isEmpty();
+
+        Map<String, Object> fallbacks = changes.filterFallbacks(Map.of("total", 20.0), CaseDataWorkerHelpers.DIRECT_FALLBACK_PATHS,
+                Map.of(), legacy, changedLegacy);
+        assertThat(fallbacks).containsOnlyKeys("total");
+        assertThat(changedLegacy).containsEntry("total", "$.sum");
+    }
+}
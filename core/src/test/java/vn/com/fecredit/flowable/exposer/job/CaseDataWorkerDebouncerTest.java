@@ -0,0 +1,55 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import vn.com.fecredit.flowable.exposer.entity.SysExposeRequest;
+import vn.com.fecredit.flowable.exposer.service.EntityTypeSettings;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CaseDataWorkerDebouncerTest {
+
+    private final OffsetDateTime now = OffsetDateTime.now();
+
+    private SysExposeRequest req(long id, String caseId, String entityType, long ageMs) {
+        SysExposeRequest r = new SysExposeRequest();
+        r.setId(id);
+        r.setCaseInstanceId(caseId);
+        r.setEntityType(entityType);
+        r.setRequestedAt(now.minusNanos(ageMs * 1_000_000L));
+        return r;
+    }
+
+    @Test
+    void bursts_collapse_per_case_and_wait_for_the_window() {
+        CaseDataWorkerDebouncer debouncer = new CaseDataWorkerDebouncer(new EntityTypeSettings(new MockEnvironment()
+                .withProperty("exposer.entity.Order.debounce-ms", "500")));
+
+        List<SysExposeRequest> pending = List.of(
+                req(1, "burst", "Order", 200), req(2, "burst", "Order", 100), req(3, "burst", "Order", 10),
+                req(4, "settled", "Order", 700), req(5, "settled", "Order", 50),
+                req(6, "invoice", "Invoice", 1), req(7, "invoice", "Invoice", 0));
+
+        List<List<SysExposeRequest>> due = debouncer.claim(pending, now);
+
+        assertThat(due).hasSize(2);
+        assertThat(due.get(0)).extracting(SysExposeRequest::getId).containsExactly(4L, 5L);
+        assertThat(due.get(1)).extracting(SysExposeRequest::getId).containsExactly(6L, 7L);
+
+        // once the oldest request of the burst is a window old the whole burst is due
+        assertThat(debouncer.claim(pending, now.plusNanos(300_000_000L)))
+                .anySatisfy(group -> assertThat(group).extracting(SysExposeRequest::getId).containsExactly(1L, 2L, 3L));
+    }
+
+    @Test
+    void without_settings_every_case_is_due_once() {
+        List<List<SysExposeRequest>> due = new CaseDataWorkerDebouncer(null)
+                .claim(List.of(req(1, "a", "Order", 0), req(2, "a", "Order", 0), req(3, "b", "Order", 0)), now);
+
+        assertThat(due).hasSize(2);
+        assertThat(due.get(0)).hasSize(2);
+    }
+}
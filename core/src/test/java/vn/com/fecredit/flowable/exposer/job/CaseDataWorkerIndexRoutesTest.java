@@ -0,0 +1,69 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.junit.jupiter.api.Test;
+import vn.com.fecredit.flowable.exposer.service.IndexLoader;
+import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class CaseDataWorkerIndexRoutesTest {
+
+    private static IndexDefinition def(String cls, String table, String jsonPath) {
+        IndexDefinition d = new IndexDefinition();
+        d._class = cls;
+        d.table = table;
+        d.jsonPath = jsonPath;
+        return d;
+    }
+
+    @Test
+    void routes_are_computed_once_per_metadata_generation() {
+        IndexDefinition invoice = def("Invoice", "invoice_idx", "$");
+        IndexDefinition lines = def("Line", "line_idx", "$");
+        IndexDefinition notes = def("Note", "note_idx", "$.notes");
+        IndexDefinition ghost = def("Ghost", null, "$");
+        IndexLoader loader = mock(IndexLoader.class);
+        when(loader.findByClass(anyString())).thenReturn(Optional.empty());
+        when(loader.findByClass("Invoice")).thenReturn(Optional.of(invoice));
+        when(loader.all()).thenReturn(List.of(invoice, lines, notes, ghost));
+        MetadataDefinition md = new MetadataDefinition();
+        md._class = "Invoice";
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.resolveForClass("invoiceProcess")).thenReturn(md);
+
+        CaseDataWorkerIndexRoutes routes = new CaseDataWorkerIndexRoutes(loader, resolver);
+        CaseDataWorkerIndexRoutes.Route route = routes.routeFor("invoiceProcess");
+        assertThat(route.targets()).extracting(CaseDataWorkerIndexRoutes.Target::def).containsExactly(invoice, lines, notes);
+        assertThat(route.targets()).extracting(CaseDataWorkerIndexRoutes.Target::locate).containsExactly(
+                CaseDataWorkerIndexRoutes.Locate.ROOT, CaseDataWorkerIndexRoutes.Locate.CLASS_SCAN, CaseDataWorkerIndexRoutes.Locate.PATH);
+        assertThat(route.scanClasses()).containsExactly("Line");
+        assertThat(routes.routeFor("invoiceProcess")).isSameAs(route);
+
+        when(resolver.metadataGeneration()).thenReturn(1L);
+        assertThat(routes.routeFor("invoiceProcess")).isNotSameAs(route);
+        verify(resolver, times(2)).resolveForClass("invoiceProcess");
+        verify(loader, times(2)).all();
+    }
+
+    @Test
+    void collect_by_class_finds_nested_objects_in_one_walk() {
+        Map<String, Object> tree = Map.of(
+                "@class", "Invoice",
+                "lines", List.of(Map.of("@class", "Line", "n", 1),
+                        Map.of("@class", "Line", "n", 2, "sub", Map.of("@class", "Line", "n", 3))),
+                "note", Map.of("@class", "Note"));
+
+        Map<String, List<Object>> found = CaseDataWorkerIndexRoutes.collectByClass(tree, Set.of("Line", "Invoice"));
+        assertThat(found.get("Line")).extracting(m -> ((Map<?, ?>) m).get("n")).containsExactly(1, 2, 3);
+        assertThat(found.get("Invoice")).isEmpty();
+        assertThat(found).doesNotContainKey("Note");
+    }
+}
@@ -0,0 +1,114 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class CaseDataWorkerRowHasherUnitTest {
+
+    private final CaseDataWorkerRowHasher hasher = new CaseDataWorkerRowHasher(null, new CaseDataWorkerSchemaHelper(null, null, null));
+
+    private static Map<String, Object> row(String caseId, String sku) {
+        Map<String, Object> r = new LinkedHashMap<>();
+        r.put("case_instance_id", caseId);
+        r.put("sku", sku);
+        return r;
+    }
+
+    @Test
+    void hash_ignores_column_order_and_bookkeeping_columns() {
+        Map<String, Object> a = row("c1", "S1");
+        a.put("created_at", "2024-01-01");
+        Map<String, Object> b = new LinkedHashMap<>();
+        b.put("SKU", "S1");
+        b.put("case_instance_id", "c1");
+        b.put("created_at", "2025-06-30");
+
+        assertThat(hasher.hash(a)).isEqualTo(hasher.hash(b));
+        assertThat(hasher.hash(a)).isNotEqualTo(hasher.hash(row("c1", "S2")));
+    }
+
+    @Test
+    void changedRows_skips_batch_that_matches_stored_hashes() {
+        List<Map<String, Object>> rows = new ArrayList<>(List.of(row("c1", "S1"), row("c1", "S2")));
+        List<String> stored = List.of(hasher.hash(row("c1", "S2")), hasher.hash(row("c1", "S1")));
+
+        assertThat(hasher.changedRows(rows, stored)).isEmpty();
+        assertThat(hasher.changedRows(rows, null)).hasSize(2);
+        assertThat(rows.get(0)).containsKey(CaseDataWorkerRowHasher.HASH_COLUMN);
+    }
+
+    @Test
+    void changedRows_writes_from_first_changed_row_and_reports_stale() {
+        List<Map<String, Object>> rows = new ArrayList<>(List.of(row("c1", "S1"), row("c1", "S3"), row("c1", "S2")));
+        List<String> stored = new ArrayList<>(List.of(hasher.hash(row("c1", "S1")), hasher.hash(row("c1", "S2")), hasher.hash(row("c1", "S9"))));
+        stored.add(null);
+
+        List<Map<String, Object>> changed = hasher.changedRows(rows, stored);
+        assertThat(changed).extracting(r -> r.get("sku")).containsExactly("S3", "S2");
+        assertThat(hasher.staleHashes(rows, stored)).containsExactly(hasher.hash(row("c1", "S9")), null);
+    }
+
+    @Test
+    void syncIndexRows_skips_unchanged_rows_and_deletes_removed_ones() throws Exception {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_rowhash;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+
+        CaseDataWorkerService svc = new CaseDataWorkerService(jdbc, null, null, null, null);
+        java.lang.reflect.Field f = CaseDataWorkerService.class.getDeclaredField("db");
+        f.setAccessible(true);
+        CaseDataWorkerRowHelper db = (CaseDataWorkerRowHelper) f.get(svc);
+
+        db.syncIndexRows("hash_index", "c1", new ArrayList<>(List.of(row("c1", "S1"))), null);
+        String firstHash = jdbc.queryForObject("SELECT row_hash FROM hash_index WHERE case_instance_id = 'c1'", String.class);
+        jdbc.update("UPDATE hash_index SET requested_by = 'marker' WHERE case_instance_id = 'c1'");
+
+        // same content again: no write, so the marker survives
+        db.syncIndexRows("hash_index", "c1", new ArrayList<>(List.of(row("c1", "S1"))), null);
+        assertThat(jdbc.queryForObject("SELECT requested_by FROM hash_index WHERE case_instance_id = 'c1'", String.class)).isEqualTo("marker");
+
+        db.syncIndexRows("hash_index", "c1", new ArrayList<>(List.of(row("c1", "S2"))), null);
+        assertThat(jdbc.queryForObject("SELECT sku FROM hash_index WHERE case_instance_id = 'c1'", String.class)).isEqualTo("S2");
+        assertThat(jdbc.queryForObject("SELECT row_hash FROM hash_index WHERE case_instance_id = 'c1'", String.class)).isNotEqualTo(firstHash);
+
+        db.syncIndexRows("hash_index", "c1", List.of(), null);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM hash_index WHERE case_instance_id = 'c1'", Integer.class)).isZero();
+    }
+
+    @Test
+    void deleteByHash_removes_stale_and_unhashed_rows_in_one_statement() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_rowhash_delete;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = spy(new JdbcTemplate(ds));
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE hash_rows (case_instance_id VARCHAR(255), sku VARCHAR(255), row_hash VARCHAR(64))");
+        jdbc.update("INSERT INTO hash_rows VALUES ('c1', 'S1', 'h1'), ('c1', 'S2', 'h2'), ('c1', 'S3', NULL), ('c1', 'S4', 'h4'), ('c2', 'S1', 'h1')");
+        CaseDataWorkerRowHasher dbHasher = new CaseDataWorkerRowHasher(jdbc, new CaseDataWorkerSchemaHelper(jdbc, null, null));
+
+        assertThat(dbHasher.deleteByHash("hash_rows", "c1", java.util.Arrays.asList("h1", "h2", null, "h1"))).isEqualTo(3);
+        assertThat(dbHasher.deleteByHash("hash_rows", "c1", List.of())).isZero();
+
+        verify(jdbc, times(1)).update(contains("DELETE"), any(Object[].class));
+        assertThat(jdbc.queryForList("SELECT sku FROM hash_rows WHERE case_instance_id = 'c1'", String.class)).containsExactly("S4");
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM hash_rows WHERE case_instance_id = 'c2'", Integer.class)).isEqualTo(1);
+    }
+}
@@ -0,0 +1,120 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import vn.com.fecredit.flowable.exposer.service.IndexLoader;
+import vn.com.fecredit.flowable.exposer.service.MetadataAnnotator;
+import vn.com.fecredit.flowable.exposer.service.MetadataResolver;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CaseDataWorkerWatermarkUnitTest {
+
+    private JdbcTemplate jdbc;
+    private MetadataAnnotator annotator;
+    private CaseDataWorkerService svc;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_watermark;MODE=MySQL;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER)");
+
+        MetadataDefinition def = new MetadataDefinition();
+        def._class = "Order";
+        def.tableName = "wm_plain_order";
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.resolveForClass(anyString())).thenReturn(def);
+        when(resolver.mappingsMetadataFor(anyString())).thenReturn(Map.of());
+        when(resolver.mappingsFor(anyString())).thenReturn(Map.of());
+        annotator = mock(MetadataAnnotator.class);
+
+        svc = new CaseDataWorkerService(jdbc, resolver, new ObjectMapper(), annotator, new IndexLoader());
+    }
+
+    private CaseDataWorkerService withIndex(IndexDefinition index) {
+        IndexLoader loader = mock(IndexLoader.class);
+        when(loader.findByClass("Order")).thenReturn(java.util.Optional.of(index));
+        when(loader.all()).thenReturn(List.of(index));
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        MetadataDefinition def = new MetadataDefinition();
+        def._class = "Order";
+        def.tableName = "wm_plain_order";
+        when(resolver.resolveForClass(anyString())).thenReturn(def);
+        when(resolver.mappingsMetadataFor(anyString())).thenReturn(Map.of());
+        when(resolver.mappingsFor(anyString())).thenReturn(Map.of());
+        return new CaseDataWorkerService(jdbc, resolver, new ObjectMapper(), annotator, loader);
+    }
+
+    private void store(int version) {
+        jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, created_at, version) VALUES (?,?,?,?,?)",
+                "c1", "Order", "{\"total\":10}", new java.sql.Timestamp(System.currentTimeMillis() + version), version);
+    }
+
+    @Test
+    void reindex_skips_versions_that_are_already_exposed() {
+        store(1);
+        svc.reindexByCaseInstanceId("c1");
+        assertThat(jdbc.queryForObject("SELECT snapshot_version FROM wm_plain_order WHERE case_instance_id = 'c1'", Long.class)).isEqualTo(1L);
+
+        svc.reindexByCaseInstanceId("c1");
+        verify(annotator, times(1)).annotate(any(), anyString());
+
+        store(2);
+        svc.reindexByCaseInstanceId("c1");
+        verify(annotator, times(2)).annotate(any(), anyString());
+        assertThat(jdbc.queryForObject("SELECT snapshot_version FROM wm_plain_order WHERE case_instance_id = 'c1'", Long.class)).isEqualTo(2L);
+    }
+
+    @Test
+    void a_failed_index_write_fails_the_pass_and_leaves_the_watermark_for_a_retry() {
+        jdbc.execute("CREATE TABLE wm_idx_order (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), total DOUBLE CHECK (total < 0))");
+        IndexDefinition index = new IndexDefinition();
+        index._class = "Order";
+        index.table = "wm_idx_order";
+        index.jsonPath = "$";
+        IndexDefinition.IndexField total = new IndexDefinition.IndexField();
+        total.jsonPath = "$.total";
+        total.plainColumn = "total";
+        index.mappings = List.of(total);
+        CaseDataWorkerService failing = withIndex(index);
+        store(1);
+
+        assertThatThrownBy(() -> failing.reindexByCaseInstanceId("c1")).isInstanceOf(RuntimeException.class);
+        assertThat(jdbc.queryForList("SELECT * FROM wm_plain_order WHERE case_instance_id = 'c1'")).hasSize(1)
+                .allMatch(r -> r.get("SNAPSHOT_VERSION") == null);
+
+        // not skipped as already exposed: the next request redoes the pass
+        assertThatThrownBy(() -> failing.reindexByCaseInstanceId("c1")).isInstanceOf(RuntimeException.class);
+        verify(annotator, times(2)).annotate(any(), anyString());
+    }
+
+    @Test
+    void forced_reindex_ignores_the_watermark() {
+        store(1);
+        svc.reindexByCaseInstanceId("c1");
+        svc.reindexByCaseInstanceId("c1", true);
+        verify(annotator, times(2)).annotate(any(), anyString());
+    }
+}
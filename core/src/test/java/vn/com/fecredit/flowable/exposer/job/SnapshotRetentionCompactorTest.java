@@ -0,0 +1,101 @@
+package vn.com.fecredit.flowable.exposer.job;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.fecredit.flowable.exposer.service.EntityTypeSettings;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotRetentionCompactorTest {
+
+    @Test
+    void keeps_latest_recent_and_delta_chains_and_deletes_the_rest() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_retention;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, "
+                + "snapshot_kind VARCHAR(8), base_id BIGINT)");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+
+        // c1: four old versions and two recent ones
+        for (int v = 1; v <= 6; v++) store(jdbc, "c1", "Order", v, v <= 4 ? Duration.ofDays(10) : Duration.ofMinutes(5), "FULL", null);
+        // c2: an old delta chain whose newest row must stay reconstructable
+        long full = store(jdbc, "c2", "Order", 1, Duration.ofDays(9), "FULL", null);
+        long d1 = store(jdbc, "c2", "Order", 2, Duration.ofDays(8), "DELTA", full);
+        store(jdbc, "c2", "Order", 3, Duration.ofDays(7), "DELTA", d1);
+        // c3: entity type without a retention policy
+        for (int v = 1; v <= 3; v++) store(jdbc, "c3", "Audit", v, Duration.ofDays(30), "FULL", null);
+
+        SnapshotRetentionCompactor compactor = new SnapshotRetentionCompactor(jdbc);
+        ReflectionTestUtils.setField(compactor, "batchSize", 2);
+        ReflectionTestUtils.setField(compactor, "settings", new EntityTypeSettings(new MockEnvironment()
+                .withProperty("exposer.entity.Order.retention-keep-latest", "1")
+                .withProperty("exposer.entity.Order.retention-keep-newer-than", "1d")));
+
+        SnapshotRetentionCompactor.Result result = compactor.compactAll();
+
+        assertThat(result.rowsDeleted()).isEqualTo(4);
+        assertThat(result.bytesReclaimed()).isPositive();
+        assertThat(versions(jdbc, "c1")).containsExactly(5, 6);
+        assertThat(versions(jdbc, "c2")).containsExactly(1, 2, 3);
+        assertThat(versions(jdbc, "c3")).containsExactly(1, 2, 3);
+
+        assertThat(compactor.compactAll().rowsDeleted()).isZero();
+    }
+
+    @Test
+    void groups_cases_straight_from_the_store_without_a_pointer_table() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_retention_no_pointer;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER)");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+        for (String caseId : List.of("c1", "c2", "c3")) {
+            for (int v = 1; v <= 3; v++) store(jdbc, caseId, "Order", v, Duration.ofDays(10 - v), null, null);
+        }
+        jdbc.execute("DROP TABLE sys_case_data_latest");
+
+        SnapshotRetentionCompactor compactor = new SnapshotRetentionCompactor(jdbc);
+        ReflectionTestUtils.setField(compactor, "batchSize", 2);
+        ReflectionTestUtils.setField(compactor, "settings", new EntityTypeSettings(new MockEnvironment()
+                .withProperty("exposer.entity.Order.retention-keep-latest", "1")));
+
+        assertThat(compactor.compactAll().rowsDeleted()).isEqualTo(6);
+        for (String caseId : List.of("c1", "c2", "c3")) assertThat(versions(jdbc, caseId)).containsExactly(3);
+    }
+
+    private static long store(JdbcTemplate jdbc, String caseId, String entityType, int version, Duration age, String kind, Long baseId) {
+        if (kind == null) {
+            jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, created_at, version) VALUES (?,?,?,?,?)",
+                    caseId, entityType, "{\"v\":" + version + "}", Timestamp.from(Instant.now().minus(age)), version);
+        } else {
+            jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, created_at, version, snapshot_kind, base_id) VALUES (?,?,?,?,?,?,?)",
+                    caseId, entityType, "{\"v\":" + version + "}", Timestamp.from(Instant.now().minus(age)), version, kind, baseId);
+        }
+        long id = jdbc.queryForObject("SELECT MAX(id) FROM sys_case_data_store", Long.class);
+        jdbc.update("MERGE INTO sys_case_data_latest (case_instance_id, store_id, version) KEY (case_instance_id) VALUES (?,?,?)", caseId, id, version);
+        return id;
+    }
+
+    private static List<Integer> versions(JdbcTemplate jdbc, String caseId) {
+        return jdbc.queryForList("SELECT version FROM sys_case_data_store WHERE case_instance_id = ? ORDER BY version", Integer.class, caseId);
+    }
+}
@@ -1,10 +1,21 @@
 package vn.com.fecredit.flowable.exposer.service;
 
 import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Timestamp;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
 
 public class CaseDataWriterTest {
 
@@ -14,4 +25,136 @@ public class CaseDataWriterTest {
         CaseDataWriter writer = new CaseDataWriter(jdbc);
         assertThat(writer).isNotNull();
     }
+
+    @Test
+    void latest_pointer_follows_newest_snapshot_only_forward() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_latest_pointer;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, status VARCHAR(50), error_message VARCHAR(1024), version INTEGER)");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Long first = writer.insertSnapshot("c1", "Order", "{}", now);
+        writer.upsertLatestPointer("c1", first);
+        Long second = writer.insertSnapshot("c1", "Order", "{\"a\":1}", now);
+        writer.upsertLatestPointer("c1", second);
+
+        assertThat(first).isNotNull();
+        assertThat(second).isGreaterThan(first);
+        assertThat(jdbc.queryForObject("SELECT version FROM sys_case_data_store WHERE id = ?", Integer.class, second)).isEqualTo(2);
+        assertThat(jdbc.queryForObject("SELECT store_id FROM sys_case_data_latest WHERE case_instance_id = 'c1'", Long.class)).isEqualTo(second);
+
+        // a late writer with an older row must not move the pointer back
+        writer.upsertLatestPointer("c1", first);
+        assertThat(jdbc.queryForObject("SELECT version FROM sys_case_data_latest WHERE case_instance_id = 'c1'", Integer.class)).isEqualTo(2);
+    }
+
+    @Test
+    void snapshot_and_expose_request_commit_or_roll_back_together() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_outbox;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, content_hash VARCHAR(64))");
+
+        CaseDataPersistService service = new CaseDataPersistService(jdbc, null, null, new CaseDataWriter(jdbc));
+        ReflectionTestUtils.setField(service, "txManager", new DataSourceTransactionManager(ds));
+
+        // no request table yet: the failed enqueue must take the snapshot down with it
+        assertThatThrownBy(() -> service.persistSnapshotAndRequest("c1", "Order", "{\"a\":1}", "alice")).isInstanceOf(RuntimeException.class);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store", Integer.class)).isZero();
+
+        jdbc.execute("CREATE TABLE sys_expose_requests (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255) NOT NULL, "
+                + "entity_type VARCHAR(255), requested_by VARCHAR(255), requested_at TIMESTAMP, status VARCHAR(50), processed_at TIMESTAMP)");
+        assertThat(service.persistSnapshotAndRequest("c1", "Order", "{\"a\":1}", "alice")).isTrue();
+        assertThat(service.persistSnapshotAndRequest("c1", "Order", "{\"a\":1}", "alice")).isFalse();
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store", Integer.class)).isEqualTo(1);
+        assertThat(jdbc.queryForMap("SELECT case_instance_id, entity_type, requested_by, status FROM sys_expose_requests"))
+                .containsEntry("CASE_INSTANCE_ID", "c1").containsEntry("REQUESTED_BY", "alice").containsEntry("STATUS", "PENDING");
+    }
+
+    @Test
+    void capabilities_are_detected_once_from_the_store_schema() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_writer_caps;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP)");
+
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        CaseDataWriter.Capabilities caps = writer.capabilities();
+        assertThat(caps.version()).isFalse();
+        assertThat(caps.latestTable()).isFalse();
+        assertThat(writer.capabilities()).isSameAs(caps);
+
+        Long id = writer.insertSnapshot("c1", "Order", "{}", new Timestamp(System.currentTimeMillis()));
+        assertThat(id).isNotNull();
+    }
+
+    @Test
+    void content_hash_is_canonical_and_readable_through_the_latest_pointer() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_content_hash;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, content_hash VARCHAR(64))");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+
+        assertThat(SnapshotContentHash.of("{\"a\":1,\"b\":{\"y\":2,\"x\":3}}"))
+                .isEqualTo(SnapshotContentHash.of("{ \"b\": {\"x\":3,\"y\":2}, \"a\": 1 }"));
+        assertThat(SnapshotContentHash.of("{\"a\":1}")).isNotEqualTo(SnapshotContentHash.of("{\"a\":2}"));
+
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        assertThat(writer.latestContentHash("c1")).isNull();
+        Long id = writer.insertSnapshot("c1", "Order", "{\"a\":1}", new Timestamp(System.currentTimeMillis()));
+        writer.upsertLatestPointer("c1", id);
+
+        assertThat(writer.capabilities().contentHash()).isTrue();
+        assertThat(writer.latestContentHash("c1")).isEqualTo(SnapshotContentHash.of("{\"a\":1}"));
+    }
+
+    @Test
+    void a_version_taken_concurrently_is_retried_with_a_fresh_one() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_version_race;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = spy(new JdbcTemplate(ds));
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER)");
+        jdbc.execute("CREATE UNIQUE INDEX ux_case_data_store_case_version ON sys_case_data_store(case_instance_id, version)");
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        doThrow(new DuplicateKeyException("version taken")).doCallRealMethod().when(jdbc).execute(any(ConnectionCallback.class));
+        assertThat(writer.insertSnapshot("c1", "Order", "{}", now)).isNotNull();
+
+        doThrow(new DuplicateKeyException("version taken")).doCallRealMethod().when(jdbc).execute(any(ConnectionCallback.class));
+        writer.insertSnapshots(java.util.List.of(new PendingSnapshot("c1", "Order", "{\"a\":1}", now),
+                new PendingSnapshot("c1", "Order", "{\"a\":2}", now)));
+
+        assertThat(jdbc.queryForList("SELECT version FROM sys_case_data_store WHERE case_instance_id = 'c1' ORDER BY id", Integer.class))
+                .containsExactly(1, 2, 3);
+        assertThatThrownBy(() -> jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, version) VALUES ('c1', 3)"))
+                .isInstanceOf(DuplicateKeyException.class);
+    }
 }
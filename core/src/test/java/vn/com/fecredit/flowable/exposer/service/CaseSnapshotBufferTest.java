@@ -0,0 +1,64 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+class CaseSnapshotBufferTest {
+
+    private TransactionTemplate tx() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:snapbuf_" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        return new TransactionTemplate(new DataSourceTransactionManager(ds));
+    }
+
+    @Test
+    void commit_writes_one_snapshot_and_request_per_case() {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CaseSnapshotBuffer buffer = new CaseSnapshotBuffer(persist);
+
+        tx().executeWithoutResult(status -> {
+            buffer.submit("c1", "Order", "{\"v\":1}", false, null);
+            buffer.submit("c1", "Order", "{\"v\":2}", true, "alice");
+            buffer.submit("c1", "Order", "{\"v\":3}", false, null);
+            buffer.submit("c2", "Order", "{\"v\":9}", false, null);
+            verifyNoInteractions(persist);
+        });
+
+        verify(persist).persistSnapshotAndRequest("c1", "Order", "{\"v\":3}", "alice");
+        verify(persist).persistSysCaseData("c2", "Order", "{\"v\":9}");
+        verifyNoMoreInteractions(persist);
+    }
+
+    @Test
+    void rollback_writes_nothing() {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CaseSnapshotBuffer buffer = new CaseSnapshotBuffer(persist);
+
+        tx().executeWithoutResult(status -> {
+            buffer.submit("c1", "Order", "{}", true, "bob");
+            status.setRollbackOnly();
+        });
+
+        verifyNoInteractions(persist);
+    }
+
+    @Test
+    void writes_immediately_outside_a_transaction() {
+        CaseDataPersistService persist = mock(CaseDataPersistService.class);
+        CaseSnapshotBuffer buffer = new CaseSnapshotBuffer(persist);
+
+        buffer.submit("c1", "Order", "{}", true, "bob");
+
+        verify(persist).persistSnapshotAndRequest("c1", "Order", "{}", "bob");
+    }
+}
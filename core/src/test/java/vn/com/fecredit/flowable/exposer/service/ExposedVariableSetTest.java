@@ -0,0 +1,123 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.fecredit.flowable.exposer.service.metadata.IndexDefinition;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ExposedVariableSetTest {
+
+    private static MetadataDefinition.FieldMapping mapping(String jsonPath) {
+        MetadataDefinition.FieldMapping m = new MetadataDefinition.FieldMapping();
+        m.jsonPath = jsonPath;
+        return m;
+    }
+
+    private static IndexDefinition index(String cls, String root, String... paths) {
+        IndexDefinition idx = new IndexDefinition();
+        idx._class = cls;
+        idx.table = cls.toLowerCase() + "_idx";
+        idx.jsonPath = root;
+        idx.mappings = new java.util.ArrayList<>();
+        for (String p : paths) {
+            IndexDefinition.IndexField f = new IndexDefinition.IndexField();
+            f.jsonPath = p;
+            idx.mappings.add(f);
+        }
+        return idx;
+    }
+
+    /** Loader whose definition for {@code Order} is {@code primary}, next to {@code others}. */
+    private static IndexLoader loader(IndexDefinition primary, IndexDefinition... others) {
+        IndexLoader loader = mock(IndexLoader.class);
+        when(loader.findByClass(anyString())).thenReturn(Optional.empty());
+        List<IndexDefinition> all = new java.util.ArrayList<>(List.of(others));
+        if (primary != null) {
+            when(loader.findByClass("Order")).thenReturn(Optional.of(primary));
+            all.add(0, primary);
+        }
+        when(loader.all()).thenReturn(all);
+        return loader;
+    }
+
+    private ExposedVariableSet set(MetadataResolver resolver, IndexLoader loader) {
+        ExposedVariableSet set = new ExposedVariableSet(resolver, loader);
+        ReflectionTestUtils.setField(set, "enabled", true);
+        ReflectionTestUtils.setField(set, "alwaysInclude", List.of("tenant"));
+        return set;
+    }
+
+    @Test
+    void collects_top_level_variables_from_metadata_and_indices() {
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        MetadataDefinition md = new MetadataDefinition();
+        MetadataDefinition.FieldDef total = new MetadataDefinition.FieldDef();
+        total.name = "total";
+        md.fields = List.of(total);
+        when(resolver.resolveForClass("Order")).thenReturn(md);
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("customer_id", mapping("$.customer.id")));
+        IndexLoader loader = loader(index("Order", "$", "$.meta.priority", "$['shipping fee']"),
+                index("Item", "$.items", "$.sku"),
+                index("Note", "$.notes[*]", "$.text"));
+
+        assertThat(set(resolver, loader).namesFor("Order")).containsExactlyInAnyOrder(
+                "total", "customer", "meta", "shipping fee", "items", "notes",
+                "caseInstanceId", "caseId", "scopeId", "parentId", "initiator", "tenant");
+    }
+
+    @Test
+    void indices_applied_by_class_scan_capture_everything() {
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("customer_id", mapping("$.customer.id")));
+
+        // a reindex looks for Invoice objects anywhere in the Order payload
+        assertThat(set(resolver, loader(null, index("Invoice", "$", "$.invoiceNo"))).namesFor("Order")).isNull();
+        assertThat(set(resolver, loader(null, index("Invoice", "$..invoices", "$.invoiceNo"))).namesFor("Order")).isNull();
+        assertThat(set(resolver, loader(null)).namesFor("Order")).contains("customer");
+    }
+
+    @Test
+    void whole_payload_paths_and_missing_metadata_capture_everything() {
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("all", mapping("$..id")));
+
+        assertThat(set(resolver, loader(null)).namesFor("Order")).isNull();
+        assertThat(set(resolver, loader(null)).namesFor("Unknown")).isNull();
+        assertThat(new ExposedVariableSet(resolver, null).namesFor("Order")).isNull();
+
+        assertThat(ExposedVariableSet.topLevel("$.items[0].id")).isEqualTo("items");
+        assertThat(ExposedVariableSet.topLevel("$.*")).isNull();
+        assertThat(ExposedVariableSet.topLevel("$")).isNull();
+    }
+
+    @Test
+    void cache_follows_metadata_generation_and_resolver_evictions() {
+        MetadataResolver resolver = mock(MetadataResolver.class);
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("customer_id", mapping("$.customer.id")));
+        ExposedVariableSet set = set(resolver, loader(null));
+        ArgumentCaptor<Runnable> onEvict = ArgumentCaptor.forClass(Runnable.class);
+        verify(resolver).onEvict(onEvict.capture());
+
+        assertThat(set.namesFor("Order")).contains("customer", "total", "meta");
+
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("invoice_no", mapping("$.invoice.no")));
+        assertThat(set.namesFor("Order")).contains("customer");
+        when(resolver.metadataGeneration()).thenReturn(1L);
+        assertThat(set.namesFor("Order")).contains("invoice").doesNotContain("customer");
+
+        when(resolver.mappingsMetadataFor("Order")).thenReturn(Map.of("sku", mapping("$.sku")));
+        onEvict.getValue().run();
+        assertThat(set.namesFor("Order")).contains("sku").doesNotContain("invoice");
+    }
+}
@@ -31,4 +31,74 @@ public class MetadataAnnotatorTest {
         annotator.annotate(root, "Order");
         assertThat(root).isNotNull();
     }
+
+    @Test
+    void version_marker_skips_reannotation_until_metadata_changes() throws Exception {
+        MetadataLookup lookup = org.mockito.Mockito.mock(MetadataLookup.class);
+        org.mockito.Mockito.when(lookup.fingerprint("Order")).thenReturn("v1");
+        MetadataAnnotator versioned = new MetadataAnnotator(lookup);
+        var om = new com.fasterxml.jackson.databind.ObjectMapper();
+
+        Map<String, Object> root = new HashMap<>();
+        root.put("total", 5);
+        versioned.annotate(root, "Order");
+        assertThat(root).containsEntry(MetadataAnnotator.VERSION_MARKER, "Order:v1").containsEntry("@class", "Order");
+
+        versioned.annotate(root, "Order");
+        org.mockito.Mockito.verify(lookup, org.mockito.Mockito.times(1)).resolve("Order");
+
+        String json = om.writeValueAsString(Map.of("nested", Map.of(MetadataAnnotator.VERSION_MARKER, "x"), MetadataAnnotator.VERSION_MARKER, "Order:v1"));
+        assertThat(versioned.isCurrent(json, "Order")).isTrue();
+        assertThat(versioned.isCurrent("{\"total\":5}", "Order")).isFalse();
+        assertThat(versioned.isCurrent(json, "Invoice")).isFalse();
+
+        org.mockito.Mockito.when(lookup.fingerprint("Order")).thenReturn("v2");
+        assertThat(versioned.isCurrent(json, "Order")).isFalse();
+        versioned.annotate(root, "Order");
+        assertThat(root).containsEntry(MetadataAnnotator.VERSION_MARKER, "Order:v2");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void compiled_plan_annotates_without_resolving_metadata_again() {
+        MetadataResolver resolver = org.mockito.Mockito.mock(MetadataResolver.class);
+        org.mockito.Mockito.when(resolver.metadataFingerprint("Order")).thenReturn("v1");
+        org.mockito.Mockito.when(resolver.resolveForClass("Order")).thenReturn(md(field("customer", "Customer", null), field("items", null, "Item")));
+        org.mockito.Mockito.when(resolver.resolveForClass("Customer")).thenReturn(md(field("referrer", "Customer", null), field("address", null, null)));
+        org.mockito.Mockito.when(resolver.resolveForClass("Shipping")).thenReturn(md());
+        MetadataAnnotator planned = new MetadataAnnotator(new MetadataLookup(resolver));
+
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> root = new HashMap<>();
+            Map<String, Object> referrer = new HashMap<>(Map.of("address", new HashMap<>(Map.of("city", "HN"))));
+            root.put("customer", new HashMap<>(Map.of("referrer", referrer)));
+            root.put("items", java.util.List.of(new HashMap<>(Map.of("sku", "A")), "loose"));
+            root.put("shipping", new HashMap<>(Map.of("carrier", "X")));
+            planned.annotate(root, "Order");
+
+            assertThat((Map<String, Object>) root.get("customer")).containsEntry("@class", "Customer");
+            assertThat(referrer).containsEntry("@class", "Customer");
+            assertThat((Map<String, Object>) referrer.get("address")).containsEntry("@class", "Address");
+            assertThat((Map<String, Object>) ((java.util.List<Object>) root.get("items")).get(0)).containsEntry("@class", "Item");
+            assertThat((Map<String, Object>) root.get("shipping")).containsEntry("@class", "Shipping");
+        }
+        org.mockito.Mockito.verify(resolver, org.mockito.Mockito.times(1)).resolveForClass("Order");
+        org.mockito.Mockito.verify(resolver, org.mockito.Mockito.times(1)).resolveForClass("Customer");
+        org.mockito.Mockito.verify(resolver, org.mockito.Mockito.times(1)).resolveForClass("Shipping");
+    }
+
+    private static vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition md(
+            vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition.FieldDef... fields) {
+        var md = new vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition();
+        md.fields = java.util.List.of(fields);
+        return md;
+    }
+
+    private static vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition.FieldDef field(String name, String className, String elementClass) {
+        var fd = new vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition.FieldDef();
+        fd.name = name;
+        fd.className = className;
+        fd.elementClass = elementClass;
+        return fd;
+    }
 }
@@ -0,0 +1,62 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import vn.com.fecredit.flowable.exposer.entity.SysExposeClassDef;
+import vn.com.fecredit.flowable.exposer.repository.SysExposeClassDefRepository;
+import vn.com.fecredit.flowable.exposer.service.metadata.MetadataDefinition;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MetadataRegistryTest {
+
+    private static SysExposeClassDef row(int version, boolean enabled, String jsonPath) {
+        SysExposeClassDef ent = new SysExposeClassDef();
+        ent.setClassName("Order");
+        ent.setEntityType("Order");
+        ent.setVersion(version);
+        ent.setEnabled(enabled);
+        ent.setJsonDefinition("{\"class\":\"Order\",\"entityType\":\"Order\",\"mappings\":[{\"column\":\"total_amount\",\"jsonPath\":\"" + jsonPath + "\"}]}");
+        return ent;
+    }
+
+    @Test
+    void snapshot_serves_lookups_without_the_repository_and_swaps_on_evict() {
+        SysExposeClassDefRepository repo = Mockito.mock(SysExposeClassDefRepository.class);
+        MetadataResourceLoader loader = Mockito.mock(MetadataResourceLoader.class);
+        MetadataDefinition customer = new MetadataDefinition();
+        customer._class = "Customer";
+        customer.entityType = "Customer";
+        Mockito.when(loader.all()).thenReturn(List.of(customer));
+        Mockito.when(loader.getByClass("Customer")).thenReturn(Optional.of(customer));
+        SysExposeClassDef v2 = row(2, true, "$.total");
+        Mockito.when(repo.findAll()).thenReturn(List.of(row(1, true, "$.old"), v2, row(3, false, "$.disabled")));
+        Mockito.when(repo.findLatestEnabledByEntityType("Order")).thenReturn(Optional.of(v2));
+
+        MetadataRegistry registry = new MetadataRegistry(repo, loader, null);
+        MetadataRegistry.Snapshot first = registry.snapshot();
+        assertThat(first.generation()).isEqualTo(1);
+        assertThat(first.definition("order").mappings.get(0).jsonPath).isEqualTo("$.total");
+        assertThat(first.definition("CUSTOMER")).isSameAs(customer);
+        assertThat(first.flattened("Order")).containsKey("total_amount");
+        assertThat(first.definition("Invoice")).isNull();
+
+        MetadataResolver resolver = new MetadataResolver(repo, loader);
+        ReflectionTestUtils.setField(resolver, "registry", registry);
+        Mockito.clearInvocations(repo);
+        assertThat(resolver.resolveForClass("Order").mappings.get(0).jsonPath).isEqualTo("$.total");
+        assertThat(resolver.resolveForClass("Invoice")).isNull();
+        Mockito.verifyNoInteractions(repo);
+
+        Mockito.when(repo.findAll()).thenReturn(List.of(row(4, true, "$.amount")));
+        resolver.evict("Order");
+        assertThat(registry.snapshot()).isNotSameAs(first);
+        assertThat(registry.snapshot().generation()).isEqualTo(2);
+        assertThat(resolver.resolveForClass("Order").mappings.get(0).jsonPath).isEqualTo("$.amount");
+        assertThat(first.definition("Order").mappings.get(0).jsonPath).isEqualTo("$.total");
+    }
+}
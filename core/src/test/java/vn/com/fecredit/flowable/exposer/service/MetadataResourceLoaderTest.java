@@ -26,4 +26,22 @@ public class MetadataResourceLoaderTest {
         assertThat(child).isNotNull();
         assertThat(child._class).isEqualTo("Child");
     }
+
+    @Test
+    void normalized_indexes_resolve_any_case_and_cache_misses() {
+        MetadataResourceLoader loader = new MetadataResourceLoader();
+        loader.init();
+        assertThat(loader.getByClass("oRdEr")).get().extracting(md -> md._class).isEqualTo("Order");
+        assertThat(loader.findByEntityTypeOrClassCandidates(java.util.List.of("orderProcess", "ORDER")))
+                .get().extracting(md -> md._class).isEqualTo("Order");
+        assertThat(loader.getByClass("NoSuchClass")).isEmpty();
+        assertThat(loader.getByClass("nosuchclass")).isEmpty();
+
+        IndexLoader indices = new IndexLoader();
+        indices.init();
+        assertThat(indices.findByClass("orderindex")).get().extracting(d -> d.table).isEqualTo("order_index");
+        assertThat(indices.findByClass("ITEMINDEX")).get().extracting(d -> d.table).isEqualTo("item_index");
+        assertThat(indices.findByTable("ORDER_INDEX")).isPresent();
+        assertThat(indices.findByTable("missing_index")).isEmpty();
+    }
 }
@@ -0,0 +1,76 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PayloadCodecsTest {
+
+    @Test
+    void deflate_round_trips_and_shrinks_repetitive_json() {
+        StringBuilder sb = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 200; i++) sb.append(i == 0 ? "" : ",").append("{\"@class\":\"Item\",\"sku\":\"SKU-").append(i).append("\",\"qty\":1}");
+        String json = sb.append("]}").toString();
+
+        PayloadCodecs.Encoded enc = PayloadCodecs.encode(json, PayloadCodecs.DEFLATE);
+        assertThat(enc.text()).isNull();
+        assertThat(enc.codec()).isEqualTo("deflate");
+        assertThat(enc.bytes().length).isLessThan(json.getBytes(StandardCharsets.UTF_8).length / 4);
+        assertThat(PayloadCodecs.decode(enc.text(), enc.bytes(), enc.codec())).isEqualTo(json);
+    }
+
+    @Test
+    void identity_keeps_text_and_unknown_codecs_are_rejected() {
+        PayloadCodecs.Encoded enc = PayloadCodecs.encode("{}", PayloadCodecs.forName("none"));
+        assertThat(enc.text()).isEqualTo("{}");
+        assertThat(enc.bytes()).isNull();
+        assertThat(PayloadCodecs.decode("{}", null, null)).isEqualTo("{}");
+        assertThatThrownBy(() -> PayloadCodecs.forName("zstd")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void writer_encodes_per_entity_type_and_old_rows_stay_readable() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_payload_codec;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, payload_codec VARCHAR(32), payload_bytes BLOB)");
+        jdbc.update("INSERT INTO sys_case_data_store(case_instance_id, entity_type, payload, version) VALUES ('old', 'Order', '{\"legacy\":true}', 1)");
+
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        ReflectionTestUtils.setField(writer, "settings", new EntityTypeSettings(
+                new MockEnvironment().withProperty("exposer.entity.Order.payload-codec", "deflate")));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        writer.insertSnapshot("c1", "Order", "{\"a\":1}", now);
+        writer.insertSnapshot("c2", "Customer", "{\"b\":2}", now);
+
+        for (Map<String, Object> row : jdbc.queryForList("SELECT case_instance_id, payload, payload_codec, payload_bytes FROM sys_case_data_store")) {
+            String decoded = PayloadCodecs.decode((String) row.get("payload"), (byte[]) row.get("payload_bytes"), (String) row.get("payload_codec"));
+            switch ((String) row.get("case_instance_id")) {
+                case "old" -> assertThat(decoded).isEqualTo("{\"legacy\":true}");
+                case "c1" -> {
+                    assertThat(row.get("payload")).isNull();
+                    assertThat(row.get("payload_codec")).isEqualTo("deflate");
+                    assertThat(decoded).isEqualTo("{\"a\":1}");
+                }
+                default -> {
+                    assertThat(row.get("payload_codec")).isNull();
+                    assertThat(decoded).isEqualTo("{\"b\":2}");
+                }
+            }
+        }
+    }
+}
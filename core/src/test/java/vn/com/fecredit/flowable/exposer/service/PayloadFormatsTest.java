@@ -0,0 +1,57 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PayloadFormatsTest {
+
+    private static String sampleOrder(int items) {
+        StringBuilder sb = new StringBuilder("{\"@class\":\"Order\",\"orderId\":\"ORD-1\",\"total\":1234.5,\"customer\":{\"@class\":\"Customer\",\"id\":\"C1\",\"name\":\"Nguyen Van A\"},\"items\":[");
+        for (int i = 0; i < items; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"@class\":\"Item\",\"sku\":\"SKU-").append(i)
+                    .append("\",\"qty\":").append(i % 5 + 1).append(",\"price\":").append(10.25 * i).append(",\"active\":true}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    @Test
+    void smile_round_trips_and_is_detected_by_header() throws Exception {
+        String json = sampleOrder(3);
+        byte[] smile = PayloadFormats.jsonToSmile(json);
+
+        assertThat(PayloadFormats.isSmile(smile)).isTrue();
+        assertThat(PayloadFormats.isSmile(json.getBytes(StandardCharsets.UTF_8))).isFalse();
+        assertThat(new ObjectMapper().readTree(PayloadFormats.smileToJson(smile))).isEqualTo(new ObjectMapper().readTree(json));
+
+        PayloadCodecs.Encoded enc = PayloadCodecs.encode(json, PayloadCodecs.DEFLATE, true);
+        assertThat(PayloadFormats.isSmile(PayloadCodecs.decodeBytes(enc.bytes(), enc.codec()))).isTrue();
+        assertThat(new ObjectMapper().readTree(PayloadCodecs.decode(null, enc.bytes(), enc.codec()))).isEqualTo(new ObjectMapper().readTree(json));
+        assertThat(PayloadCodecs.encode(json, PayloadCodecs.IDENTITY, true).codec()).isEqualTo("none");
+    }
+
+    /**
+     * Size and equivalence of text JSON against Smile for a typical order
+     * snapshot.  Parse timings live in {@code PayloadFormatsBenchmark} under
+     * the {@code jmh} source set.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void smile_is_smaller_than_text_json_and_reads_back_the_same_map() throws Exception {
+        ObjectMapper om = new ObjectMapper();
+        String json = sampleOrder(500);
+        byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+        byte[] smile = PayloadFormats.jsonToSmile(json);
+        byte[] deflated = PayloadCodecs.DEFLATE.encode(smile);
+
+        assertThat(PayloadFormats.readSmileMap(smile)).isEqualTo(om.readValue(json, Map.class));
+        assertThat(PayloadFormats.readSmileMap(PayloadCodecs.DEFLATE.decode(deflated))).isEqualTo(om.readValue(json, Map.class));
+        assertThat(PayloadFormats.jsonToSmile(json)).isEqualTo(smile);
+        assertThat(smile.length).isLessThan(jsonBytes.length);
+        assertThat(deflated.length).isLessThan(smile.length);
+    }
+}
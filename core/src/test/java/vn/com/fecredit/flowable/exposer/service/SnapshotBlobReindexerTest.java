@@ -0,0 +1,79 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotBlobReindexerTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    void reindex_streams_in_chunks_skips_deltas_and_resumes_from_checkpoint() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_blob_reindex;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, content_hash VARCHAR(64), "
+                + "snapshot_kind VARCHAR(8), base_id BIGINT)");
+        jdbc.execute("CREATE TABLE sys_case_data_reindex_checkpoint (entity_type VARCHAR(255) PRIMARY KEY, last_id BIGINT NOT NULL, "
+                + "rows_done BIGINT NOT NULL, status VARCHAR(30) NOT NULL, started_at TIMESTAMP, updated_at TIMESTAMP)");
+
+        for (int i = 1; i <= 7; i++) {
+            jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, version, snapshot_kind, base_id) VALUES (?,?,?,?,?,?)",
+                    "c" + i, "Order", i == 5 ? "[]" : "{\"n\":" + i + "}", 1, i == 5 ? "DELTA" : "FULL", i == 5 ? 4L : null);
+        }
+        jdbc.update("INSERT INTO sys_case_data_store (case_instance_id, entity_type, payload, version) VALUES ('x', 'Audit', '{}', 1)");
+        // an earlier run committed the first chunk and then died
+        jdbc.update("INSERT INTO sys_case_data_reindex_checkpoint (entity_type, last_id, rows_done, status) VALUES ('Order', 3, 3, 'RUNNING')");
+
+        MetadataAnnotator annotator = new MetadataAnnotator(null) {
+            @Override
+            public void annotate(Map<String, Object> root, String rootClass) {
+                root.put("@class", rootClass);
+            }
+        };
+        CaseDataPersistService service = new CaseDataPersistService(jdbc, om, annotator, new CaseDataWriter(jdbc));
+        ReflectionTestUtils.setField(service, "reindexChunkSize", 2);
+        ReflectionTestUtils.setField(service, "reindexParallelism", 2);
+
+        service.reindexExistingBlobs("Order");
+
+        List<String> payloads = jdbc.queryForList("SELECT payload FROM sys_case_data_store WHERE entity_type = 'Order' ORDER BY id", String.class);
+        assertThat(payloads.subList(0, 3)).allMatch(p -> !p.contains("@class"));
+        // id 4 is the base delta 5 patches: rewriting it alone would break the chain
+        assertThat(payloads.get(3)).isEqualTo("{\"n\":4}");
+        assertThat(payloads.get(4)).isEqualTo("[]");
+        assertThat(payloads.subList(5, 7)).allMatch(p -> p.contains("\"@class\":\"Order\""));
+        assertThat(jdbc.queryForObject("SELECT content_hash FROM sys_case_data_store WHERE id = 7", String.class))
+                .isEqualTo(SnapshotContentHash.of(payloads.get(6)));
+        assertThat(jdbc.queryForObject("SELECT payload FROM sys_case_data_store WHERE entity_type = 'Audit'", String.class)).isEqualTo("{}");
+
+        Map<String, Object> cp = jdbc.queryForMap("SELECT last_id, rows_done, status FROM sys_case_data_reindex_checkpoint WHERE entity_type = 'Order'");
+        assertThat(cp.get("STATUS")).isEqualTo("COMPLETED");
+        assertThat(((Number) cp.get("LAST_ID")).longValue()).isEqualTo(7L);
+        assertThat(((Number) cp.get("ROWS_DONE")).longValue()).isEqualTo(5L);
+
+        // a completed checkpoint is not resumed: the next run starts from the beginning
+        service.reindexExistingBlobs("Order");
+        assertThat(jdbc.queryForList("SELECT payload FROM sys_case_data_store WHERE entity_type = 'Order' AND snapshot_kind = 'FULL' AND id <> 4", String.class))
+                .allMatch(p -> p.contains("\"@class\":\"Order\""));
+
+        // the shared reconstructor drops what it cached from before the rewrite
+        SnapshotReconstructor shared = service.reconstructor();
+        shared.remember(7L, "{\"stale\":true}", 0);
+        service.reindexExistingBlobs("Order");
+        assertThat(shared.reconstruct(7L).json()).contains("\"@class\":\"Order\"");
+    }
+}
@@ -0,0 +1,67 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotReconstructorTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    void patch_diff_and_apply_round_trip() throws Exception {
+        JsonNode from = om.readTree("{\"a\":1,\"b\":{\"c\":2,\"d/e\":3},\"items\":[1,2],\"gone\":true}");
+        JsonNode to = om.readTree("{\"a\":1,\"b\":{\"c\":5,\"d/e\":3,\"n\":null},\"items\":[1,2,3]}");
+
+        JsonNode patch = JsonPatch.diff(from, to);
+        assertThat(patch.size()).isEqualTo(4);
+        assertThat(JsonPatch.apply(from, patch)).isEqualTo(to);
+        assertThat(JsonPatch.diff(to, to)).isEmpty();
+    }
+
+    @Test
+    void deltas_with_periodic_checkpoints_reconstruct_every_version() throws Exception {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_delta_snapshots;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, version INTEGER, content_hash VARCHAR(64), "
+                + "snapshot_kind VARCHAR(8), base_id BIGINT)");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+
+        CaseDataWriter writer = new CaseDataWriter(jdbc);
+        CaseDataPersistService service = new CaseDataPersistService(jdbc, om, null, writer);
+        ReflectionTestUtils.setField(service, "settings", new EntityTypeSettings(
+                new MockEnvironment().withProperty("exposer.entity.Order.delta-checkpoint-every", "3")));
+
+        StringBuilder items = new StringBuilder();
+        for (int i = 0; i < 50; i++) items.append(i == 0 ? "" : ",").append("{\"sku\":\"SKU-").append(i).append("\"}");
+        for (int v = 1; v <= 5; v++) {
+            assertThat(service.persistSysCaseData("c1", "Order", "{\"status\":\"S" + v + "\",\"items\":[" + items + "]}")).isTrue();
+        }
+
+        List<String> kinds = jdbc.queryForList("SELECT snapshot_kind FROM sys_case_data_store ORDER BY id", String.class);
+        assertThat(kinds).containsExactly("FULL", "DELTA", "DELTA", "FULL", "DELTA");
+
+        SnapshotReconstructor fresh = new SnapshotReconstructor(jdbc);
+        List<Long> ids = jdbc.queryForList("SELECT id FROM sys_case_data_store ORDER BY id", Long.class);
+        for (int v = 1; v <= 5; v++) {
+            JsonNode doc = om.readTree(fresh.reconstruct(ids.get(v - 1)).json());
+            assertThat(doc.path("status").asText()).isEqualTo("S" + v);
+            assertThat(doc.path("items").size()).isEqualTo(50);
+        }
+        assertThat(fresh.reconstructLatest("c1").depth()).isEqualTo(1);
+    }
+}
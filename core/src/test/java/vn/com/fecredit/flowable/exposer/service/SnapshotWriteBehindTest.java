@@ -0,0 +1,177 @@
+package vn.com.fecredit.flowable.exposer.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.sql.Timestamp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotWriteBehindTest {
+
+    private JdbcTemplate jdbc;
+
+    @TempDir
+    Path tmp;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource();
+        ds.setDriverClassName("org.h2.Driver");
+        ds.setUrl("jdbc:h2:mem:testdb_write_behind;DB_CLOSE_DELAY=-1");
+        ds.setUsername("sa");
+        ds.setPassword("");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("DROP ALL OBJECTS");
+        jdbc.execute("CREATE TABLE sys_case_data_store (id BIGINT AUTO_INCREMENT PRIMARY KEY, case_instance_id VARCHAR(255), "
+                + "entity_type VARCHAR(255), payload CLOB, created_at TIMESTAMP, status VARCHAR(50), error_message VARCHAR(1024), version INTEGER)");
+        jdbc.execute("CREATE TABLE sys_case_data_latest (case_instance_id VARCHAR(255) PRIMARY KEY, store_id BIGINT NOT NULL, version INTEGER, updated_at TIMESTAMP)");
+    }
+
+    private SnapshotWriteBehind newWriter(String durability) {
+        SnapshotWriteBehind wb = new SnapshotWriteBehind(new CaseDataWriter(jdbc), new ObjectMapper());
+        ReflectionTestUtils.setField(wb, "enabled", true);
+        ReflectionTestUtils.setField(wb, "capacity", 100);
+        ReflectionTestUtils.setField(wb, "batchSize", 10);
+        ReflectionTestUtils.setField(wb, "offerTimeoutMs", 50L);
+        ReflectionTestUtils.setField(wb, "overflow", "sync");
+        ReflectionTestUtils.setField(wb, "durability", durability);
+        ReflectionTestUtils.setField(wb, "journalFile", tmp.resolve("journal.log").toString());
+        ReflectionTestUtils.setField(wb, "deadLetterFile", tmp.resolve("dead.log").toString());
+        return wb;
+    }
+
+    private int count() {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store", Integer.class);
+    }
+
+    @Test
+    void queued_snapshots_are_flushed_in_batches_with_versions_and_pointer() throws Exception {
+        SnapshotWriteBehind wb = newWriter("none");
+        wb.start();
+        for (int i = 0; i < 5; i++) {
+            assertThat(wb.submit(new PendingSnapshot("c1", "Order", "{\"i\":" + i + "}", new Timestamp(System.currentTimeMillis())))).isTrue();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count() < 5 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        wb.stop();
+
+        assertThat(count()).isEqualTo(5);
+        assertThat(jdbc.queryForObject("SELECT MAX(version) FROM sys_case_data_store WHERE case_instance_id = 'c1'", Integer.class)).isEqualTo(5);
+        assertThat(jdbc.queryForObject("SELECT version FROM sys_case_data_latest WHERE case_instance_id = 'c1'", Integer.class)).isEqualTo(5);
+    }
+
+    @Test
+    void journaled_snapshots_are_replayed_on_start() throws Exception {
+        SnapshotJournal journal = new SnapshotJournal(tmp.resolve("journal.log"), new ObjectMapper());
+        journal.open();
+        journal.append(new PendingSnapshot("c2", "Order", "{\"a\":1}", new Timestamp(System.currentTimeMillis())));
+        journal.close();
+
+        SnapshotWriteBehind wb = newWriter("journal");
+        wb.start();
+        wb.stop();
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store WHERE case_instance_id = 'c2'", Integer.class)).isEqualTo(1);
+        assertThat(tmp.resolve("journal.log").toFile().length()).isZero();
+    }
+
+    @Test
+    void disabled_mode_asks_caller_to_write_synchronously() {
+        SnapshotWriteBehind wb = newWriter("none");
+        ReflectionTestUtils.setField(wb, "enabled", false);
+        wb.start();
+        assertThat(wb.submit(new PendingSnapshot("c3", "Order", "{}", new Timestamp(System.currentTimeMillis())))).isFalse();
+    }
+
+    @Test
+    void journal_keeps_a_committed_mark_and_compacts_under_load() throws Exception {
+        Path file = tmp.resolve("compact.log");
+        SnapshotJournal journal = new SnapshotJournal(file, new ObjectMapper(), 1);
+        journal.open();
+        long a = journal.append(new PendingSnapshot("c4", "Order", "{\"a\":1}", new Timestamp(1000)));
+        long b = journal.append(new PendingSnapshot("c4", "Order", "{\"a\":2}", new Timestamp(2000)));
+        long c = journal.append(new PendingSnapshot("c4", "Order", "{\"a\":3}", new Timestamp(3000)));
+        journal.committed(java.util.List.of(b));
+        assertThat(journal.mark()).isZero();
+        journal.committed(java.util.List.of(a));
+        assertThat(journal.mark()).isEqualTo(b);
+        assertThat(java.nio.file.Files.readAllLines(file)).hasSize(1).allMatch(l -> l.contains("\"seq\":" + c));
+        journal.close();
+
+        SnapshotJournal reopened = new SnapshotJournal(file, new ObjectMapper(), 1);
+        assertThat(reopened.replay()).extracting(SnapshotJournal.Entry::seq).containsExactly(c);
+        reopened.open();
+        assertThat(reopened.append(new PendingSnapshot("c4", "Order", "{}", new Timestamp(4000)))).isEqualTo(c + 1);
+        reopened.committed(java.util.List.of(c, c + 1));
+        assertThat(file.toFile().length()).isZero();
+        reopened.close();
+    }
+
+    @Test
+    void replay_skips_snapshots_already_in_the_store() throws Exception {
+        jdbc.execute("ALTER TABLE sys_case_data_store ADD COLUMN content_hash VARCHAR(64)");
+        PendingSnapshot stored = new PendingSnapshot("c5", "Order", "{\"a\":1}", new Timestamp(1_000_000L));
+        PendingSnapshot lost = new PendingSnapshot("c5", "Order", "{\"a\":2}", new Timestamp(2_000_000L));
+        new CaseDataWriter(jdbc).insertSnapshots(java.util.List.of(stored));
+        SnapshotJournal journal = new SnapshotJournal(tmp.resolve("journal.log"), new ObjectMapper());
+        journal.open();
+        journal.append(stored);
+        journal.append(lost);
+        journal.close();
+
+        SnapshotWriteBehind wb = newWriter("journal");
+        wb.start();
+        wb.stop();
+
+        assertThat(jdbc.queryForList("SELECT payload FROM sys_case_data_store WHERE case_instance_id = 'c5' ORDER BY version", String.class))
+                .containsExactly("{\"a\":1}", "{\"a\":2}");
+    }
+
+    @Test
+    void snapshots_failing_row_by_row_go_to_the_dead_letter_file() throws Exception {
+        jdbc.execute("ALTER TABLE sys_case_data_store ALTER COLUMN entity_type SET NOT NULL");
+        SnapshotWriteBehind wb = newWriter("journal");
+        wb.start();
+        wb.submit(new PendingSnapshot("bad", null, "{}", new Timestamp(System.currentTimeMillis())));
+        wb.submit(new PendingSnapshot("good", "Order", "{}", new Timestamp(System.currentTimeMillis())));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!tmp.resolve("dead.log").toFile().exists() && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        wb.stop();
+
+        assertThat(jdbc.queryForList("SELECT case_instance_id FROM sys_case_data_store", String.class)).containsExactly("good");
+        assertThat(java.nio.file.Files.readString(tmp.resolve("dead.log"))).contains("\"caseInstanceId\":\"bad\"").contains("\"error\"");
+        assertThat(tmp.resolve("journal.log").toFile().length()).isZero();
+    }
+
+    @Test
+    void a_full_queue_never_writes_a_case_ahead_of_its_queued_snapshots() throws Exception {
+        SnapshotWriteBehind wb = newWriter("none");
+        java.util.concurrent.BlockingQueue<Object> queue = new java.util.concurrent.ArrayBlockingQueue<>(1);
+        ReflectionTestUtils.setField(wb, "queue", queue);
+        ReflectionTestUtils.setField(wb, "running", true);
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+
+        assertThat(wb.submit(new PendingSnapshot("c6", "Order", "{\"a\":1}", now))).isTrue();
+        // another case has nothing pending, so the overflow is written on the caller's thread
+        assertThat(wb.submit(new PendingSnapshot("c7", "Order", "{}", now))).isTrue();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store WHERE case_instance_id = 'c7'", Integer.class)).isEqualTo(1);
+
+        Thread newer = new Thread(() -> wb.submit(new PendingSnapshot("c6", "Order", "{\"a\":2}", now)));
+        newer.start();
+        newer.join(300);
+        assertThat(newer.isAlive()).isTrue();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM sys_case_data_store WHERE case_instance_id = 'c6'", Integer.class)).isZero();
+
+        queue.take();
+        newer.join(5000);
+        assertThat(newer.isAlive()).isFalse();
+        assertThat(queue).hasSize(1);
+    }
+}
@@ -0,0 +1,7 @@
+-- V10: delta snapshots for sys_case_data_store
+-- snapshot_kind is FULL for a complete payload or DELTA for a JSON Patch
+-- (RFC 6902) against the row referenced by base_id. Existing rows are full
+-- snapshots; NULL is read as FULL.
+
+ALTER TABLE sys_case_data_store ADD COLUMN IF NOT EXISTS snapshot_kind VARCHAR(8);
+ALTER TABLE sys_case_data_store ADD COLUMN IF NOT EXISTS base_id BIGINT;
@@ -0,0 +1,13 @@
+-- V11: create sys_case_data_reindex_checkpoint
+-- Progress of CaseDataPersistService.reindexExistingBlobs per entity type.
+-- last_id is the highest sys_case_data_store id already rewritten; a run
+-- that finds a RUNNING checkpoint resumes after it instead of starting over.
+
+CREATE TABLE IF NOT EXISTS sys_case_data_reindex_checkpoint (
+  entity_type VARCHAR(255) PRIMARY KEY,
+  last_id BIGINT NOT NULL DEFAULT 0,
+  rows_done BIGINT NOT NULL DEFAULT 0,
+  status VARCHAR(30) NOT NULL DEFAULT 'RUNNING',
+  started_at TIMESTAMP,
+  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,17 @@
+-- V12: create sys_case_change_log
+-- Field-level variable changes recorded from VARIABLE_CREATED/UPDATED/DELETED
+-- events when exposer.capture.variable-changes.enabled=true.  Rows are written
+-- in the engine transaction and folded into a new snapshot by CaseDataWorker,
+-- which then sets applied_at.
+
+CREATE TABLE IF NOT EXISTS sys_case_change_log (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  case_instance_id VARCHAR(255) NOT NULL,
+  entity_type VARCHAR(255),
+  variable_name VARCHAR(255) NOT NULL,
+  operation VARCHAR(10) NOT NULL,
+  value_json CLOB,
+  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  applied_at TIMESTAMP NULL
+);
+CREATE INDEX IF NOT EXISTS idx_case_change_log_pending ON sys_case_change_log(applied_at, id);
@@ -0,0 +1,18 @@
+-- V13: unique snapshot versions per case
+-- CaseDataWriter allocates version = MAX(version) + 1 inside the insert, which
+-- two concurrent writers of the same case can both compute.  The unique index
+-- turns that race into a duplicate-key error the writer retries with a fresh
+-- version.  Cases that already hold duplicate versions are renumbered in id
+-- order first, and their latest pointers follow.
+
+UPDATE sys_case_data_store s
+SET version = (SELECT COUNT(*) FROM sys_case_data_store p
+               WHERE p.case_instance_id = s.case_instance_id AND p.id <= s.id)
+WHERE s.case_instance_id IN (SELECT d.case_instance_id FROM sys_case_data_store d
+                             WHERE d.version IS NOT NULL
+                             GROUP BY d.case_instance_id, d.version HAVING COUNT(*) > 1);
+
+UPDATE sys_case_data_latest l
+SET version = (SELECT s.version FROM sys_case_data_store s WHERE s.id = l.store_id);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_case_data_store_case_version ON sys_case_data_store(case_instance_id, version);
@@ -0,0 +1,5 @@
+-- V14: index the delta base reference
+-- The blob reindex leaves full rows that a delta is based on untouched and
+-- looks them up with NOT EXISTS (... WHERE base_id = s.id) for every row.
+
+CREATE INDEX IF NOT EXISTS ix_case_data_store_base_id ON sys_case_data_store(base_id);
@@ -0,0 +1,17 @@
+-- V7: create sys_case_data_latest
+-- Pointer from a case instance to its latest sys_case_data_store row, so the
+-- worker reads the latest snapshot by primary key instead of sorting the store.
+
+CREATE TABLE IF NOT EXISTS sys_case_data_latest (
+  case_instance_id VARCHAR(255) PRIMARY KEY,
+  store_id BIGINT NOT NULL,
+  version INTEGER,
+  updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- Backfill pointers for cases persisted before this migration
+INSERT INTO sys_case_data_latest (case_instance_id, store_id, version, updated_at)
+SELECT s.case_instance_id, s.id, s.version, s.created_at
+FROM sys_case_data_store s
+WHERE s.id = (SELECT MAX(s2.id) FROM sys_case_data_store s2 WHERE s2.case_instance_id = s.case_instance_id)
+  AND NOT EXISTS (SELECT 1 FROM sys_case_data_latest l WHERE l.case_instance_id = s.case_instance_id);
@@ -0,0 +1,6 @@
+-- V8: add content_hash to sys_case_data_store
+-- SHA-256 (hex) of the canonical JSON payload. The persist path compares it
+-- with the case's latest snapshot and skips byte-identical snapshots.
+-- Rows written before this migration keep NULL and never match.
+
+ALTER TABLE sys_case_data_store ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
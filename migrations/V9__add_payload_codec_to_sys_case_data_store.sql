@@ -0,0 +1,8 @@
+-- V9: optional encoded payload storage for sys_case_data_store
+-- Rows written with a payload codec (exposer.entity.<type>.payload-codec) keep
+-- payload NULL and store the encoded bytes in payload_bytes, with the codec
+-- name in payload_codec. Existing rows keep their JSON in payload and stay
+-- readable unchanged. Use LONGBLOB on MySQL and BYTEA on PostgreSQL.
+
+ALTER TABLE sys_case_data_store ADD COLUMN IF NOT EXISTS payload_codec VARCHAR(32);
+ALTER TABLE sys_case_data_store ADD COLUMN IF NOT EXISTS payload_bytes BLOB;